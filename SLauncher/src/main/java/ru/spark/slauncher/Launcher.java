@@ -4,11 +4,15 @@ import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import ru.spark.slauncher.setting.ConfigHolder;
+import ru.spark.slauncher.task.MirrorScoreboard;
 import ru.spark.slauncher.task.Schedulers;
 import ru.spark.slauncher.ui.Controllers;
 import ru.spark.slauncher.ui.FXUtils;
 import ru.spark.slauncher.upgrade.UpdateChecker;
 import ru.spark.slauncher.util.Analytics;
+import ru.spark.slauncher.util.CacheEvictor;
+import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ChecksumJournal;
 import ru.spark.slauncher.util.CrashReporter;
 import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.StringUtils;
@@ -24,6 +28,7 @@ import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import static ru.spark.slauncher.util.Logging.LOG;
 import static ru.spark.slauncher.util.i18n.I18n.i18n;
@@ -57,6 +62,24 @@ public final class Launcher extends Application {
     public static void stopApplication() {
         LOG.info("Stopping application.\n" + StringUtils.getStackTrace(Thread.currentThread().getStackTrace()));
 
+        MirrorScoreboard.getInstance().save();
+        ChecksumJournal journal = CacheRepository.getInstance().getChecksumJournal();
+        if (journal != null) {
+            try {
+                journal.save();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to save checksum journal", e);
+            }
+        }
+        CacheEvictor evictor = CacheRepository.getInstance().getCacheEvictor();
+        if (evictor != null) {
+            try {
+                evictor.save();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to save usage of cached files", e);
+            }
+        }
+
         FXUtils.runInFX(() -> {
             if (Controllers.getStage() == null)
                 return;
@@ -30,6 +30,9 @@ public final class Main {
         System.setProperty("java.net.useSystemProxies", "true");
         System.setProperty("http.agent", "SLauncher/" + Metadata.VERSION);
         System.setProperty("javafx.autoproxy.disable", "true");
+        // Bounds the idle connections kept alive for each host, must be set before the first connection is made.
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", "16");
 
         checkJavaFX();
         checkDirectoryPath();
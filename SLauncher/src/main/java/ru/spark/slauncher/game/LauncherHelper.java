@@ -354,7 +354,10 @@ public final class LauncherHelper {
                         "launch.state.logging_in",
                         "launch.state.waiting_launching"))
                 .cancellableExecutor();
+        // The user is waiting, run before downloads of installs and skins.
+        executor.setPriority(TaskPriority.INTERACTIVE);
         launchingStepsPane.setExecutor(executor, false);
+        TaskProfiler.profileIfEnabled(executor, Metadata.SL_DIRECTORY, "launch");
         executor.addTaskListener(new TaskListener() {
 
             @Override
@@ -8,13 +8,17 @@ import ru.spark.slauncher.mod.Modpack;
 import ru.spark.slauncher.setting.Profile;
 import ru.spark.slauncher.setting.VersionSetting;
 import ru.spark.slauncher.ui.FXUtils;
+import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ContentStore;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 public class SLGameRepository extends DefaultGameRepository {
@@ -62,6 +66,18 @@ public class SLGameRepository extends DefaultGameRepository {
         }
     }
 
+    @Override
+    protected void refreshVersionsImpl(Collection<String> ids) {
+        super.refreshVersionsImpl(ids);
+        // Settings of versions still there are kept, pages may be bound to them.
+        for (String id : ids) {
+            if (!versions.containsKey(id))
+                localVersionSettings.remove(id);
+            else if (!localVersionSettings.containsKey(id))
+                loadLocalVersionSetting(id);
+        }
+    }
+
     @Override
     protected void refreshVersionsImpl() {
         localVersionSettings.clear();
@@ -97,7 +113,7 @@ public class SLGameRepository extends DefaultGameRepository {
         File dstDir = getVersionRoot(dstId);
 
         if (dstDir.exists()) throw new IOException("Version exists");
-        FileUtils.copyDirectory(srcDir.toPath(), dstDir.toPath());
+        copyDirectory(srcDir.toPath(), dstDir.toPath(), path -> true);
         Files.move(dstDir.toPath().resolve(srcId + ".jar"), dstDir.toPath().resolve(dstId + ".jar"));
         Files.move(dstDir.toPath().resolve(srcId + ".json"), dstDir.toPath().resolve(dstId + ".json"));
         VersionSetting oldVersionSetting = getVersionSetting(srcId).clone();
@@ -127,7 +143,14 @@ public class SLGameRepository extends DefaultGameRepository {
             blackList.add("saves");
 
         if (originalGameDirType != GameDirectoryType.VERSION_FOLDER)
-            FileUtils.copyDirectory(srcGameDir.toPath(), dstGameDir.toPath(), path -> Modpack.acceptFile(path, blackList, null));
+            copyDirectory(srcGameDir.toPath(), dstGameDir.toPath(), path -> Modpack.acceptFile(path, blackList, null));
+    }
+
+    private static void copyDirectory(Path src, Path dest, Predicate<String> filePredicate) throws IOException {
+        if (ContentStore.isEnabled())
+            new ContentStore(CacheRepository.getInstance()).copyDirectory(src, dest, filePredicate);
+        else
+            FileUtils.copyDirectory(src, dest, filePredicate);
     }
 
     private File getLocalVersionSettingFile(String id) {
@@ -9,7 +9,7 @@ import ru.spark.slauncher.auth.Account;
 import ru.spark.slauncher.auth.ServerResponseMalformedException;
 import ru.spark.slauncher.auth.yggdrasil.*;
 import ru.spark.slauncher.task.FileDownloadTask;
-import ru.spark.slauncher.util.Lang;
+import ru.spark.slauncher.task.Schedulers;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.ResourceNotFoundError;
 import ru.spark.slauncher.util.StringUtils;
@@ -28,8 +28,6 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import static java.util.Collections.emptyMap;
@@ -41,7 +39,6 @@ import static java.util.Objects.requireNonNull;
  */
 public final class TexturesLoader {
 
-    private static final ThreadPoolExecutor POOL = Lang.threadPool("TexturesDownload", true, 2, 10, TimeUnit.SECONDS);
     private static final Path TEXTURES_DIR = Metadata.MINECRAFT_DIRECTORY.resolve("assets").resolve("skins");
     // ==== Skins ====
     private final static Map<TextureModel, LoadedTexture> DEFAULT_SKINS = new EnumMap<>(TextureModel.class);
@@ -138,7 +135,7 @@ public final class TexturesLoader {
                                 Logging.LOG.log(Level.WARNING, "Failed to load texture " + texture.getUrl() + ", using fallback texture", e);
                                 return uuidFallback;
                             }
-                        }, POOL);
+                        }, Schedulers.background());
                     } else {
                         return CompletableFuture.completedFuture(uuidFallback);
                     }
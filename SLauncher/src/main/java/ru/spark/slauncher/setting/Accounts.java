@@ -178,7 +178,7 @@ public final class Accounts {
 
         Account selected = selectedAccount.get();
         if (selected != null) {
-            Schedulers.io().execute(() -> {
+            Schedulers.background().execute(() -> {
                 try {
                     selected.logIn();
                 } catch (AuthenticationException e) {
@@ -190,7 +190,7 @@ public final class Accounts {
         for (AuthlibInjectorServer server : ConfigHolder.config().getAuthlibInjectorServers()) {
             if (selected instanceof AuthlibInjectorAccount && ((AuthlibInjectorAccount) selected).getServer() == server)
                 continue;
-            Schedulers.io().execute(() -> {
+            Schedulers.background().execute(() -> {
                 try {
                     server.fetchMetadataResponse();
                 } catch (IOException e) {
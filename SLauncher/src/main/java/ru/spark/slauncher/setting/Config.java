@@ -19,10 +19,12 @@ import org.jetbrains.annotations.Nullable;
 import ru.spark.slauncher.Metadata;
 import ru.spark.slauncher.auth.authlibinjector.AuthlibInjectorServer;
 import ru.spark.slauncher.upgrade.UpdateChannel;
+import ru.spark.slauncher.util.CacheEvictor;
 import ru.spark.slauncher.util.gson.EnumOrdinalDeserializer;
 import ru.spark.slauncher.util.gson.FileTypeAdapter;
 import ru.spark.slauncher.util.i18n.Locales;
 import ru.spark.slauncher.util.i18n.Locales.SupportedLocale;
+import ru.spark.slauncher.util.io.FileMaterializer;
 import ru.spark.slauncher.util.javafx.ObservableHelper;
 import ru.spark.slauncher.util.javafx.PropertyUtils;
 
@@ -79,6 +81,51 @@ public final class Config implements Cloneable, Observable {
     private ObjectProperty<SupportedLocale> localization = new SimpleObjectProperty<>(Locales.DEFAULT);
     @SerializedName("downloadType")
     private StringProperty downloadType = new SimpleStringProperty("bmclapi");
+    /**
+     * The max count of concurrent range requests used to download one large file, 1 disables segmented downloading.
+     */
+    @SerializedName("downloadSegments")
+    private IntegerProperty downloadSegments = new SimpleIntegerProperty(4);
+    /**
+     * The min size in KiB of one range request.
+     */
+    @SerializedName("downloadMinSegmentSize")
+    private IntegerProperty downloadMinSegmentSize = new SimpleIntegerProperty(4096);
+    /**
+     * Whether small files are requested from the best mirror and a mirror never scored at the same time.
+     */
+    @SerializedName("downloadRaceMirrors")
+    private BooleanProperty downloadRaceMirrors = new SimpleBooleanProperty(false);
+    /**
+     * How files are placed from the cache repository, hard links by default where the file system supports them.
+     */
+    @SerializedName("cacheMaterialization")
+    private ObjectProperty<FileMaterializer.Strategy> cacheMaterialization = new SimpleObjectProperty<>(FileMaterializer.Strategy.AUTO);
+    /**
+     * The max size in MiB of the cache directory, 0 if not limited.
+     */
+    @SerializedName("cacheSizeLimit")
+    private IntegerProperty cacheSizeLimit = new SimpleIntegerProperty(0);
+    /**
+     * Which cached files are evicted first when the cache is over the size limit.
+     */
+    @SerializedName("cacheEvictionPolicy")
+    private ObjectProperty<CacheEvictor.Policy> cacheEvictionPolicy = new SimpleObjectProperty<>(CacheEvictor.Policy.LRU);
+    /**
+     * Whether mods and resource packs of duplicated versions and installed modpacks are linked to a single stored copy.
+     */
+    @SerializedName("instanceDedupe")
+    private BooleanProperty instanceDedupe = new SimpleBooleanProperty(false);
+    /**
+     * Whether background tasks and downloads run on virtual threads, where the running Java supports them.
+     */
+    @SerializedName("virtualThreads")
+    private BooleanProperty virtualThreads = new SimpleBooleanProperty(false);
+    /**
+     * Whether the version list follows changes of the versions directory as they happen, without rescanning it.
+     */
+    @SerializedName("watchVersions")
+    private BooleanProperty watchVersions = new SimpleBooleanProperty(true);
     @SerializedName("configurations")
     private ObservableMap<String, Profile> configurations = FXCollections.observableMap(new TreeMap<>());
     @SerializedName("accounts")
@@ -350,6 +397,114 @@ public final class Config implements Cloneable, Observable {
         return downloadType;
     }
 
+    public int getDownloadSegments() {
+        return downloadSegments.get();
+    }
+
+    public void setDownloadSegments(int downloadSegments) {
+        this.downloadSegments.set(downloadSegments);
+    }
+
+    public IntegerProperty downloadSegmentsProperty() {
+        return downloadSegments;
+    }
+
+    public int getDownloadMinSegmentSize() {
+        return downloadMinSegmentSize.get();
+    }
+
+    public void setDownloadMinSegmentSize(int downloadMinSegmentSize) {
+        this.downloadMinSegmentSize.set(downloadMinSegmentSize);
+    }
+
+    public IntegerProperty downloadMinSegmentSizeProperty() {
+        return downloadMinSegmentSize;
+    }
+
+    public boolean isDownloadRaceMirrors() {
+        return downloadRaceMirrors.get();
+    }
+
+    public void setDownloadRaceMirrors(boolean downloadRaceMirrors) {
+        this.downloadRaceMirrors.set(downloadRaceMirrors);
+    }
+
+    public BooleanProperty downloadRaceMirrorsProperty() {
+        return downloadRaceMirrors;
+    }
+
+    public FileMaterializer.Strategy getCacheMaterialization() {
+        return cacheMaterialization.get();
+    }
+
+    public void setCacheMaterialization(FileMaterializer.Strategy cacheMaterialization) {
+        this.cacheMaterialization.set(cacheMaterialization);
+    }
+
+    public ObjectProperty<FileMaterializer.Strategy> cacheMaterializationProperty() {
+        return cacheMaterialization;
+    }
+
+    public int getCacheSizeLimit() {
+        return cacheSizeLimit.get();
+    }
+
+    public void setCacheSizeLimit(int cacheSizeLimit) {
+        this.cacheSizeLimit.set(cacheSizeLimit);
+    }
+
+    public IntegerProperty cacheSizeLimitProperty() {
+        return cacheSizeLimit;
+    }
+
+    public CacheEvictor.Policy getCacheEvictionPolicy() {
+        return cacheEvictionPolicy.get();
+    }
+
+    public void setCacheEvictionPolicy(CacheEvictor.Policy cacheEvictionPolicy) {
+        this.cacheEvictionPolicy.set(cacheEvictionPolicy);
+    }
+
+    public ObjectProperty<CacheEvictor.Policy> cacheEvictionPolicyProperty() {
+        return cacheEvictionPolicy;
+    }
+
+    public boolean isInstanceDedupe() {
+        return instanceDedupe.get();
+    }
+
+    public void setInstanceDedupe(boolean instanceDedupe) {
+        this.instanceDedupe.set(instanceDedupe);
+    }
+
+    public BooleanProperty instanceDedupeProperty() {
+        return instanceDedupe;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads.get();
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads.set(virtualThreads);
+    }
+
+    public BooleanProperty virtualThreadsProperty() {
+        return virtualThreads;
+    }
+
+    public boolean isWatchVersions() {
+        return watchVersions.get();
+    }
+
+    public void setWatchVersions(boolean watchVersions) {
+        this.watchVersions.set(watchVersions);
+    }
+
+    public BooleanProperty watchVersionsProperty() {
+        return watchVersions;
+    }
+
     public ObservableMap<String, Profile> getConfigurations() {
         return configurations;
     }
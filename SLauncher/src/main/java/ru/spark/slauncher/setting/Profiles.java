@@ -7,6 +7,8 @@ import javafx.collections.ObservableList;
 import ru.spark.slauncher.Metadata;
 import ru.spark.slauncher.event.EventBus;
 import ru.spark.slauncher.event.RefreshedVersionsEvent;
+import ru.spark.slauncher.task.Schedulers;
+import ru.spark.slauncher.task.TaskPriority;
 import ru.spark.slauncher.ui.FXUtils;
 import ru.spark.slauncher.util.i18n.I18n;
 
@@ -61,7 +63,7 @@ public final class Profiles {
                     selectedVersion.unbind();
                     selectedVersion.set(null);
                     // bind when repository was reloaded.
-                    profile.getRepository().refreshVersionsAsync().start();
+                    Schedulers.runWithPriority(TaskPriority.BACKGROUND, () -> profile.getRepository().refreshVersionsAsync().start());
                 }
             } else {
                 selectedVersion.unbind();
@@ -76,7 +78,7 @@ public final class Profiles {
 
         selectedProfile.addListener((a, b, newValue) -> {
             if (newValue != null)
-                newValue.getRepository().refreshVersionsAsync().start();
+                Schedulers.runWithPriority(TaskPriority.BACKGROUND, () -> newValue.getRepository().refreshVersionsAsync().start());
         });
     }
 
@@ -3,7 +3,16 @@ package ru.spark.slauncher.setting;
 import javafx.beans.binding.Bindings;
 import ru.spark.slauncher.Metadata;
 import ru.spark.slauncher.game.SLCacheRepository;
+import ru.spark.slauncher.game.VersionWatcher;
+import ru.spark.slauncher.task.FetchTask;
+import ru.spark.slauncher.task.FileDownloadTask;
+import ru.spark.slauncher.task.MirrorScoreboard;
+import ru.spark.slauncher.task.Schedulers;
+import ru.spark.slauncher.ui.FXUtils;
+import ru.spark.slauncher.util.CacheEvictor;
 import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ContentStore;
+import ru.spark.slauncher.util.io.FileMaterializer;
 import ru.spark.slauncher.util.io.FileUtils;
 
 public class Settings {
@@ -17,6 +26,24 @@ public class Settings {
         Profiles.init();
         AuthlibInjectorServers.init();
 
+        FXUtils.onChangeAndOperate(ConfigHolder.config().downloadSegmentsProperty(),
+                segments -> FileDownloadTask.setSegments(Math.max(1, segments.intValue())));
+        FXUtils.onChangeAndOperate(ConfigHolder.config().downloadMinSegmentSizeProperty(),
+                size -> FileDownloadTask.setMinSegmentSize(Math.max(1, size.intValue()) * 1024L));
+        FXUtils.onChangeAndOperate(ConfigHolder.config().downloadRaceMirrorsProperty(), FetchTask::setMirrorRacing);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().cacheMaterializationProperty(), FileMaterializer::setStrategy);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().cacheEvictionPolicyProperty(), CacheEvictor::setPolicy);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().instanceDedupeProperty(), ContentStore::setEnabled);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().virtualThreadsProperty(), Schedulers::setVirtualThreads);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().watchVersionsProperty(), VersionWatcher::setEnabled);
+        FXUtils.onChangeAndOperate(ConfigHolder.config().cacheSizeLimitProperty(), limit -> {
+            CacheEvictor.setSizeLimit(Math.max(0, limit.intValue()) * 1024L * 1024L);
+            CacheEvictor evictor = CacheRepository.getInstance().getCacheEvictor();
+            if (evictor != null)
+                evictor.evictLater();
+        });
+        MirrorScoreboard.getInstance().setStorage(Metadata.SL_DIRECTORY.resolve("mirrors.json"));
+
         CacheRepository.setInstance(SLCacheRepository.REPOSITORY);
         SLCacheRepository.REPOSITORY.directoryProperty().bind(Bindings.createStringBinding(() -> {
             if (FileUtils.canCreateDirectory(getCommonDirectory())) {
@@ -7,9 +7,11 @@ import javafx.fxml.FXML;
 import javafx.scene.control.Label;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.StackPane;
+import ru.spark.slauncher.Metadata;
 import ru.spark.slauncher.task.FileDownloadTask;
 import ru.spark.slauncher.task.TaskExecutor;
 import ru.spark.slauncher.task.TaskListener;
+import ru.spark.slauncher.task.TaskProfiler;
 import ru.spark.slauncher.ui.FXUtils;
 
 import java.util.Optional;
@@ -70,6 +72,7 @@ public class TaskExecutorDialogPane extends StackPane {
 
         if (executor != null) {
             taskListPane.setExecutor(executor);
+            TaskProfiler.profileIfEnabled(executor, Metadata.SL_DIRECTORY, "task");
 
             if (autoClose)
                 executor.addTaskListener(new TaskListener() {
@@ -26,6 +26,7 @@ import ru.spark.slauncher.mod.curse.CurseCompletionTask;
 import ru.spark.slauncher.mod.curse.CurseInstallTask;
 import ru.spark.slauncher.mod.multimc.MultiMCModpackInstallTask;
 import ru.spark.slauncher.setting.Theme;
+import ru.spark.slauncher.task.BulkDownloadTask;
 import ru.spark.slauncher.task.Task;
 import ru.spark.slauncher.task.TaskExecutor;
 import ru.spark.slauncher.task.TaskListener;
@@ -87,6 +88,8 @@ public final class TaskListPane extends StackPane {
 
                 if (task instanceof GameAssetDownloadTask) {
                     task.setName(I18n.i18n("assets.download_all"));
+                } else if (task instanceof BulkDownloadTask) {
+                    task.setName(I18n.i18n("download"));
                 } else if (task instanceof GameInstallTask) {
                     task.setName(I18n.i18n("install.installer.install", I18n.i18n("install.installer.game")));
                 } else if (task instanceof ForgeInstallTask) {
@@ -14,6 +14,8 @@ import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
 import ru.spark.slauncher.Metadata;
 import ru.spark.slauncher.setting.*;
+import ru.spark.slauncher.task.Schedulers;
+import ru.spark.slauncher.task.Task;
 import ru.spark.slauncher.ui.Controllers;
 import ru.spark.slauncher.ui.FXUtils;
 import ru.spark.slauncher.ui.construct.MessageDialogPane;
@@ -23,6 +25,8 @@ import ru.spark.slauncher.upgrade.RemoteVersion;
 import ru.spark.slauncher.upgrade.UpdateChannel;
 import ru.spark.slauncher.upgrade.UpdateChecker;
 import ru.spark.slauncher.upgrade.UpdateHandler;
+import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ContentStore;
 import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.i18n.I18n;
@@ -41,7 +45,9 @@ import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 
 public final class SettingsPage extends SettingsView implements DecoratorPage {
@@ -231,4 +237,25 @@ public final class SettingsPage extends SettingsView implements DecoratorPage {
     protected void clearCacheDirectory() {
         FileUtils.cleanDirectoryQuietly(new File(Settings.instance().getCommonDirectory(), "cache"));
     }
+
+    @Override
+    protected void dedupeGameDirectories() {
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Profile profile : Profiles.getProfiles())
+            directories.add(profile.getGameDir().toPath().toAbsolutePath().normalize());
+
+        ContentStore store = new ContentStore(CacheRepository.getInstance());
+        Task.supplyAsync(() -> {
+            ContentStore.Report report = new ContentStore.Report();
+            for (Path directory : directories)
+                store.dedupe(directory, report);
+            Logging.LOG.info("Deduplicated game directories " + directories + ": " + report);
+            return report;
+        }).whenComplete(Schedulers.javafx(), report -> {
+            Controllers.dialog(I18n.i18n("launcher.cache_directory.dedupe.done", report.getFiles(), report.getLinked(),
+                    String.format("%.1f", report.getSavedBytes() / 1024.0 / 1024.0)), null, MessageDialogPane.MessageType.FINE);
+        }, exception -> {
+            Controllers.dialog(exception.toString(), I18n.i18n("message.error"), MessageDialogPane.MessageType.ERROR);
+        }).start();
+    }
 }
@@ -153,7 +153,13 @@ public abstract class SettingsView extends StackPane {
                         cleanButton.setOnMouseClicked(e -> clearCacheDirectory());
                         cleanButton.getStyleClass().add("jfx-button-border");
 
-                        fileCommonLocation.setHeaderRight(cleanButton);
+                        JFXButton dedupeButton = new JFXButton(i18n("launcher.cache_directory.dedupe"));
+                        dedupeButton.setOnMouseClicked(e -> dedupeGameDirectories());
+                        dedupeButton.getStyleClass().add("jfx-button-border");
+
+                        HBox buttons = new HBox(8, dedupeButton, cleanButton);
+                        buttons.setAlignment(Pos.CENTER_RIGHT);
+                        fileCommonLocation.setHeaderRight(buttons);
                     }
 
                     settingsPane.getContent().add(fileCommonLocation);
@@ -522,4 +528,6 @@ public abstract class SettingsView extends StackPane {
     protected abstract void onSponsor();
 
     protected abstract void clearCacheDirectory();
+
+    protected abstract void dedupeGameDirectories();
 }
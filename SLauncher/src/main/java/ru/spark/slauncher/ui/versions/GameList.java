@@ -5,6 +5,7 @@ import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.scene.Node;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.HBox;
+import ru.spark.slauncher.event.ChangedVersionsEvent;
 import ru.spark.slauncher.event.EventBus;
 import ru.spark.slauncher.event.RefreshingVersionsEvent;
 import ru.spark.slauncher.game.SLGameRepository;
@@ -18,10 +19,7 @@ import ru.spark.slauncher.ui.download.VanillaInstallWizardProvider;
 import ru.spark.slauncher.util.i18n.I18n;
 import ru.spark.slauncher.util.versioning.VersionNumber;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
 import static ru.spark.slauncher.ui.FXUtils.runInFX;
@@ -29,41 +27,70 @@ import static ru.spark.slauncher.ui.FXUtils.runInFX;
 public class GameList extends ListPageBase<GameListItem> implements DecoratorPage {
     private final ReadOnlyObjectWrapper<State> state = new ReadOnlyObjectWrapper<>(State.fromTitle(I18n.i18n("version.manage")));
 
+    private static final Comparator<Version> VERSION_ORDER = Comparator.comparing((Version version) -> version.getReleaseTime() == null ? new Date(0L) : version.getReleaseTime())
+            .thenComparing(a -> VersionNumber.asVersion(a.getId()));
+
     private ToggleGroup toggleGroup;
 
+    /**
+     * The profile whose versions are listed, and the versions of the items listed, accessed in FX thread only.
+     */
+    private Profile loadedProfile;
+    private final Map<String, Version> listedVersions = new HashMap<>();
+
     public GameList() {
         EventBus.EVENT_BUS.channel(RefreshingVersionsEvent.class).register(event -> {
             if (event.getSource() == Profiles.getSelectedProfile().getRepository())
                 runInFX(() -> setLoading(true));
         });
 
+        EventBus.EVENT_BUS.channel(ChangedVersionsEvent.class).register(event -> {
+            Profile profile = Profiles.getSelectedProfile();
+            if (profile == null || event.getSource() != profile.getRepository())
+                return;
+            SLGameRepository repository = profile.getRepository();
+            Map<String, Version> updated = new HashMap<>();
+            for (Set<String> ids : Arrays.asList(event.getAdded(), event.getChanged()))
+                for (String id : ids)
+                    if (repository.hasVersion(id))
+                        updated.put(id, repository.getVersion(id));
+            runInFX(() -> updateVersions(profile, event.getRemoved(), updated));
+        });
+
         Profiles.registerVersionsListener(this::loadVersions);
     }
 
     private void loadVersions(Profile profile) {
+        if (profile == loadedProfile) {
+            // Changes have been applied by updateVersions.
+            runInFX(() -> setLoading(false));
+            return;
+        }
+
         SLGameRepository repository = profile.getRepository();
         toggleGroup = new ToggleGroup();
         WeakListenerHolder listenerHolder = new WeakListenerHolder();
         toggleGroup.getProperties().put("ReferenceHolder", listenerHolder);
-        List<GameListItem> children = repository.getVersions().parallelStream()
+        List<Version> versions = repository.getVersions().parallelStream()
                 .filter(version -> !version.isHidden())
-                .sorted(Comparator.comparing((Version version) -> version.getReleaseTime() == null ? new Date(0L) : version.getReleaseTime())
-                        .thenComparing(a -> VersionNumber.asVersion(a.getId())))
+                .sorted(VERSION_ORDER)
+                .collect(Collectors.toList());
+        List<GameListItem> children = versions.stream()
                 .map(version -> new GameListItem(toggleGroup, profile, version.getId()))
                 .collect(Collectors.toList());
         runInFX(() -> {
             if (profile == Profiles.getSelectedProfile()) {
                 setLoading(false);
+                loadedProfile = profile;
+                listedVersions.clear();
+                versions.forEach(version -> listedVersions.put(version.getId(), version));
                 itemsProperty().setAll(children);
                 children.forEach(GameListItem::checkSelection);
 
                 profile.selectedVersionProperty().addListener(listenerHolder.weak((a, b, newValue) -> {
                     FXUtils.checkFxUserThread();
-                    children.forEach(it -> it.selectedProperty().set(false));
-                    children.stream()
-                            .filter(it -> it.getVersion().equals(newValue))
-                            .findFirst()
-                            .ifPresent(it -> it.selectedProperty().set(true));
+                    for (GameListItem item : itemsProperty())
+                        item.selectedProperty().set(item.getVersion().equals(newValue));
                 }));
             }
             toggleGroup.selectedToggleProperty().addListener((o, a, toggle) -> {
@@ -74,6 +101,33 @@ public class GameList extends ListPageBase<GameListItem> implements DecoratorPag
         });
     }
 
+    /**
+     * Applies the versions added, removed and changed by a refresh to the items listed, keeping the others.
+     *
+     * @param updated the versions added or changed by id.
+     */
+    private void updateVersions(Profile profile, Set<String> removed, Map<String, Version> updated) {
+        if (profile != loadedProfile || profile != Profiles.getSelectedProfile())
+            return;
+
+        List<GameListItem> items = itemsProperty();
+        items.removeIf(item -> removed.contains(item.getVersion()) || updated.containsKey(item.getVersion()));
+        listedVersions.keySet().removeAll(removed);
+        listedVersions.keySet().removeAll(updated.keySet());
+
+        for (Version version : updated.values()) {
+            if (version.isHidden())
+                continue;
+            int index = 0;
+            while (index < items.size() && VERSION_ORDER.compare(listedVersions.get(items.get(index).getVersion()), version) <= 0)
+                index++;
+            GameListItem item = new GameListItem(toggleGroup, profile, version.getId());
+            listedVersions.put(version.getId(), version);
+            items.add(index, item);
+            item.checkSelection();
+        }
+    }
+
     @Override
     protected GameListSkin createDefaultSkin() {
         return new GameListSkin();
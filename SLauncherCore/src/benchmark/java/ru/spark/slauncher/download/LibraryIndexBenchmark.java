@@ -0,0 +1,83 @@
+package ru.spark.slauncher.download;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.spark.slauncher.game.Artifact;
+import ru.spark.slauncher.game.LibrariesDownloadInfo;
+import ru.spark.slauncher.game.Library;
+import ru.spark.slauncher.game.LibraryDownloadInfo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches and looks up 10k libraries in {@link DefaultCacheRepository}, which used to scan all cached libraries
+ * for every lookup and rewrite index.json for every library cached.
+ */
+public class LibraryIndexBenchmark {
+
+    private static final int LIBRARIES = 10000;
+
+    @Test
+    public void benchmark() throws Exception {
+        Path directory = Files.createTempDirectory("library-index");
+        Path jar = directory.resolve("library.jar");
+        Files.write(jar, new byte[]{1, 2, 3});
+
+        List<Library> libraries = new ArrayList<>();
+        for (int i = 0; i < LIBRARIES; i++) {
+            String hash = String.format(Locale.ROOT, "%040x", i);
+            libraries.add(new Library(new Artifact("benchmark", "library" + i, "1.0"), null,
+                    new LibrariesDownloadInfo(new LibraryDownloadInfo("benchmark/library" + i + ".jar", null, hash))));
+        }
+
+        DefaultCacheRepository repository = new DefaultCacheRepository(directory);
+
+        long start = System.nanoTime();
+        for (Library library : libraries)
+            repository.cacheLibrary(library, jar, false);
+        long insert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Library library : libraries)
+            // Returns at once for a library already cached, a missing one would be hashed.
+            repository.tryCacheLibrary(library, jar);
+        long lookup = System.nanoTime() - start;
+
+        System.out.printf("%d libraries: %.1f us per insert, %.2f us per lookup%n",
+                LIBRARIES, insert / 1e3 / LIBRARIES, lookup / 1e3 / LIBRARIES);
+
+        // Every library cached should be saved, either in index.json or in the log appended since.
+        Path cache = repository.getCacheDirectory();
+        long deadline = System.currentTimeMillis() + 10000;
+        int saved;
+        while ((saved = countSaved(cache)) < LIBRARIES && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        Assert.assertTrue("Cached libraries should be saved", saved >= LIBRARIES);
+
+        Assert.assertTrue("Lookups should not scan the index", lookup / LIBRARIES < 50_000);
+        Assert.assertTrue("Inserts should not rewrite the index", insert / LIBRARIES < 2_000_000);
+    }
+
+    private static int countSaved(Path cache) throws Exception {
+        int count = 0;
+        Path log = cache.resolve("index.log");
+        if (Files.isRegularFile(log))
+            for (String line : Files.readAllLines(log, UTF_8))
+                if (!line.trim().isEmpty())
+                    count++;
+
+        Path index = cache.resolve("index.json");
+        if (Files.isRegularFile(index)) {
+            String json = new String(Files.readAllBytes(index), UTF_8);
+            for (int i = json.indexOf("\"name\""); i >= 0; i = json.indexOf("\"name\"", i + 1))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.spark.slauncher.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs 10k no-op tasks, like the leaf downloads of installing a game, by {@link AsyncTaskExecutor}, which chains
+ * about 8 {@link java.util.concurrent.CompletableFuture} stages for every task, and by {@link DirectTaskExecutor}.
+ */
+public class TaskExecutorBenchmark {
+
+    private static final int TASKS = 10000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void benchmark() {
+        Executor executor = Schedulers.io();
+        long async = measure(AsyncTaskExecutor::new, executor);
+        long direct = measure(DirectTaskExecutor::new, executor);
+
+        System.out.printf("%d no-op tasks: AsyncTaskExecutor %.2f ms, DirectTaskExecutor %.2f ms%n",
+                TASKS, async / 1e6, direct / 1e6);
+        Assert.assertTrue("DirectTaskExecutor should not be slower", direct <= async * 2);
+    }
+
+    private static long measure(Function<Task<?>, TaskExecutor> factory, Executor executor) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            AtomicInteger counter = new AtomicInteger();
+            List<Task<?>> tasks = new ArrayList<>(TASKS);
+            for (int i = 0; i < TASKS; i++)
+                tasks.add(Task.runAsync(executor, counter::incrementAndGet).setSignificance(Task.TaskSignificance.MINOR));
+
+            long start = System.nanoTime();
+            Assert.assertTrue(factory.apply(Task.allOf(tasks)).test());
+            best = Math.min(best, System.nanoTime() - start);
+            Assert.assertEquals(TASKS, counter.get());
+        }
+        return best;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.spark.slauncher.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches many downloaded files with ETags from concurrent threads, like refreshing several version lists at once.
+ * {@link CacheRepository} used to rewrite the whole etag.json under a file lock for every one of them.
+ */
+public class ETagIndexBenchmark {
+
+    private static final int FILES = 2000;
+    private static final int THREADS = 16;
+
+    @Test
+    public void benchmark() throws Exception {
+        Path directory = Files.createTempDirectory("etag-index");
+        Path downloads = Files.createDirectories(directory.resolve("downloads"));
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            Path file = downloads.resolve("file" + i);
+            Files.write(file, ("content of file " + i).getBytes(UTF_8));
+            files.add(file);
+        }
+
+        CacheRepository repository = new CacheRepository();
+        repository.changeDirectory(directory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long elapsed;
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < FILES; i++) {
+                Path file = files.get(i);
+                URLConnection conn = connection(i);
+                futures.add(executor.submit(() -> {
+                    repository.cacheRemoteFile(file, conn);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            elapsed = System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+        repository.saveETagIndex();
+
+        System.out.printf("%d concurrent cacheRemoteFile calls: %d ms, %.1f us per call%n",
+                FILES, elapsed / 1_000_000, elapsed / 1e3 / FILES);
+
+        CacheRepository reloaded = new CacheRepository();
+        reloaded.changeDirectory(directory);
+        for (int i = 0; i < FILES; i++)
+            Assert.assertEquals(Files.size(files.get(i)), Files.size(reloaded.getCachedRemoteFile(connection(i))));
+
+        Assert.assertTrue("Caching should not rewrite the index for every file", elapsed / FILES < 2_000_000);
+    }
+
+    private static URLConnection connection(int i) throws Exception {
+        return new URLConnection(new URL("https://example.com/versions/" + i + ".json")) {
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public String getHeaderField(String name) {
+                return "ETag".equals(name) ? "\"etag-" + i + "\"" : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,166 @@
+package ru.spark.slauncher.util.io;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads an asset-like set of small objects from a local mirror that redirects every request,
+ * comparing a connection per file with {@link KeepAliveTransport}.
+ * Every new connection to a https mirror costs a TLS handshake.
+ */
+public class HttpTransportBenchmark {
+
+    private static final int OBJECTS = 2000;
+    private static final int THREADS = 16;
+
+    private HttpServer server;
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger redirectRequests = new AtomicInteger();
+    private final byte[] object = new byte[2048];
+    private static final byte[] MOVED = "Moved".getBytes(StandardCharsets.US_ASCII);
+
+    @Before
+    public void startServer() throws IOException {
+        // Otherwise Nagle's algorithm delays every response on a persistent connection, real mirrors disable it too.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", String.valueOf(THREADS));
+        new Random(0).nextBytes(object);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(THREADS));
+        server.createContext("/", exchange -> {
+            connections.add(exchange.getRemoteAddress().toString());
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host.startsWith("localhost")) {
+                // the mirror redirects to its "CDN" keeping the path
+                redirectRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Location", "http://127.0.0.1:" + server.getAddress().getPort() + exchange.getRequestURI());
+                // a response without length closes the connection, mirrors send a short body
+                exchange.sendResponseHeaders(302, MOVED.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(MOVED);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, object.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(object);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        HttpTransport original = NetworkUtils.getTransport();
+        try {
+            Result perFile = run(new PerFileTransport());
+            KeepAliveTransport keepAlive = new KeepAliveTransport();
+            Result pooled = run(keepAlive);
+
+            System.out.println("Connection per file: " + perFile);
+            System.out.println("Keep-alive transport: " + pooled + ", cached redirects: " + keepAlive.getCachedRedirectCount());
+
+            Assert.assertTrue("Keep-alive transport should reuse connections", pooled.connections < perFile.connections / 10);
+        } finally {
+            NetworkUtils.setTransport(original);
+        }
+    }
+
+    private Result run(HttpTransport transport) throws Exception {
+        NetworkUtils.setTransport(transport);
+        connections.clear();
+        redirectRequests.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < OBJECTS; i++) {
+                URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/objects/" + i);
+                futures.add(executor.submit(() -> {
+                    HttpURLConnection conn = NetworkUtils.resolveConnection((HttpURLConnection) NetworkUtils.createConnection(url));
+                    try (InputStream is = conn.getInputStream()) {
+                        Assert.assertEquals(object.length, IOUtils.readFullyWithoutClosing(is).length);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            return new Result((System.nanoTime() - start) / 1_000_000, connections.size(), redirectRequests.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class Result {
+        final long millis;
+        final int connections;
+        final int redirects;
+
+        Result(long millis, int connections, int redirects) {
+            this.millis = millis;
+            this.connections = connections;
+            this.redirects = redirects;
+        }
+
+        @Override
+        public String toString() {
+            return OBJECTS + " objects in " + millis + " ms, connections: " + connections + ", redirect requests: " + redirects;
+        }
+    }
+
+    /**
+     * Behaves like the launcher did before connections were pooled.
+     */
+    private static final class PerFileTransport implements HttpTransport {
+        @Override
+        public URLConnection createConnection(URL url) throws IOException {
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Connection", "close");
+            return connection;
+        }
+
+        @Override
+        public HttpURLConnection resolveConnection(HttpURLConnection conn) throws IOException {
+            while (true) {
+                conn.setInstanceFollowRedirects(false);
+                int code = conn.getResponseCode();
+                if (code / 100 != 3)
+                    return conn;
+                String location = conn.getHeaderField("Location");
+                conn.disconnect();
+                conn = (HttpURLConnection) createConnection(new URL(conn.getURL(), location));
+            }
+        }
+    }
+}
@@ -1,35 +1,58 @@
 package ru.spark.slauncher.download;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import org.jetbrains.annotations.NotNull;
 import ru.spark.slauncher.download.game.LibraryDownloadTask;
 import ru.spark.slauncher.game.Library;
 import ru.spark.slauncher.game.LibraryDownloadInfo;
 import ru.spark.slauncher.util.CacheRepository;
-import ru.spark.slauncher.util.DigestUtils;
-import ru.spark.slauncher.util.Hex;
+import ru.spark.slauncher.util.InvocationDispatcher;
+import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.StringUtils;
 import ru.spark.slauncher.util.gson.JsonUtils;
 import ru.spark.slauncher.util.gson.TolerableValidationException;
 import ru.spark.slauncher.util.gson.Validation;
 import ru.spark.slauncher.util.io.FileUtils;
+import ru.spark.slauncher.util.io.IOUtils;
 import ru.spark.slauncher.util.platform.OperatingSystem;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class DefaultCacheRepository extends CacheRepository {
+    /**
+     * Size of the index log in bytes before it is merged into index.json.
+     */
+    private static final long COMPACT_THRESHOLD = 32 * 1024;
+    private static final Gson LOG_GSON = new Gson();
+
     private Path librariesDir;
     private Path indexFile;
+    private Path indexLogFile;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private Index index = null;
+
+    /**
+     * Cached libraries by name, a library may be cached with more than one hash.
+     */
+    private Map<String, Set<LibraryIndex>> libraries = new HashMap<>();
+    private final Queue<LibraryIndex> unsavedLibraries = new ConcurrentLinkedQueue<>();
+    private final InvocationDispatcher<Object> indexWriter = InvocationDispatcher.runOn(Lang::thread, ignored -> writeIndex());
 
     public DefaultCacheRepository() {
         this(OperatingSystem.getWorkingDirectory("minecraft"));
@@ -45,19 +68,55 @@ public class DefaultCacheRepository extends CacheRepository {
 
         librariesDir = commonDir.resolve("libraries");
         indexFile = getCacheDirectory().resolve("index.json");
+        indexLogFile = getCacheDirectory().resolve("index.log");
 
         lock.writeLock().lock();
         try {
-            if (Files.isRegularFile(indexFile))
-                index = JsonUtils.fromNonNullJson(FileUtils.readText(indexFile.toFile()), Index.class);
-            else
-                index = new Index();
-        } catch (IOException | JsonParseException e) {
-            Logging.LOG.log(Level.WARNING, "Unable to read index file", e);
-            index = new Index();
+            libraries = new HashMap<>();
+            unsavedLibraries.clear();
+            try {
+                if (Files.isRegularFile(indexFile))
+                    JsonUtils.fromNonNullJson(FileUtils.readText(indexFile.toFile()), Index.class).getLibraries().forEach(this::addLibraryIndex);
+            } catch (IOException | JsonParseException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read index file", e);
+            }
+            try {
+                if (Files.isRegularFile(indexLogFile))
+                    readIndexLog(new String(Files.readAllBytes(indexLogFile), UTF_8)).forEach(this::addLibraryIndex);
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read index log", e);
+            }
         } finally {
             lock.writeLock().unlock();
         }
+
+        try {
+            if (Files.isRegularFile(indexLogFile) && Files.size(indexLogFile) >= COMPACT_THRESHOLD)
+                indexWriter.accept(null);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Parses the entries appended to the index log since index.json was written.
+     */
+    private List<LibraryIndex> readIndexLog(String content) {
+        List<LibraryIndex> entries = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            if (StringUtils.isBlank(line))
+                continue;
+            try {
+                entries.add(JsonUtils.fromNonNullJson(line, LibraryIndex.class));
+            } catch (JsonParseException e) {
+                // The last line may be cut short by a crash.
+                Logging.LOG.log(Level.WARNING, "Skipped malformed entry of index log: " + line);
+            }
+        }
+        return entries;
+    }
+
+    private boolean addLibraryIndex(LibraryIndex libIndex) {
+        return libraries.computeIfAbsent(libIndex.getName(), name -> new HashSet<>(1)).add(libIndex);
     }
 
     /**
@@ -71,7 +130,7 @@ public class DefaultCacheRepository extends CacheRepository {
     public void tryCacheLibrary(Library library, Path jar) {
         lock.readLock().lock();
         try {
-            if (index.getLibraries().stream().anyMatch(it -> library.getName().equals(it.getName())))
+            if (libraries.containsKey(library.getName()))
                 return;
         } finally {
             lock.readLock().unlock();
@@ -81,7 +140,7 @@ public class DefaultCacheRepository extends CacheRepository {
             LibraryDownloadInfo info = library.getDownload();
             String hash = info.getSha1();
             if (hash != null) {
-                String checksum = Hex.encodeHex(DigestUtils.digest("SHA-1", jar));
+                String checksum = digest(SHA1, jar);
                 if (hash.equalsIgnoreCase(checksum))
                     cacheLibrary(library, jar, false);
             } else if (library.getChecksums() != null && !library.getChecksums().isEmpty()) {
@@ -105,23 +164,25 @@ public class DefaultCacheRepository extends CacheRepository {
         LibraryDownloadInfo info = library.getDownload();
         String hash = info.getSha1();
 
-        if (fileExists(SHA1, hash))
-            return Optional.of(getFile(SHA1, hash));
+        if (fileExists(SHA1, hash)) {
+            Path cache = getFile(SHA1, hash);
+            onCacheAccess(cache);
+            return Optional.of(cache);
+        }
 
         Lock readLock = lock.readLock();
         readLock.lock();
 
         try {
             // check if this library is from Forge
-            List<LibraryIndex> libraries = index.getLibraries().stream()
-                    .filter(it -> it.getName().equals(library.getName()))
-                    .collect(Collectors.toList());
-            for (LibraryIndex libIndex : libraries) {
+            for (LibraryIndex libIndex : libraries.getOrDefault(library.getName(), Collections.emptySet())) {
                 if (fileExists(SHA1, libIndex.getHash())) {
                     Path file = getFile(SHA1, libIndex.getHash());
                     if (libIndex.getType().equalsIgnoreCase(LibraryIndex.TYPE_FORGE)) {
-                        if (LibraryDownloadTask.checksumValid(file.toFile(), library.getChecksums()))
+                        if (LibraryDownloadTask.checksumValid(file.toFile(), library.getChecksums())) {
+                            onCacheAccess(file);
                             return Optional.of(file);
+                        }
                     }
                 }
             }
@@ -134,7 +195,7 @@ public class DefaultCacheRepository extends CacheRepository {
         if (Files.exists(jar)) {
             try {
                 if (hash != null) {
-                    String checksum = Hex.encodeHex(DigestUtils.digest("SHA-1", jar));
+                    String checksum = digest(SHA1, jar);
                     if (hash.equalsIgnoreCase(checksum))
                         return Optional.of(restore(jar, () -> cacheLibrary(library, jar, false)));
                 } else if (library.getChecksums() != null && !library.getChecksums().isEmpty()) {
@@ -163,31 +224,99 @@ public class DefaultCacheRepository extends CacheRepository {
     public Path cacheLibrary(Library library, Path path, boolean forge) throws IOException {
         String hash = library.getDownload().getSha1();
         if (hash == null)
-            hash = Hex.encodeHex(DigestUtils.digest(SHA1, path));
+            hash = digest(SHA1, path);
 
         Path cache = getFile(SHA1, hash);
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        materializeCache(path, cache);
 
         Lock writeLock = lock.writeLock();
         writeLock.lock();
         try {
             LibraryIndex libIndex = new LibraryIndex(library.getName(), hash, forge ? LibraryIndex.TYPE_FORGE : LibraryIndex.TYPE_JAR);
-            index.getLibraries().add(libIndex);
-            saveIndex();
+            if (addLibraryIndex(libIndex))
+                unsavedLibraries.add(libIndex);
         } finally {
             writeLock.unlock();
         }
 
+        // Libraries cached in a row are saved together.
+        indexWriter.accept(null);
         return cache;
     }
 
-    private void saveIndex() {
-        if (indexFile == null || index == null) return;
+    /**
+     * Appends the libraries cached since last call to the index log, which is shared with other launchers
+     * through its file lock. The log is merged into index.json, under the same lock, when it has grown long.
+     * Both files stay readable if the launcher crashes in the middle.
+     */
+    private void writeIndex() {
+        Path logFile = indexLogFile;
+        if (logFile == null) return;
+
+        synchronized (getLogMonitor(logFile)) {
+            writeIndex(logFile, new ArrayList<>(unsavedLibraries));
+        }
+    }
+
+    /**
+     * @param libraries the queued libraries, which leave the queue only after reaching the log.
+     */
+    private void writeIndex(Path logFile, List<LibraryIndex> libraries) {
+        StringBuilder lines = new StringBuilder();
+        for (LibraryIndex libIndex : libraries)
+            lines.append(LOG_GSON.toJson(libIndex)).append('\n');
+
         try {
-            FileUtils.writeText(indexFile.toFile(), JsonUtils.GSON.toJson(index));
+            Files.createDirectories(logFile.getParent());
+            try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock logLock = log.lock();
+                try {
+                    if (lines.length() > 0) {
+                        log.position(log.size());
+                        IOUtils.write(lines.toString().getBytes(UTF_8), Channels.newOutputStream(log));
+                        for (LibraryIndex libIndex : libraries)
+                            unsavedLibraries.remove(libIndex);
+                    }
+
+                    if (log.size() >= COMPACT_THRESHOLD)
+                        compactIndex(log);
+                } finally {
+                    logLock.release();
+                }
+            }
         } catch (IOException e) {
-            Logging.LOG.log(Level.SEVERE, "Unable to save index.json", e);
+            Logging.LOG.log(Level.SEVERE, "Unable to save index of cached libraries", e);
+        }
+    }
+
+    /**
+     * Merges the index log and index.json on disk, both of which may hold entries of other launchers,
+     * with the libraries known here. Called with the lock of the log held, which guards index.json as well.
+     */
+    private void compactIndex(FileChannel log) throws IOException {
+        log.position(0);
+        Set<LibraryIndex> merged = new HashSet<>(readIndexLog(new String(IOUtils.readFullyWithoutClosing(Channels.newInputStream(log)), UTF_8)));
+        try {
+            if (Files.isRegularFile(indexFile))
+                merged.addAll(JsonUtils.fromNonNullJson(FileUtils.readText(indexFile.toFile()), Index.class).getLibraries());
+        } catch (JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read index file, rewriting it", e);
         }
+
+        // Takes in the entries saved by other launchers.
+        lock.writeLock().lock();
+        try {
+            merged.forEach(this::addLibraryIndex);
+            libraries.values().forEach(merged::addAll);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        FileUtils.writeText(temp.toFile(), JsonUtils.GSON.toJson(new Index(merged)));
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Libraries cached meanwhile are still queued and go to the log afterwards.
+        log.truncate(0);
     }
 
     /**
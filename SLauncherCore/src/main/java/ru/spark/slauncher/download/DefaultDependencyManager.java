@@ -88,7 +88,7 @@ public class DefaultDependencyManager extends AbstractDependencyManager {
             version.resolve(getGameRepository()).getLibraries().stream().filter(Library::appliesToCurrentEnvironment).forEach(library -> {
                 Optional<String> libraryVersion = analyzer.getVersion(OPTIFINE);
                 if (OPTIFINE.matchLibrary(library) && libraryVersion.isPresent()) {
-                    if (GameLibrariesTask.shouldDownloadLibrary(repository, version, library, integrityCheck)) {
+                    if (GameLibrariesTask.shouldDownloadLibrary(repository, version, library, integrityCheck, getCacheRepository().getChecksumJournal())) {
                         tasks.add(installLibraryAsync(gameVersion.get(), version, OPTIFINE.getPatchId(), libraryVersion.get()));
                     }
                 }
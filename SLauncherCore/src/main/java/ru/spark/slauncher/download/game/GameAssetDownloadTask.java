@@ -3,19 +3,26 @@ package ru.spark.slauncher.download.game;
 import com.google.gson.JsonParseException;
 import ru.spark.slauncher.download.AbstractDependencyManager;
 import ru.spark.slauncher.game.*;
+import ru.spark.slauncher.task.BulkDownloadTask;
 import ru.spark.slauncher.task.FileDownloadTask;
+import ru.spark.slauncher.task.Schedulers;
 import ru.spark.slauncher.task.Task;
 import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ChecksumJournal;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.gson.JsonUtils;
 import ru.spark.slauncher.util.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 /**
@@ -30,6 +37,10 @@ public final class GameAssetDownloadTask extends Task<Void> {
     private final boolean integrityCheck;
     private final List<Task<?>> dependents = new LinkedList<>();
     private final List<Task<?>> dependencies = new LinkedList<>();
+    private final AtomicInteger checked = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger verified = new AtomicInteger();
+    private volatile int queued;
 
     /**
      * Constructor.
@@ -74,38 +85,142 @@ public final class GameAssetDownloadTask extends Task<Void> {
             throw new GameAssetIndexDownloadTask.GameAssetIndexMalformedException();
         }
 
-        int progress = 0;
-        for (AssetObject assetObject : index.getObjects().values()) {
-            if (isCancelled())
-                throw new InterruptedException();
+        // Objects of the same hash are stored in the same file, which is checked and downloaded once.
+        Map<String, AssetObject> byHash = new LinkedHashMap<>();
+        for (AssetObject assetObject : index.getObjects().values())
+            byHash.putIfAbsent(assetObject.getHash(), assetObject);
+        Collection<AssetObject> objects = byHash.values();
+        Queue<AssetObject> missing = new ConcurrentLinkedQueue<>();
+        try {
+            // Checking is mostly hashing, so objects are checked in parallel by the common pool.
+            new ArrayList<>(objects).parallelStream().forEach(assetObject -> check(assetObject, objects.size(), missing));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (isCancelled())
+            throw new InterruptedException();
 
-            File file = dependencyManager.getGameRepository().getAssetObject(version.getId(), assetIndexInfo.getId(), assetObject);
-            boolean download = !file.isFile();
+        ChecksumJournal journal = dependencyManager.getCacheRepository().getChecksumJournal();
+        if (journal != null) {
             try {
-                if (!download && integrityCheck && !assetObject.validateChecksum(file.toPath(), true))
-                    download = true;
+                journal.save();
             } catch (IOException e) {
-                Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + file.toPath(), e);
+                Logging.LOG.log(Level.WARNING, "Unable to save checksum journal", e);
             }
-            if (download) {
+        }
+
+        queued = missing.size();
+        Logging.LOG.info("Checked " + objects.size() + " asset objects of " + assetIndexInfo.getId() + ": "
+                + skipped + " skipped, " + verified + " verified, " + queued + " queued");
+
+        int workers = dependencyManager.getDownloadProvider().getConcurrency();
+        if (Schedulers.isVirtualThreads())
+            // A download waiting for the network takes no OS thread, so small asset objects are fetched many at once.
+            workers = Math.max(workers, Schedulers.getIOParallelism());
+        BulkDownloadTask downloads = new BulkDownloadTask(workers);
+        for (AssetObject assetObject : missing) {
+            File file = getFile(assetObject);
+            downloads.add(() -> {
                 List<URL> urls = dependencyManager.getDownloadProvider().getAssetObjectCandidates(assetObject.getLocation());
 
                 FileDownloadTask task = new FileDownloadTask(urls, file, new FileDownloadTask.IntegrityCheck("SHA-1", assetObject.getHash()));
                 task.setName(assetObject.getHash());
+                task.setExpectedSize(assetObject.getSize());
                 task.setCandidate(dependencyManager.getCacheRepository().getCommonDirectory()
                         .resolve("assets").resolve("objects").resolve(assetObject.getLocation()));
                 task.setCacheRepository(dependencyManager.getCacheRepository());
                 task.setCaching(true);
-                dependencies.add(task.withCounter());
-            } else {
-                dependencyManager.getCacheRepository().tryCacheFile(file.toPath(), CacheRepository.SHA1, assetObject.getHash());
-            }
+                return task;
+            });
+        }
+
+        if (downloads.size() > 0) {
+            // One task downloads all the objects, thousands of tasks would cost more than the downloads themselves.
+            dependencies.add(downloads);
+            getProperties().put("total", downloads.size());
+        }
+    }
+
+    /**
+     * @return count of existing objects not hashed in the last check, since the checksum journal or integrity check
+     * being off tells they are fine.
+     */
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return count of existing objects hashed in the last check.
+     */
+    public int getVerifiedCount() {
+        return verified.get();
+    }
+
+    /**
+     * @return count of objects missing or broken in the last check, which are to be downloaded.
+     */
+    public int getQueuedCount() {
+        return queued;
+    }
+
+    /**
+     * Checks whether the object exists and is intact, adding it to the missing ones if not.
+     */
+    private void check(AssetObject assetObject, int total, Queue<AssetObject> missing) {
+        if (isCancelled())
+            return;
+
+        try {
+            if (shouldDownload(assetObject))
+                missing.add(assetObject);
+            else
+                dependencyManager.getCacheRepository().tryCacheFile(getFile(assetObject).toPath(), CacheRepository.SHA1, assetObject.getHash());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        updateProgress(checked.incrementAndGet(), total);
+    }
+
+    private File getFile(AssetObject assetObject) {
+        return dependencyManager.getGameRepository().getAssetObject(version.getId(), assetIndexInfo.getId(), assetObject);
+    }
+
+    private boolean shouldDownload(AssetObject assetObject) {
+        Path file = getFile(assetObject).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return true; // not existing
+        }
+        if (!attributes.isRegularFile())
+            return true;
 
-            updateProgress(++progress, index.getObjects().size());
+        if (!integrityCheck) {
+            skipped.incrementAndGet();
+            return false;
         }
 
-        if (!dependencies.isEmpty()) {
-            getProperties().put("total", dependencies.size());
+        if (assetObject.getSize() > 0 && attributes.size() != assetObject.getSize())
+            return true;
+
+        ChecksumJournal journal = dependencyManager.getCacheRepository().getChecksumJournal();
+        try {
+            if (journal != null) {
+                String recorded = journal.getRecordedDigest(file, attributes, CacheRepository.SHA1);
+                if (recorded != null) {
+                    skipped.incrementAndGet();
+                    return !recorded.equalsIgnoreCase(assetObject.getHash());
+                }
+            }
+
+            verified.incrementAndGet();
+            return !dependencyManager.getCacheRepository().digest(CacheRepository.SHA1, file).equalsIgnoreCase(assetObject.getHash());
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to calc hash value of file " + file, e);
+            return false;
         }
     }
 
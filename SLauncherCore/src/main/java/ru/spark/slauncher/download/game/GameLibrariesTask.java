@@ -6,6 +6,7 @@ import ru.spark.slauncher.game.Library;
 import ru.spark.slauncher.game.Version;
 import ru.spark.slauncher.task.FileDownloadTask;
 import ru.spark.slauncher.task.Task;
+import ru.spark.slauncher.util.ChecksumJournal;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.io.FileUtils;
 
@@ -60,12 +61,15 @@ public final class GameLibrariesTask extends Task<Void> {
         return dependencies;
     }
 
-    public static boolean shouldDownloadLibrary(GameRepository gameRepository, Version version, Library library, boolean integrityCheck) {
+    /**
+     * @param journal the journal telling digests of libraries not changed since they were hashed, null if not used.
+     */
+    public static boolean shouldDownloadLibrary(GameRepository gameRepository, Version version, Library library, boolean integrityCheck, ChecksumJournal journal) {
         File file = gameRepository.getLibraryFile(version, library);
         Path jar = file.toPath();
         if (!file.isFile()) return true;
         try {
-            if (integrityCheck && !library.getDownload().validateChecksum(jar, true)) return true;
+            if (integrityCheck && !library.getDownload().validateChecksum(jar, true, journal)) return true;
             if (integrityCheck &&
                     library.getChecksums() != null && !library.getChecksums().isEmpty() &&
                     !LibraryDownloadTask.checksumValid(file, library.getChecksums())) return true;
@@ -91,7 +95,7 @@ public final class GameLibrariesTask extends Task<Void> {
     public void execute() {
         libraries.stream().filter(Library::appliesToCurrentEnvironment).forEach(library -> {
             File file = dependencyManager.getGameRepository().getLibraryFile(version, library);
-            if (shouldDownloadLibrary(dependencyManager.getGameRepository(), version, library, integrityCheck)) {
+            if (shouldDownloadLibrary(dependencyManager.getGameRepository(), version, library, integrityCheck, dependencyManager.getCacheRepository().getChecksumJournal())) {
                 dependencies.add(new LibraryDownloadTask(dependencyManager, file, library));
             } else {
                 dependencyManager.getCacheRepository().tryCacheLibrary(library, file.toPath());
@@ -10,7 +10,6 @@ import ru.spark.slauncher.task.FileDownloadTask;
 import ru.spark.slauncher.task.FileDownloadTask.IntegrityCheck;
 import ru.spark.slauncher.task.Task;
 import ru.spark.slauncher.util.Logging;
-import ru.spark.slauncher.util.io.FileUtils;
 import ru.spark.slauncher.util.io.IOUtils;
 import ru.spark.slauncher.util.io.NetworkUtils;
 
@@ -101,7 +100,7 @@ public class LibraryDownloadTask extends Task<Void> {
         Optional<Path> libPath = cacheRepository.getLibrary(originalLibrary);
         if (libPath.isPresent()) {
             try {
-                FileUtils.copyFile(libPath.get().toFile(), jar);
+                cacheRepository.placeCachedFile(libPath.get(), jar.toPath());
                 cached = true;
                 return;
             } catch (IOException e) {
@@ -126,6 +125,8 @@ public class LibraryDownloadTask extends Task<Void> {
                 task.setCacheRepository(cacheRepository);
                 task.setCaching(true);
                 task.addIntegrityCheckHandler(FileDownloadTask.ZIP_INTEGRITY_CHECK_HANDLER);
+                if (library.getDownload().getSize() > 0)
+                    task.setExpectedSize(library.getDownload().getSize());
                 xz = false;
             }
         } catch (IOException e) {
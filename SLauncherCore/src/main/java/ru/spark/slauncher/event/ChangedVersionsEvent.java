@@ -0,0 +1,56 @@
+package ru.spark.slauncher.event;
+
+import ru.spark.slauncher.game.GameRepository;
+import ru.spark.slauncher.util.ToStringBuilder;
+
+import java.util.Set;
+
+/**
+ * This event gets fired when refreshing versions found versions added, removed or changed since the last refresh,
+ * before {@link RefreshedVersionsEvent}.
+ * <br>
+ * This event is fired on the {@link EventBus#EVENT_BUS}
+ *
+ * @author spark1337
+ */
+public final class ChangedVersionsEvent extends Event {
+
+    private final Set<String> added;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    /**
+     * @param source  {@link GameRepository}
+     * @param added   ids of versions added.
+     * @param removed ids of versions removed.
+     * @param changed ids of versions whose json or the json of a version inherited from changed.
+     */
+    public ChangedVersionsEvent(Object source, Set<String> added, Set<String> removed, Set<String> changed) {
+        super(source);
+        this.added = added;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("source", source)
+                .append("added", added)
+                .append("removed", removed)
+                .append("changed", changed)
+                .toString();
+    }
+}
@@ -1,6 +1,7 @@
 package ru.spark.slauncher.game;
 
 import com.google.gson.JsonParseException;
+import ru.spark.slauncher.util.ChecksumJournal;
 import ru.spark.slauncher.util.DigestUtils;
 import ru.spark.slauncher.util.Hex;
 import ru.spark.slauncher.util.StringUtils;
@@ -45,7 +46,15 @@ public final class AssetObject implements Validation {
     }
 
     public boolean validateChecksum(Path file, boolean defaultValue) throws IOException {
+        return validateChecksum(file, defaultValue, null);
+    }
+
+    /**
+     * @param journal the journal telling the digest of the file if not changed since, null if the file should be hashed.
+     */
+    public boolean validateChecksum(Path file, boolean defaultValue, ChecksumJournal journal) throws IOException {
         if (hash == null) return defaultValue;
-        return Hex.encodeHex(DigestUtils.digest("SHA-1", file)).equalsIgnoreCase(hash);
+        String digest = journal == null ? Hex.encodeHex(DigestUtils.digest("SHA-1", file)) : journal.digest("SHA-1", file);
+        return digest.equalsIgnoreCase(hash);
     }
 }
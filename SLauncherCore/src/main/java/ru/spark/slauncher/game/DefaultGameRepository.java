@@ -6,20 +6,28 @@ import ru.spark.slauncher.download.game.VersionJsonSaveTask;
 import ru.spark.slauncher.event.*;
 import ru.spark.slauncher.mod.ModManager;
 import ru.spark.slauncher.task.Task;
+import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.DigestUtils;
+import ru.spark.slauncher.util.Hex;
 import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.ToStringBuilder;
 import ru.spark.slauncher.util.gson.JsonUtils;
+import ru.spark.slauncher.util.io.FileMaterializer;
 import ru.spark.slauncher.util.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
-import java.util.stream.Stream;
 
 /**
  * An implementation of classic Minecraft game repository.
@@ -210,7 +218,59 @@ public class DefaultGameRepository implements GameRepository {
         }
     }
 
+    /**
+     * Versions read from their json files, reused while the json file keeps its size and modification time.
+     */
+    private final Map<File, LoadedVersion> loadedVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Versions loaded by the last refresh by their ids.
+     */
+    private volatile Map<String, LoadedVersion> loadedById = Collections.emptyMap();
+
+    /**
+     * Versions resolved and whether they were accepted, reused while the versions they inherit from are not reloaded.
+     */
+    private final Map<String, ResolvedVersion> resolvedVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Versions of the last refresh, to tell what the next one changed.
+     */
+    private Map<String, Version> refreshedVersions = Collections.emptyMap();
+
     protected void refreshVersionsImpl() {
+        Map<String, LoadedVersion> loaded = new ConcurrentHashMap<>();
+        File[] files = new File(getBaseDirectory(), "versions").listFiles();
+        if (files != null)
+            Arrays.stream(files).parallel().filter(File::isDirectory).forEach(dir -> {
+                LoadedVersion version = loadVersion(dir);
+                if (version != null)
+                    loaded.put(version.version.getId(), version);
+            });
+        loadedVersions.values().retainAll(loaded.values());
+
+        applyLoadedVersions(loaded);
+    }
+
+    /**
+     * Reads the versions of given ids again, keeping other versions as loaded by the last refresh.
+     *
+     * @param ids ids of versions added, removed or modified.
+     */
+    protected void refreshVersionsImpl(Collection<String> ids) {
+        Map<String, LoadedVersion> loaded = new HashMap<>(loadedById);
+        for (String id : ids) {
+            File dir = getVersionRoot(id);
+            LoadedVersion version = dir.isDirectory() ? loadVersion(dir) : null;
+            LoadedVersion old = version == null ? loaded.remove(id) : loaded.put(id, version);
+            if (old != null && old != version)
+                loadedVersions.remove(old.json, old);
+        }
+
+        applyLoadedVersions(loaded);
+    }
+
+    private void applyLoadedVersions(Map<String, LoadedVersion> loaded) {
         Map<String, Version> versions = new TreeMap<>();
 
         if (ClassicVersion.hasClassicVersion(getBaseDirectory())) {
@@ -219,87 +279,263 @@ public class DefaultGameRepository implements GameRepository {
         }
 
         SimpleVersionProvider provider = new SimpleVersionProvider();
+        loaded.values().forEach(version -> provider.addVersion(version.version));
+
+        // Versions are resolved again only if they or versions they inherit from were reloaded.
+        Map<String, ResolvedVersion> resolved = new ConcurrentHashMap<>();
+        loaded.values().parallelStream().forEach(version -> {
+            List<Object> chain = getInheritanceChain(version, loaded);
+            ResolvedVersion previous = resolvedVersions.get(version.version.getId());
+            resolved.put(version.version.getId(), previous != null && previous.chain.equals(chain)
+                    ? previous : resolve(chain, version.version, provider));
+        });
+        resolvedVersions.keySet().retainAll(resolved.keySet());
+        resolvedVersions.putAll(resolved);
+
+        for (LoadedVersion version : loaded.values())
+            if (resolved.get(version.version.getId()).accepted)
+                versions.put(version.version.getId(), version.version);
+
+        this.loadedById = loaded;
+        this.versions = versions;
+    }
 
-        File[] files = new File(getBaseDirectory(), "versions").listFiles();
-        if (files != null)
-            Arrays.stream(files).parallel().filter(File::isDirectory).flatMap(dir -> {
-                String id = dir.getName();
-                File json = new File(dir, id + ".json");
-
-                // If user renamed the json file by mistake or created the json file in a wrong name,
-                // we will find the only json and rename it to correct name.
-                if (!json.exists()) {
-                    List<File> jsons = FileUtils.listFilesByExtension(dir, "json");
-                    if (jsons.size() == 1) {
-                        Logging.LOG.info("Renaming json file " + jsons.get(0) + " to " + json);
-                        if (!jsons.get(0).renameTo(json)) {
-                            Logging.LOG.warning("Cannot rename json file, ignoring version " + id);
-                            return Stream.empty();
-                        }
-
-                        File jar = new File(dir, FileUtils.getNameWithoutExtension(jsons.get(0)) + ".jar");
-                        if (jar.exists() && !jar.renameTo(new File(dir, id + ".jar"))) {
-                            Logging.LOG.warning("Cannot rename jar file, ignoring version " + id);
-                            return Stream.empty();
-                        }
-                    } else {
-                        Logging.LOG.info("No available json file found, ignoring version " + id);
-                        return Stream.empty();
-                    }
+    /**
+     * Reads the json of the version in given directory, or takes the version read before if the json is not modified.
+     *
+     * @return the version, null if the directory is not a valid version.
+     */
+    private LoadedVersion loadVersion(File dir) {
+        String id = dir.getName();
+        File json = new File(dir, id + ".json");
+
+        // If user renamed the json file by mistake or created the json file in a wrong name,
+        // we will find the only json and rename it to correct name.
+        if (!json.exists()) {
+            List<File> jsons = FileUtils.listFilesByExtension(dir, "json");
+            if (jsons.size() == 1) {
+                Logging.LOG.info("Renaming json file " + jsons.get(0) + " to " + json);
+                if (!jsons.get(0).renameTo(json)) {
+                    Logging.LOG.warning("Cannot rename json file, ignoring version " + id);
+                    return null;
                 }
 
-                Version version;
-                try {
-                    version = readVersionJson(json);
-                } catch (Exception e) {
-                    Logging.LOG.log(Level.WARNING, "Malformed version json " + id, e);
-                    // JsonSyntaxException or IOException or NullPointerException(!!)
-                    if (EventBus.EVENT_BUS.fireEvent(new GameJsonParseFailedEvent(this, json, id)) != Event.Result.ALLOW)
-                        return Stream.empty();
-
-                    try {
-                        version = readVersionJson(json);
-                    } catch (Exception e2) {
-                        Logging.LOG.log(Level.SEVERE, "User corrected version json is still malformed", e2);
-                        return Stream.empty();
-                    }
+                File jar = new File(dir, FileUtils.getNameWithoutExtension(jsons.get(0)) + ".jar");
+                if (jar.exists() && !jar.renameTo(new File(dir, id + ".jar"))) {
+                    Logging.LOG.warning("Cannot rename jar file, ignoring version " + id);
+                    return null;
                 }
+            } else {
+                Logging.LOG.info("No available json file found, ignoring version " + id);
+                return null;
+            }
+        }
 
-                if (!id.equals(version.getId())) {
-                    version = version.setId(id);
-                    try {
-                        FileUtils.writeText(json, JsonUtils.GSON.toJson(version));
-                    } catch (Exception e) {
-                        Logging.LOG.log(Level.WARNING, "Ignoring version " + id + " because wrong id " + version.getId() + " is set and cannot correct it.", e);
-                        return Stream.empty();
-                    }
-                }
+        LoadedVersion cached = loadedVersions.get(json);
+        if (cached != null && cached.isUpToDate(json))
+            return cached;
 
-                return Stream.of(version);
-            }).forEachOrdered(provider::addVersion);
+        Version version;
+        try {
+            version = readVersionJson(json);
+        } catch (Exception e) {
+            Logging.LOG.log(Level.WARNING, "Malformed version json " + id, e);
+            // JsonSyntaxException or IOException or NullPointerException(!!)
+            if (EventBus.EVENT_BUS.fireEvent(new GameJsonParseFailedEvent(this, json, id)) != Event.Result.ALLOW)
+                return null;
 
-        for (Version version : provider.getVersionMap().values()) {
             try {
-                Version resolved = version.resolve(provider);
+                version = readVersionJson(json);
+            } catch (Exception e2) {
+                Logging.LOG.log(Level.SEVERE, "User corrected version json is still malformed", e2);
+                return null;
+            }
+        }
 
-                if (resolved.appliesToCurrentEnvironment() &&
-                        EventBus.EVENT_BUS.fireEvent(new LoadedOneVersionEvent(this, resolved)) != Event.Result.DENY)
-                    versions.put(version.getId(), version);
-            } catch (VersionNotFoundException e) {
-                Logging.LOG.log(Level.WARNING, "Ignoring version " + version.getId() + " because it inherits from a nonexistent version.");
+        if (!id.equals(version.getId())) {
+            version = version.setId(id);
+            try {
+                FileUtils.writeText(json, JsonUtils.GSON.toJson(version));
+            } catch (Exception e) {
+                Logging.LOG.log(Level.WARNING, "Ignoring version " + id + " because wrong id " + version.getId() + " is set and cannot correct it.", e);
+                return null;
             }
         }
 
-        this.versions = versions;
+        LoadedVersion loaded = new LoadedVersion(json, version);
+        loadedVersions.put(json, loaded);
+        return loaded;
+    }
+
+    /**
+     * @return the loaded versions the version inherits from, and the id of the first one missing if any.
+     */
+    private static List<Object> getInheritanceChain(LoadedVersion version, Map<String, LoadedVersion> loaded) {
+        List<Object> chain = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        LoadedVersion current = version;
+        while (true) {
+            chain.add(current);
+            String parent = current.version.getInheritsFrom();
+            if (parent == null || !visited.add(parent))
+                return chain;
+            current = loaded.get(parent);
+            if (current == null) {
+                chain.add(parent);
+                return chain;
+            }
+        }
     }
 
+    private ResolvedVersion resolve(List<Object> chain, Version version, VersionProvider provider) {
+        try {
+            Version resolved = version.resolve(provider);
+
+            boolean accepted = resolved.appliesToCurrentEnvironment() &&
+                    EventBus.EVENT_BUS.fireEvent(new LoadedOneVersionEvent(this, resolved)) != Event.Result.DENY;
+            return new ResolvedVersion(chain, resolved, accepted);
+        } catch (VersionNotFoundException e) {
+            Logging.LOG.log(Level.WARNING, "Ignoring version " + version.getId() + " because it inherits from a nonexistent version.");
+            return new ResolvedVersion(chain, null, false);
+        }
+    }
+
+    /**
+     * @return the resolution of the version by the last refresh, null if the version was not read by it.
+     */
+    private ResolvedVersion getResolution(Version version) {
+        LoadedVersion loaded = loadedById.get(version.getId());
+        if (loaded == null || loaded.version != version)
+            return null;
+        ResolvedVersion resolved = resolvedVersions.get(version.getId());
+        return resolved != null && resolved.chain.get(0) == loaded ? resolved : null;
+    }
+
+    /**
+     * Versions are resolved once by the refresh reading them or versions they inherit from, instead of once by
+     * every caller.
+     */
     @Override
-    public void refreshVersions() {
+    public Version getCachedResolvedVersion(Version version) {
+        ResolvedVersion resolved = getResolution(version);
+        return resolved == null ? null : resolved.resolved;
+    }
+
+    @Override
+    public Version getResolvedPreservingPatchesVersion(String id) throws VersionNotFoundException {
+        Version version = getVersion(id);
+        ResolvedVersion resolved = getResolution(version);
+        if (resolved == null || resolved.resolved == null)
+            return version.resolvePreservingPatches(this);
+
+        Version result = resolved.resolvedPreservingPatches;
+        if (result == null)
+            resolved.resolvedPreservingPatches = result = version.resolvePreservingPatches(this);
+        return result;
+    }
+
+    @Override
+    public synchronized void refreshVersions() {
         if (EventBus.EVENT_BUS.fireEvent(new RefreshingVersionsEvent(this)) == Event.Result.DENY)
             return;
 
+        Map<String, ResolvedVersion> previouslyResolved = new HashMap<>(resolvedVersions);
         refreshVersionsImpl();
+        fireChangedVersions(previouslyResolved);
         EventBus.EVENT_BUS.fireEvent(new RefreshedVersionsEvent(this));
+
+        if (VersionWatcher.isEnabled())
+            VersionWatcher.watch(this);
+    }
+
+    /**
+     * Reads the versions of given ids again, for changes known to be limited to them, like those seen by
+     * {@link VersionWatcher}. Events are fired only if versions changed.
+     *
+     * @param ids ids of versions added, removed or modified.
+     */
+    public synchronized void refreshVersions(Collection<String> ids) {
+        if (!isLoaded()) {
+            refreshVersions();
+            return;
+        }
+
+        Map<String, ResolvedVersion> previouslyResolved = new HashMap<>(resolvedVersions);
+        refreshVersionsImpl(ids);
+        if (fireChangedVersions(previouslyResolved))
+            EventBus.EVENT_BUS.fireEvent(new RefreshedVersionsEvent(this));
+    }
+
+    /**
+     * @return true if versions were added, removed or changed since the last refresh.
+     */
+    private boolean fireChangedVersions(Map<String, ResolvedVersion> previouslyResolved) {
+        Map<String, Version> previous = refreshedVersions;
+        refreshedVersions = new HashMap<>(versions);
+        Set<String> added = new TreeSet<>(), removed = new TreeSet<>(), changed = new TreeSet<>();
+        for (Map.Entry<String, Version> entry : refreshedVersions.entrySet()) {
+            String id = entry.getKey();
+            Version old = previous.get(id);
+            if (old == null)
+                added.add(id);
+            // A version inheriting from a changed version is resolved again, though not read again.
+            else if (old != entry.getValue() || previouslyResolved.get(id) != resolvedVersions.get(id))
+                changed.add(id);
+        }
+        for (String id : previous.keySet())
+            if (!refreshedVersions.containsKey(id))
+                removed.add(id);
+
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty())
+            return false;
+        EventBus.EVENT_BUS.fireEvent(new ChangedVersionsEvent(this, added, removed, changed));
+        return true;
+    }
+
+    private static final class LoadedVersion {
+        /**
+         * Modification times are coarse on some file systems, a json modified this recently may be modified again
+         * without changing its modification time.
+         */
+        private static final long RACY_INTERVAL = 2000;
+
+        final File json;
+        final long size;
+        final long lastModified;
+        final boolean racy;
+        final Version version;
+
+        LoadedVersion(File json, Version version) {
+            this.json = json;
+            this.size = json.length();
+            this.lastModified = json.lastModified();
+            this.racy = System.currentTimeMillis() - lastModified < RACY_INTERVAL;
+            this.version = version;
+        }
+
+        boolean isUpToDate(File json) {
+            return !racy && json.length() == size && json.lastModified() == lastModified;
+        }
+    }
+
+    private static final class ResolvedVersion {
+        /**
+         * Versions read from the json files of the version and versions it inherits from, and the id of the missing
+         * version it inherits from if any.
+         */
+        final List<Object> chain;
+        final Version resolved;
+        final boolean accepted;
+        volatile Version resolvedPreservingPatches;
+
+        /**
+         * @param resolved the resolved version, null if a version it inherits from is missing.
+         */
+        ResolvedVersion(List<Object> chain, Version resolved, boolean accepted) {
+            this.chain = chain;
+            this.resolved = resolved;
+            this.accepted = accepted;
+        }
     }
 
     @Override
@@ -356,35 +592,66 @@ public class DefaultGameRepository implements GameRepository {
         return new File(getAssetDirectory(version, assetId), "log_configs/" + loggingInfo.getFile().getId());
     }
 
+    /**
+     * Places the objects of a virtual asset index at their names under assets/virtual, by hard links where possible,
+     * see {@link FileMaterializer}. Once all objects are placed, a stamp with the hash of the index is written, so
+     * that following launches take the directory as it is.
+     */
     protected File reconstructAssets(String version, String assetId) throws IOException, JsonParseException {
         File assetsDir = getAssetDirectory(version, assetId);
         File indexFile = getIndexFile(version, assetId);
         File virtualRoot = new File(new File(assetsDir, "virtual"), assetId);
+        File stampFile = new File(new File(assetsDir, "virtual"), assetId + ".complete");
 
         if (!indexFile.isFile())
             return assetsDir;
 
-        String assetIndexContent = FileUtils.readText(indexFile);
-        AssetIndex index = JsonUtils.GSON.fromJson(assetIndexContent, AssetIndex.class);
+        String stamp = stampFile.isFile() && virtualRoot.isDirectory() ? FileUtils.readText(stampFile) : null;
+        String indexTime = indexFile.length() + " " + indexFile.lastModified();
+        if (stamp != null && stamp.endsWith("\n" + indexTime))
+            return virtualRoot;
+
+        byte[] assetIndexContent = Files.readAllBytes(indexFile.toPath());
+        String indexHash = Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, assetIndexContent));
+        if (stamp != null && stamp.startsWith(indexHash + "\n")) {
+            // The same index downloaded again.
+            writeAssetsStamp(stampFile, indexHash, indexTime);
+            return virtualRoot;
+        }
+
+        AssetIndex index = JsonUtils.GSON.fromJson(new String(assetIndexContent, StandardCharsets.UTF_8), AssetIndex.class);
 
         if (index == null)
             return assetsDir;
 
         if (index.isVirtual()) {
-            int cnt = 0;
+            Files.deleteIfExists(stampFile.toPath());
+            LongAdder cnt = new LongAdder();
             int tot = index.getObjects().entrySet().size();
-            for (Map.Entry<String, AssetObject> entry : index.getObjects().entrySet()) {
-                File target = new File(virtualRoot, entry.getKey());
-                File original = getAssetObject(version, assetsDir, entry.getValue());
-                if (original.exists()) {
-                    cnt++;
-                    if (!target.isFile())
-                        FileUtils.copyFile(original, target);
-                }
+            try {
+                index.getObjects().entrySet().parallelStream().forEach(entry -> {
+                    File target = new File(virtualRoot, entry.getKey());
+                    File original = getAssetObject(version, assetsDir, entry.getValue());
+                    if (original.exists()) {
+                        cnt.increment();
+                        if (!target.isFile()) {
+                            try {
+                                FileMaterializer.materialize(original.toPath(), target.toPath());
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
 
+            if (cnt.sum() == tot)
+                writeAssetsStamp(stampFile, indexHash, indexTime);
+
             // If the scale new format existent file is lower then 0.1, use the old format.
-            if (cnt * 10 < tot)
+            if (cnt.sum() * 10 < tot)
                 return assetsDir;
             else
                 return virtualRoot;
@@ -393,6 +660,12 @@ public class DefaultGameRepository implements GameRepository {
         return assetsDir;
     }
 
+    private static void writeAssetsStamp(File stampFile, String indexHash, String indexTime) throws IOException {
+        Path temp = stampFile.toPath().resolveSibling(stampFile.getName() + ".tmp");
+        FileUtils.writeText(temp.toFile(), indexHash + "\n" + indexTime);
+        Files.move(temp, stampFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
     public Task<Version> saveAsync(Version version) {
         if (version.isResolvedPreservingPatches()) {
             return new VersionJsonSaveTask(this, MaintainTask.maintainPreservingPatches(this, version));
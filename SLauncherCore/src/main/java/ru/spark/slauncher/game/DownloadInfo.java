@@ -64,7 +64,15 @@ public class DownloadInfo implements Validation {
     }
 
     public boolean validateChecksum(Path file, boolean defaultValue) throws IOException {
+        return validateChecksum(file, defaultValue, null);
+    }
+
+    /**
+     * @param journal the journal telling the digest of the file if not changed since, null if the file should be hashed.
+     */
+    public boolean validateChecksum(Path file, boolean defaultValue, ChecksumJournal journal) throws IOException {
         if (getSha1() == null) return defaultValue;
-        return Hex.encodeHex(DigestUtils.digest("SHA-1", file)).equalsIgnoreCase(getSha1());
+        String digest = journal == null ? Hex.encodeHex(DigestUtils.digest("SHA-1", file)) : journal.digest("SHA-1", file);
+        return digest.equalsIgnoreCase(getSha1());
     }
 }
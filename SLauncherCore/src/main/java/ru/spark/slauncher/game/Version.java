@@ -194,6 +194,8 @@ public class Version implements Comparable<Version>, Validation {
      */
     public Version resolve(VersionProvider provider) throws VersionNotFoundException {
         if (isResolved()) return this;
+        Version cached = provider == null ? null : provider.getCachedResolvedVersion(this);
+        if (cached != null) return cached;
         return resolve(provider, new HashSet<>()).markAsResolved();
     }
 
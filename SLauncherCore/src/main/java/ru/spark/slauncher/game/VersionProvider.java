@@ -23,4 +23,14 @@ public interface VersionProvider {
      * @return the version you want
      */
     Version getVersion(String id) throws VersionNotFoundException;
+
+    /**
+     * Get the version resolved before, if this provider caches resolved versions.
+     *
+     * @param version the version got from this provider
+     * @return the resolved version, null if not cached
+     */
+    default Version getCachedResolvedVersion(Version version) {
+        return null;
+    }
 }
@@ -0,0 +1,231 @@
+package ru.spark.slauncher.game;
+
+import ru.spark.slauncher.util.Logging;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Follows changes of the versions directories of repositories, so that added, removed and modified versions are read
+ * again by {@link DefaultGameRepository#refreshVersions(Collection)} instead of rescanning all versions.
+ * <p>
+ * The versions directory and the root of every version are watched, events are collected until no event comes for
+ * {@link #DEBOUNCE} milliseconds. A single daemon thread waits for events, taking no CPU while nothing changes.
+ * Repositories are watched after their first full refresh.
+ *
+ * @author spark1337
+ */
+public final class VersionWatcher {
+
+    /**
+     * Time without events in milliseconds before changed versions are read again.
+     */
+    public static final long DEBOUNCE = 500;
+
+    private static volatile boolean enabled;
+    private static VersionWatcher instance;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Disabled by default. When disabled, all repositories stop being watched; when enabled again, repositories are
+     * watched from their next full refresh.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        VersionWatcher.enabled = enabled;
+        if (!enabled && instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Starts watching the versions directory of the repository, or updates the watched version roots.
+     */
+    static synchronized void watch(DefaultGameRepository repository) {
+        if (!enabled)
+            return;
+        try {
+            if (instance == null)
+                instance = new VersionWatcher();
+            instance.register(repository);
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to watch versions of " + repository.getBaseDirectory(), e);
+        }
+    }
+
+    private final WatchService service;
+    private final Map<Path, List<WeakReference<DefaultGameRepository>>> repositories = new HashMap<>();
+    private final Map<WatchKey, Watched> watched = new HashMap<>();
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+
+    /**
+     * Ids of versions changed by versions directory since the last refresh, read by the watcher thread only.
+     */
+    private final Map<Path, Set<String>> changed = new HashMap<>();
+    private final Set<Path> overflowed = new HashSet<>();
+    private long lastEvent;
+
+    private VersionWatcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::run, "Version Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to stop watching versions", e);
+        }
+    }
+
+    private synchronized void register(DefaultGameRepository repository) throws IOException {
+        Path versionsDir = repository.getBaseDirectory().toPath().resolve("versions").toAbsolutePath().normalize();
+
+        List<WeakReference<DefaultGameRepository>> list = repositories.computeIfAbsent(versionsDir, dir -> new ArrayList<>());
+        list.removeIf(reference -> reference.get() == null);
+        if (list.stream().noneMatch(reference -> reference.get() == repository))
+            list.add(new WeakReference<>(repository));
+
+        // Versions directories of repositories no longer used are not watched any more.
+        repositories.values().removeIf(List::isEmpty);
+        for (Iterator<Map.Entry<WatchKey, Watched>> iterator = watched.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<WatchKey, Watched> entry = iterator.next();
+            List<WeakReference<DefaultGameRepository>> references = repositories.get(entry.getValue().versionsDir);
+            if (references == null || references.stream().allMatch(reference -> reference.get() == null)) {
+                entry.getKey().cancel();
+                keys.remove(entry.getValue().dir);
+                iterator.remove();
+            }
+        }
+
+        if (!Files.isDirectory(versionsDir))
+            return;
+        register(versionsDir, versionsDir, null);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(versionsDir, Files::isDirectory)) {
+            for (Path dir : stream)
+                register(dir, versionsDir, dir.getFileName().toString());
+        }
+    }
+
+    private synchronized void register(Path dir, Path versionsDir, String id) throws IOException {
+        WatchKey key = keys.get(dir);
+        if (key != null && key.isValid())
+            return;
+        key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        keys.put(dir, key);
+        watched.put(key, new Watched(dir, versionsDir, id));
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long wait = -1;
+                if (!changed.isEmpty()) {
+                    wait = DEBOUNCE - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastEvent);
+                    if (wait <= 0) {
+                        refresh();
+                        continue;
+                    }
+                }
+
+                WatchKey key = wait < 0 ? service.take() : service.poll(wait, TimeUnit.MILLISECONDS);
+                if (key != null)
+                    handle(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Watched target;
+        synchronized (this) {
+            target = watched.get(key);
+        }
+        List<WatchEvent<?>> events = key.pollEvents();
+        if (target != null) {
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflowed.add(target.versionsDir);
+                    changed.computeIfAbsent(target.versionsDir, dir -> new HashSet<>());
+                    continue;
+                }
+
+                String name = event.context().toString();
+                if (target.id == null) {
+                    changed.computeIfAbsent(target.versionsDir, dir -> new HashSet<>()).add(name);
+                    Path dir = target.dir.resolve(name);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(dir)) {
+                        try {
+                            register(dir, target.versionsDir, name);
+                        } catch (IOException e) {
+                            Logging.LOG.log(Level.WARNING, "Unable to watch version " + dir, e);
+                        }
+                    }
+                } else if (name.equals(target.id + ".json")) {
+                    // Other files of the version, like the jar or natives, do not change the version.
+                    changed.computeIfAbsent(target.versionsDir, dir -> new HashSet<>()).add(target.id);
+                }
+            }
+            lastEvent = System.nanoTime();
+        }
+
+        if (!key.reset()) {
+            synchronized (this) {
+                Watched removed = watched.remove(key);
+                if (removed != null)
+                    keys.remove(removed.dir, key);
+            }
+        }
+    }
+
+    private void refresh() {
+        for (Map.Entry<Path, Set<String>> entry : changed.entrySet()) {
+            List<DefaultGameRepository> targets = new ArrayList<>();
+            synchronized (this) {
+                for (WeakReference<DefaultGameRepository> reference : repositories.getOrDefault(entry.getKey(), Collections.emptyList())) {
+                    DefaultGameRepository repository = reference.get();
+                    if (repository != null)
+                        targets.add(repository);
+                }
+            }
+
+            for (DefaultGameRepository repository : targets) {
+                try {
+                    // Events were lost, which versions changed is unknown.
+                    if (overflowed.contains(entry.getKey()))
+                        repository.refreshVersions();
+                    else
+                        repository.refreshVersions(entry.getValue());
+                } catch (Throwable e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to refresh versions of " + repository.getBaseDirectory(), e);
+                }
+            }
+        }
+        changed.clear();
+        overflowed.clear();
+    }
+
+    private static final class Watched {
+        final Path dir;
+        final Path versionsDir;
+        final String id;
+
+        /**
+         * @param id the id of the version whose root is watched, null for the versions directory.
+         */
+        Watched(Path dir, Path versionsDir, String id) {
+            this.dir = dir;
+            this.versionsDir = versionsDir;
+            this.id = id;
+        }
+    }
+}
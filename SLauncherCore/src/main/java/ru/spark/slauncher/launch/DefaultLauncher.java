@@ -2,18 +2,29 @@ package ru.spark.slauncher.launch;
 
 import ru.spark.slauncher.auth.AuthInfo;
 import ru.spark.slauncher.game.*;
+import ru.spark.slauncher.util.DigestUtils;
+import ru.spark.slauncher.util.Hex;
 import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.Log4jLevel;
 import ru.spark.slauncher.util.StringUtils;
+import ru.spark.slauncher.util.gson.JsonUtils;
 import ru.spark.slauncher.util.gson.UUIDTypeAdapter;
 import ru.spark.slauncher.util.io.FileUtils;
-import ru.spark.slauncher.util.io.Unzipper;
 import ru.spark.slauncher.util.platform.*;
 
 import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import static ru.spark.slauncher.util.Lang.mapOf;
 import static ru.spark.slauncher.util.Pair.pair;
@@ -97,43 +108,17 @@ public class DefaultLauncher extends Launcher {
             res.add("-Dfml.ignorePatchDiscrepancies=true");
         }
 
-        LinkedList<String> classpath = new LinkedList<>();
-        for (Library library : version.getLibraries())
-            if (library.appliesToCurrentEnvironment() && !library.isNative()) {
-                File f = repository.getLibraryFile(version, library);
-                if (f.exists() && f.isFile())
-                    classpath.add(f.getAbsolutePath());
-            }
-
         File jar = repository.getVersionJar(version);
         if (!jar.exists() || !jar.isFile())
             throw new IOException("Minecraft jar does not exist");
-        classpath.add(jar.getAbsolutePath());
 
-        // Provided Minecraft arguments
-        File gameAssets = repository.getActualAssetDirectory(version.getId(), version.getAssetIndex().getId());
+        LaunchPlan plan = getLaunchPlan(nativeFolder);
         Map<String, String> configuration = getConfigurations();
-        configuration.put("${classpath}", String.join(OperatingSystem.PATH_SEPARATOR, classpath));
-        configuration.put("${natives_directory}", nativeFolder.getAbsolutePath());
-        configuration.put("${game_assets}", gameAssets.getAbsolutePath());
-        configuration.put("${assets_root}", gameAssets.getAbsolutePath());
-        configuration.put("${libraries_directory}", repository.getLibrariesDirectory(version).getAbsolutePath());
-
-        res.addAll(Arguments.parseArguments(version.getArguments().map(Arguments::getJvm).orElseGet(this::getDefaultJVMArguments), configuration));
-        if (authInfo.getArguments() != null && authInfo.getArguments().getJvm() != null && !authInfo.getArguments().getJvm().isEmpty())
-            res.addAll(Arguments.parseArguments(authInfo.getArguments().getJvm(), configuration));
+        res.addAll(plan.getJvmArguments(configuration));
 
         res.add(version.getMainClass());
 
-        res.addAll(Arguments.parseStringArguments(version.getMinecraftArguments().map(StringUtils::tokenize).orElseGet(LinkedList::new), configuration));
-
-        Map<String, Boolean> features = getFeatures();
-        version.getArguments().map(Arguments::getGame).ifPresent(arguments -> res.addAll(Arguments.parseArguments(arguments, configuration, features)));
-        if (version.getMinecraftArguments().isPresent()) {
-            res.addAll(Arguments.parseArguments(this.getDefaultGameArguments(), configuration, features));
-        }
-        if (authInfo.getArguments() != null && authInfo.getArguments().getGame() != null && !authInfo.getArguments().getGame().isEmpty())
-            res.addAll(Arguments.parseArguments(authInfo.getArguments().getGame(), configuration, features));
+        res.addAll(plan.getGameArguments(configuration));
 
         if (StringUtils.isNotBlank(options.getServerIp())) {
             String[] args = options.getServerIp().split(":");
@@ -166,6 +151,85 @@ public class DefaultLauncher extends Launcher {
         return res;
     }
 
+    /**
+     * Takes the launch plan stored in the version directory if still up to date, or makes a new one.
+     */
+    private LaunchPlan getLaunchPlan(File nativeFolder) throws IOException {
+        String key = getLaunchPlanKey(nativeFolder);
+        File file = new File(repository.getVersionRoot(version.getId()), LaunchPlan.FILE_NAME);
+        LaunchPlan plan = LaunchPlan.read(file);
+        if (plan != null && plan.isUpToDate(key)) {
+            // Virtual assets are copied out of the asset objects, which may have been removed since.
+            String assetId = version.getAssetIndex().getId();
+            if (!repository.getAssetDirectory(version.getId(), assetId).getAbsolutePath().equals(plan.getGameAssets()))
+                repository.getActualAssetDirectory(version.getId(), assetId);
+            return plan;
+        }
+
+        plan = makeLaunchPlan(key, nativeFolder);
+        plan.write(file);
+        return plan;
+    }
+
+    /**
+     * The key of launch plans, changed whenever a part of the plan may change.
+     */
+    private String getLaunchPlanKey(File nativeFolder) {
+        StringBuilder key = new StringBuilder();
+        key.append(JsonUtils.GSON.toJson(version)).append('\n');
+        if (authInfo.getArguments() != null)
+            key.append(JsonUtils.GSON.toJson(authInfo.getArguments()));
+        key.append('\n').append(getFeatures())
+                .append('\n').append(new TreeSet<>(getConfigurations().keySet()))
+                .append('\n').append(nativeFolder.getAbsolutePath())
+                .append('\n').append(repository.getLibrariesDirectory(version).getAbsolutePath())
+                .append('\n').append(repository.getVersionJar(version).getAbsolutePath())
+                .append('\n').append(OperatingSystem.CURRENT_OS).append(' ').append(OperatingSystem.SYSTEM_ARCHITECTURE);
+        // Whether assets are virtual is told by the asset index.
+        File assetIndex = repository.getIndexFile(version.getId(), version.getAssetIndex().getId());
+        key.append('\n').append(assetIndex.length()).append(' ').append(assetIndex.lastModified());
+        return Hex.encodeHex(DigestUtils.digest("SHA-1", key.toString()));
+    }
+
+    private LaunchPlan makeLaunchPlan(String key, File nativeFolder) {
+        List<String> classpath = new ArrayList<>();
+        List<String> missingLibraries = new ArrayList<>();
+        for (Library library : version.getLibraries())
+            if (library.appliesToCurrentEnvironment() && !library.isNative()) {
+                File f = repository.getLibraryFile(version, library);
+                if (f.exists() && f.isFile())
+                    classpath.add(f.getAbsolutePath());
+                else
+                    missingLibraries.add(f.getAbsolutePath());
+            }
+        classpath.add(repository.getVersionJar(version).getAbsolutePath());
+
+        // Provided Minecraft arguments
+        File gameAssets = repository.getActualAssetDirectory(version.getId(), version.getAssetIndex().getId());
+        Map<String, String> configuration = LaunchPlan.slots(getConfigurations().keySet());
+        configuration.put("${classpath}", String.join(OperatingSystem.PATH_SEPARATOR, classpath));
+        configuration.put("${natives_directory}", nativeFolder.getAbsolutePath());
+        configuration.put("${game_assets}", gameAssets.getAbsolutePath());
+        configuration.put("${assets_root}", gameAssets.getAbsolutePath());
+        configuration.put("${libraries_directory}", repository.getLibrariesDirectory(version).getAbsolutePath());
+
+        List<String> jvmArguments = new ArrayList<>(Arguments.parseArguments(version.getArguments().map(Arguments::getJvm).orElseGet(this::getDefaultJVMArguments), configuration));
+        if (authInfo.getArguments() != null && authInfo.getArguments().getJvm() != null && !authInfo.getArguments().getJvm().isEmpty())
+            jvmArguments.addAll(Arguments.parseArguments(authInfo.getArguments().getJvm(), configuration));
+
+        List<String> gameArguments = new ArrayList<>(Arguments.parseStringArguments(version.getMinecraftArguments().map(StringUtils::tokenize).orElseGet(LinkedList::new), configuration));
+
+        Map<String, Boolean> features = getFeatures();
+        version.getArguments().map(Arguments::getGame).ifPresent(arguments -> gameArguments.addAll(Arguments.parseArguments(arguments, configuration, features)));
+        if (version.getMinecraftArguments().isPresent()) {
+            gameArguments.addAll(Arguments.parseArguments(this.getDefaultGameArguments(), configuration, features));
+        }
+        if (authInfo.getArguments() != null && authInfo.getArguments().getGame() != null && !authInfo.getArguments().getGame().isEmpty())
+            gameArguments.addAll(Arguments.parseArguments(authInfo.getArguments().getGame(), configuration, features));
+
+        return new LaunchPlan(key, classpath, missingLibraries, gameAssets.getAbsolutePath(), jvmArguments, gameArguments);
+    }
+
     public Map<String, Boolean> getFeatures() {
         return Collections.singletonMap(
                 "has_custom_resolution",
@@ -199,26 +263,126 @@ public class DefaultLauncher extends Launcher {
     protected void appendJvmArgs(CommandBuilder result) {
     }
 
+    /**
+     * Extracts native libraries unless the same libraries were extracted to the destination before, see
+     * {@link NativesManifest}. Libraries are extracted in parallel, and a file found in more than one library
+     * is extracted from the first of them in the library list.
+     */
     public void decompressNatives(File destination) throws NotDecompressingNativesException {
+        List<Library> natives = new ArrayList<>();
+        List<NativesManifest.Entry> entries = new ArrayList<>();
+        for (Library library : version.getLibraries())
+            if (library.isNative()) {
+                natives.add(library);
+                entries.add(new NativesManifest.Entry(repository.getLibraryFile(version, library),
+                        library.getDownload().getSha1(), library.getExtract().getExclude(), null));
+            }
+
+        NativesManifest manifest = NativesManifest.read(destination);
+        if (manifest != null && manifest.isUpToDate(destination, entries))
+            return;
+
         try {
             FileUtils.cleanDirectoryQuietly(destination);
-            for (Library library : version.getLibraries())
-                if (library.isNative())
-                    new Unzipper(repository.getLibraryFile(version, library), destination)
-                            .setFilter((zipEntry, isDirectory, destFile, path) -> {
-                                if (!isDirectory && Files.isRegularFile(destFile) && Files.size(destFile) == Files.size(zipEntry))
-                                    return false;
-                                String ext = FileUtils.getExtension(destFile);
-                                if (ext.equals("sha1") || ext.equals("git"))
-                                    return false;
-                                return library.getExtract().shouldExtract(path);
-                            })
-                            .setReplaceExistentFile(false).unzip();
+            FileUtils.makeDirectory(destination);
+
+            // Only the central directories are read to decide which library each file is extracted from.
+            List<List<String>> listed = natives.parallelStream().map(library -> {
+                try {
+                    return listNative(repository.getLibraryFile(version, library), library.getExtract());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+            List<Set<String>> owned = new ArrayList<>();
+            Set<String> claimed = new HashSet<>();
+            for (List<String> files : listed) {
+                Set<String> own = new HashSet<>();
+                for (String file : files)
+                    if (claimed.add(file))
+                        own.add(file);
+                owned.add(own);
+            }
+
+            List<NativesManifest.Entry> extracted = IntStream.range(0, natives.size()).parallel().mapToObj(i -> {
+                Library library = natives.get(i);
+                try {
+                    return extractNative(repository.getLibraryFile(version, library), destination, library.getExtract(), owned.get(i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+            new NativesManifest(extracted).write(destination);
+        } catch (UncheckedIOException e) {
+            throw new NotDecompressingNativesException(e.getCause());
         } catch (IOException e) {
             throw new NotDecompressingNativesException(e);
         }
     }
 
+    private static boolean shouldExtractNative(ZipEntry entry, ExtractRules rules) {
+        String path = entry.getName();
+        String ext = FileUtils.getExtension(new File(path));
+        return !entry.isDirectory() && !ext.equals("sha1") && !ext.equals("git") && rules.shouldExtract(path);
+    }
+
+    /**
+     * @return paths of the files to extract from the library, in the order of its central directory.
+     */
+    private static List<String> listNative(File library, ExtractRules rules) throws IOException {
+        List<String> files = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(library)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (shouldExtractNative(entry, rules))
+                    files.add(entry.getName());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed entry name in " + library, e);
+        }
+        return files;
+    }
+
+    /**
+     * Streams the library once, extracting the natives it owns and computing its SHA-1.
+     *
+     * @param owned paths of the files to extract from this library, others are left to the libraries before it.
+     */
+    private static NativesManifest.Entry extractNative(File library, File destination, ExtractRules rules, Set<String> owned) throws IOException {
+        Path root = destination.toPath().toAbsolutePath().normalize();
+        List<String> files = new ArrayList<>();
+        MessageDigest digest = DigestUtils.getDigest("SHA-1");
+        try (InputStream input = new DigestInputStream(new BufferedInputStream(new FileInputStream(library)), digest);
+             ZipInputStream zip = new ZipInputStream(input)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String path = entry.getName();
+                if (!owned.contains(path) || !shouldExtractNative(entry, rules))
+                    continue;
+
+                Path target = root.resolve(path).normalize();
+                if (!target.startsWith(root))
+                    throw new IOException("Illegal entry " + path + " in " + library);
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.copy(zip, target);
+                    files.add(path);
+                } catch (FileAlreadyExistsException ignored) {
+                    // A duplicate entry of the library, the first one is kept.
+                }
+            }
+
+            // The SHA-1 is of the whole library, including what follows the entries.
+            byte[] buffer = new byte[8192];
+            while (input.read(buffer) >= 0) {
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed entry name in " + library, e);
+        }
+        return new NativesManifest.Entry(library, Hex.encodeHex(digest.digest()), rules.getExclude(), files);
+    }
+
     protected Map<String, String> getConfigurations() {
         return mapOf(
                 pair("${auth_player_name}", authInfo.getUsername()),
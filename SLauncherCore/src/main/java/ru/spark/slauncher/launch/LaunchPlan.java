@@ -0,0 +1,133 @@
+package ru.spark.slauncher.launch;
+
+import com.google.gson.JsonParseException;
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.gson.JsonUtils;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * The part of the launch command following from the version: the classpath, and the arguments of the version with
+ * slots for the values of every launch, like the player name and the access token.
+ * <p>
+ * Plans are stored in the version directory and reused while the key, computed from the version, the asset index and
+ * launch options the plan depends on, does not change.
+ *
+ * @author spark1337
+ */
+final class LaunchPlan {
+
+    static final String FILE_NAME = "launch-plan.json";
+
+    /**
+     * Marks slots, a character never found in arguments of a process, so that no argument of the user is taken as a slot.
+     */
+    private static final char SLOT = '\0';
+
+    private final String key;
+    private final List<String> classpath;
+    private final List<String> missingLibraries;
+    private final String gameAssets;
+    private final List<String> jvmArguments;
+    private final List<String> gameArguments;
+
+    LaunchPlan(String key, List<String> classpath, List<String> missingLibraries, String gameAssets, List<String> jvmArguments, List<String> gameArguments) {
+        this.key = key;
+        this.classpath = classpath;
+        this.missingLibraries = missingLibraries;
+        this.gameAssets = gameAssets;
+        this.jvmArguments = jvmArguments;
+        this.gameArguments = gameArguments;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public List<String> getClasspath() {
+        return classpath == null ? Collections.emptyList() : Collections.unmodifiableList(classpath);
+    }
+
+    public String getGameAssets() {
+        return gameAssets;
+    }
+
+    /**
+     * @return true if the plan was made for the key, and libraries missing then are still missing.
+     */
+    public boolean isUpToDate(String key) {
+        if (!Objects.equals(this.key, key) || classpath == null || jvmArguments == null || gameArguments == null)
+            return false;
+        if (missingLibraries != null)
+            for (String library : missingLibraries)
+                if (new File(library).isFile())
+                    return false;
+        return true;
+    }
+
+    public List<String> getJvmArguments(Map<String, String> configuration) {
+        return fill(jvmArguments, configuration);
+    }
+
+    public List<String> getGameArguments(Map<String, String> configuration) {
+        return fill(gameArguments, configuration);
+    }
+
+    /**
+     * @return the configuration whose values are slots for the values of every launch.
+     */
+    static Map<String, String> slots(Collection<String> keys) {
+        Map<String, String> slots = new HashMap<>();
+        for (String key : keys)
+            slots.put(key, SLOT + key + SLOT);
+        return slots;
+    }
+
+    private static List<String> fill(List<String> template, Map<String, String> configuration) {
+        List<String> arguments = new ArrayList<>(template.size());
+        for (String argument : template) {
+            if (argument.indexOf(SLOT) < 0) {
+                arguments.add(argument);
+                continue;
+            }
+
+            StringBuilder builder = new StringBuilder();
+            String[] parts = argument.split(String.valueOf(SLOT), -1);
+            for (int i = 0; i < parts.length; i++)
+                builder.append(i % 2 == 0 ? parts[i] : configuration.getOrDefault(parts[i], parts[i]));
+            arguments.add(builder.toString());
+        }
+        return arguments;
+    }
+
+    /**
+     * @return the plan stored in the file, null if none or malformed.
+     */
+    static LaunchPlan read(File file) {
+        if (!file.isFile())
+            return null;
+        try {
+            return JsonUtils.GSON.fromJson(FileUtils.readText(file), LaunchPlan.class);
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read launch plan " + file, e);
+            return null;
+        }
+    }
+
+    void write(File file) {
+        Path temp = file.toPath().resolveSibling(file.getName() + ".tmp");
+        try {
+            FileUtils.writeText(temp.toFile(), JsonUtils.GSON.toJson(this));
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save launch plan " + file, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.spark.slauncher.launch;
+
+import com.google.gson.JsonParseException;
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.gson.JsonUtils;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+
+/**
+ * Lists the native libraries extracted to a natives directory and the files extracted from each of them, so that
+ * natives are extracted again only when the libraries change.
+ *
+ * @author spark1337
+ */
+final class NativesManifest {
+
+    static final String FILE_NAME = "natives-manifest.json";
+
+    private final List<Entry> libraries;
+
+    NativesManifest(List<Entry> libraries) {
+        this.libraries = libraries;
+    }
+
+    /**
+     * @param libraries the native libraries to extract, without extracted files.
+     * @return true if the same libraries were extracted and all files extracted are still there.
+     */
+    public boolean isUpToDate(File destination, List<Entry> libraries) {
+        if (this.libraries == null || this.libraries.size() != libraries.size())
+            return false;
+        for (int i = 0; i < libraries.size(); i++) {
+            Entry extracted = this.libraries.get(i);
+            if (extracted == null || !extracted.isSameLibrary(libraries.get(i)) || extracted.files == null)
+                return false;
+            for (String file : extracted.files)
+                if (!new File(destination, file).isFile())
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the manifest of the natives directory, null if none or malformed.
+     */
+    static NativesManifest read(File destination) {
+        File file = new File(destination, FILE_NAME);
+        if (!file.isFile())
+            return null;
+        try {
+            return JsonUtils.GSON.fromJson(FileUtils.readText(file), NativesManifest.class);
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read natives manifest " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Written after all natives are extracted, so that an interrupted extraction is done again.
+     */
+    void write(File destination) throws IOException {
+        Path file = destination.toPath().resolve(FILE_NAME);
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        FileUtils.writeText(temp.toFile(), JsonUtils.GSON.toJson(this));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static final class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String sha1;
+        private final List<String> exclude;
+        private final List<String> files;
+
+        /**
+         * @param sha1  the SHA-1 of the library, declared by the version or computed while extracting.
+         * @param files the files extracted from the library, null if not extracted yet.
+         */
+        Entry(File library, String sha1, List<String> exclude, List<String> files) {
+            this.path = library.getAbsolutePath();
+            this.size = library.length();
+            this.lastModified = library.lastModified();
+            this.sha1 = sha1;
+            this.exclude = exclude;
+            this.files = files;
+        }
+
+        public List<String> getFiles() {
+            return files == null ? Collections.emptyList() : Collections.unmodifiableList(files);
+        }
+
+        /**
+         * The SHA-1 is compared only if declared by the version, as computing it would read the whole library.
+         */
+        boolean isSameLibrary(Entry library) {
+            return Objects.equals(path, library.path) && size == library.size && lastModified == library.lastModified
+                    && (library.sha1 == null || library.sha1.equalsIgnoreCase(Objects.toString(sha1, "")))
+                    && Objects.equals(exclude, library.exclude);
+        }
+    }
+}
@@ -28,7 +28,7 @@ public interface ModAdviser {
             "regex:(.*?)\\.log",
             "usernamecache.json", "usercache.json", // Minecraft
             "launcher_profiles.json", "launcher.pack.lzma", // Minecraft Launcher
-            "backup", "pack.json", "launcher.jar", "cache", "modpack.cfg", // SLauncher
+            "backup", "pack.json", "launcher.jar", "cache", "modpack.cfg", "launch-plan.json", // SLauncher
             "manifest.json", "minecraftinstance.json", ".curseclient", // Curse
             ".fabric", ".mixin.out", // Fabric
             "jars", "logs", "versions", "assets", "libraries", "crash-reports", "NVIDIA", "AMD", "screenshots", "natives", "native", "$native", "server-resource-packs", // Minecraft
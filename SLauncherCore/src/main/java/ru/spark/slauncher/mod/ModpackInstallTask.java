@@ -1,17 +1,21 @@
 package ru.spark.slauncher.mod;
 
 import ru.spark.slauncher.task.Task;
-import ru.spark.slauncher.util.DigestUtils;
-import ru.spark.slauncher.util.Hex;
+import ru.spark.slauncher.util.CacheRepository;
+import ru.spark.slauncher.util.ContentStore;
+import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.io.FileUtils;
 import ru.spark.slauncher.util.io.Unzipper;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.logging.Level;
 
 public class ModpackInstallTask<T> extends Task<Void> {
 
@@ -55,31 +59,53 @@ public class ModpackInstallTask<T> extends Task<Void> {
         for (ModpackConfiguration.FileInformation file : overrides)
             files.put(file.getPath(), file);
 
+        ContentStore store = ContentStore.isEnabled() ? new ContentStore(CacheRepository.getInstance()) : null;
+        List<Path> extracted = new ArrayList<>();
+
         new Unzipper(modpackFile, dest)
                 .setSubDirectory(subDirectory)
                 .setTerminateIfSubDirectoryNotExists()
                 .setReplaceExistentFile(true)
                 .setEncoding(charset)
-                .setFilter((destPath, isDirectory, zipEntry, entryPath) -> {
+                .setFilter((zipEntry, isDirectory, destPath, entryPath) -> {
                     if (isDirectory) return true;
                     if (!callback.test(entryPath)) return false;
                     entries.add(entryPath);
 
+                    boolean extract;
                     if (!files.containsKey(entryPath)) {
                         // If old modpack does not have this entry, add this entry or override the file that user added.
-                        return true;
+                        extract = true;
                     } else if (!Files.exists(destPath)) {
                         // If both old and new modpacks have this entry, but the file is deleted by user, leave it missing.
-                        return false;
+                        extract = false;
                     } else {
                         // If both old and new modpacks have this entry, and user has modified this file,
                         // we will not replace it since this modified file is what user expects.
-                        String fileHash = Hex.encodeHex(DigestUtils.digest("SHA-1", destPath));
+                        String fileHash = CacheRepository.getInstance().digest(CacheRepository.SHA1, destPath);
                         String oldHash = files.get(entryPath).getHash();
-                        return Objects.equals(oldHash, fileHash);
+                        extract = Objects.equals(oldHash, fileHash);
+                    }
+
+                    if (extract && store != null && ContentStore.isStorable(entryPath)) {
+                        // Link the stored copy instead of writing the same mod into every instance.
+                        try (InputStream input = Files.newInputStream(zipEntry)) {
+                            if (store.place(destPath, input))
+                                return false;
+                        }
+                        extracted.add(destPath);
                     }
+                    return extract;
                 }).unzip();
 
+        for (Path file : extracted) {
+            try {
+                store.store(file);
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to store " + file, e);
+            }
+        }
+
         // If old modpack have this entry, and new modpack deleted it. Delete this file.
         for (ModpackConfiguration.FileInformation file : overrides) {
             File original = new File(dest, file.getPath());
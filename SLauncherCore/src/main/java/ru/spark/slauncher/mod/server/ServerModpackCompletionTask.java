@@ -8,8 +8,7 @@ import ru.spark.slauncher.mod.ModpackConfiguration;
 import ru.spark.slauncher.task.FileDownloadTask;
 import ru.spark.slauncher.task.GetTask;
 import ru.spark.slauncher.task.Task;
-import ru.spark.slauncher.util.DigestUtils;
-import ru.spark.slauncher.util.Hex;
+import ru.spark.slauncher.util.CacheRepository;
 import ru.spark.slauncher.util.Logging;
 import ru.spark.slauncher.util.StringUtils;
 import ru.spark.slauncher.util.gson.JsonUtils;
@@ -110,7 +109,7 @@ public class ServerModpackCompletionTask extends Task<Void> {
                 download = true;
             } else {
                 // If user modified this entry file, we will not replace this file since this modified file is that user expects.
-                String fileHash = Hex.encodeHex(DigestUtils.digest("SHA-1", actualPath));
+                String fileHash = CacheRepository.getInstance().digest(CacheRepository.SHA1, actualPath);
                 String oldHash = files.get(file.getPath()).getHash();
                 download = !Objects.equals(oldHash, file.getHash()) && Objects.equals(oldHash, fileHash);
             }
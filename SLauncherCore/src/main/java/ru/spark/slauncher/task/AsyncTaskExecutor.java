@@ -117,7 +117,7 @@ public final class AsyncTaskExecutor extends TaskExecutor {
                     taskListeners.forEach(it -> it.onReady(task));
 
                     if (task.doPreExecute()) {
-                        return CompletableFuture.runAsync(wrap(task::preExecute), task.getExecutor());
+                        return CompletableFuture.runAsync(wrap(task::preExecute), executorOf(task));
                     } else {
                         return CompletableFuture.completedFuture(null);
                     }
@@ -138,9 +138,10 @@ public final class AsyncTaskExecutor extends TaskExecutor {
                         task.setState(Task.TaskState.RUNNING);
                         taskListeners.forEach(it -> it.onRunning(task));
                         task.execute();
-                    }), task.getExecutor()).whenComplete((unused, throwable) -> {
+                    }), executorOf(task)).whenComplete((unused, throwable) -> {
                         task.setState(Task.TaskState.EXECUTED);
                         rethrow(throwable);
+                        taskListeners.forEach(it -> it.onExecuted(task));
                     });
                 })
                 .thenComposeAsync(unused -> executeTasks(task, task.getDependencies()))
@@ -151,7 +152,7 @@ public final class AsyncTaskExecutor extends TaskExecutor {
                         task.setDependenciesSucceeded();
 
                     if (task.doPostExecute()) {
-                        return CompletableFuture.runAsync(wrap(task::postExecute), task.getExecutor())
+                        return CompletableFuture.runAsync(wrap(task::postExecute), executorOf(task))
                                 .thenApply(unused -> dependenciesException);
                     } else {
                         return CompletableFuture.completedFuture(dependenciesException);
@@ -210,6 +211,12 @@ public final class AsyncTaskExecutor extends TaskExecutor {
             return e;
     }
 
+    private Executor executorOf(Task<?> task) {
+        Executor executor = task.getExecutor();
+        TaskPriority priority = getPriority();
+        return runnable -> executor.execute(new PrioritizedRunnable(runnable, priority));
+    }
+
     private static void rethrow(Throwable e) {
         if (e == null)
             return;
@@ -0,0 +1,144 @@
+package ru.spark.slauncher.task;
+
+import ru.spark.slauncher.util.Logging;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Downloads a large number of files by a fixed number of worker loops taking them from a queue,
+ * instead of scheduling a task for each file.
+ * <p>
+ * A fetch task is created only when a worker takes it from the queue, and only its {@link Task#execute()}
+ * is run, so it must not have dependents or dependencies. Workers are not admitted by
+ * {@link HostConcurrencyLimiter}, each fetch takes a permit of the host it connects instead, so the limit of a host
+ * applies however many workers there are. A failed download does not stop the others,
+ * the first failure is thrown when all of them are done. Progress and the count of finished downloads
+ * are reported for the whole queue, download speed is reported by {@link FetchTask} as usual.
+ *
+ * @author spark1337
+ */
+public final class BulkDownloadTask extends Task<Void> {
+
+    private static final long REPORT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Queue<Supplier<? extends FetchTask<?>>> queue = new ConcurrentLinkedQueue<>();
+    private final int workers;
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicReference<Exception> exception = new AtomicReference<>();
+    private int total;
+    private long lastReport;
+
+    /**
+     * @param workers the count of downloads running at the same time.
+     */
+    public BulkDownloadTask(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("At least one worker is required");
+        this.workers = workers;
+    }
+
+    /**
+     * Queues a download, must be called before this task is executed.
+     *
+     * @param supplier creates the fetch task when a worker is ready to run it.
+     */
+    public void add(Supplier<? extends FetchTask<?>> supplier) {
+        queue.add(supplier);
+        total++;
+    }
+
+    /**
+     * @return the count of downloads queued.
+     */
+    public int size() {
+        return total;
+    }
+
+    /**
+     * @return the count of downloads failed.
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void execute() throws Exception {
+        if (total == 0)
+            return;
+
+        report(true);
+
+        int helpers = Math.min(workers, total) - 1;
+        CountDownLatch latch = new CountDownLatch(helpers);
+        for (int i = 0; i < helpers; i++) {
+            try {
+                Schedulers.io().execute(() -> {
+                    try {
+                        work();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                latch.countDown();
+            }
+        }
+
+        // This thread works as well, so the queue is drained even if no helper can be started.
+        work();
+        latch.await();
+
+        report(true);
+
+        if (isCancelled())
+            throw new CancellationException();
+
+        if (exception.get() != null) {
+            Logging.LOG.log(Level.WARNING, failed.get() + " of " + total + " downloads failed");
+            throw exception.get();
+        }
+    }
+
+    private void work() {
+        Supplier<? extends FetchTask<?>> supplier;
+        while (!isCancelled() && (supplier = queue.poll()) != null) {
+            try {
+                FetchTask<?> task = supplier.get();
+                task.setCancelled(this::isCancelled);
+                task.execute();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                exception.compareAndSet(null, e);
+                Logging.LOG.log(Level.WARNING, "Bulk download failed", e);
+            }
+
+            finished.incrementAndGet();
+            report(false);
+        }
+    }
+
+    private synchronized void report(boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - lastReport < REPORT_INTERVAL)
+            return;
+        lastReport = now;
+
+        int count = finished.get();
+        updateProgress((double) count / total);
+        updateMessage(count + "/" + total);
+
+        getProperties().put("count", count);
+        getProperties().put("total", total);
+        notifyPropertiesChanged();
+    }
+}
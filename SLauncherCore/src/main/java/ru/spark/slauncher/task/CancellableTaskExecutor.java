@@ -1,90 +1,78 @@
 package ru.spark.slauncher.task;
 
+import ru.spark.slauncher.util.Lang;
 import ru.spark.slauncher.util.Logging;
-import ru.spark.slauncher.util.function.ExceptionalRunnable;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.UnaryOperator;
 import java.util.logging.Level;
 
+/**
+ * Runs tasks without blocking any thread while subtasks are running, and stops them when cancelled.
+ * <p>
+ * Tasks running on {@link Schedulers#defaultScheduler()} are run on {@link Schedulers#workStealing()}
+ * instead, unless the default scheduler runs on virtual threads, so a deep task graph takes a bounded number
+ * of threads rather than one parked thread for every task waiting for its subtasks. When cancelled, running
+ * tasks are interrupted and every task not started yet is aborted; tasks are expected to stop cooperatively
+ * by checking {@link Task#isCancelled()}.
+ */
 public class CancellableTaskExecutor extends TaskExecutor {
 
-    private final ConcurrentLinkedQueue<Future<?>> workerQueue = new ConcurrentLinkedQueue<>();
-    private Executor scheduler = Schedulers.newThread();
+    private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private final Set<Node> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean started;
 
     public CancellableTaskExecutor(Task<?> task) {
         super(task);
     }
 
     @Override
-    public TaskExecutor start() {
+    public synchronized TaskExecutor start() {
+        if (started)
+            return this;
+        started = true;
+
         taskListeners.forEach(TaskListener::onStart);
-        workerQueue.add(Schedulers.schedule(scheduler, wrap(() -> {
-            boolean flag = executeTasks(null, Collections.singleton(firstTask));
-            taskListeners.forEach(it -> it.onStop(flag, this));
-        })));
+        totTask.incrementAndGet();
+        new Node(null, firstTask).start();
         return this;
     }
 
     @Override
     public boolean test() {
-        taskListeners.forEach(TaskListener::onStart);
-        AtomicBoolean flag = new AtomicBoolean(true);
-        Future<?> future = Schedulers.schedule(scheduler, wrap(() -> {
-            flag.set(executeTasks(null, Collections.singleton(firstTask)));
-            taskListeners.forEach(it -> it.onStop(flag.get(), this));
-        }));
-        workerQueue.add(future);
+        start();
         try {
-            future.get();
+            // Waits in ForkJoinPool.managedBlock if called by a task, so the pool makes up for this thread.
+            return future.get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } catch (ExecutionException | CancellationException ignored) {
         }
-        return flag.get();
+        return false;
     }
 
     @Override
-    public synchronized void cancel() {
+    public void cancel() {
         cancelled.set(true);
 
-        while (!workerQueue.isEmpty()) {
-            Future<?> future = workerQueue.poll();
-            if (future != null)
-                future.cancel(true);
-        }
+        for (Node node : running)
+            node.interrupt();
     }
 
-    private boolean executeTasks(Task<?> parentTask, Collection<? extends Task<?>> tasks) throws InterruptedException {
-        if (tasks.isEmpty())
-            return true;
-
-        totTask.addAndGet(tasks.size());
-        AtomicBoolean success = new AtomicBoolean(true);
-        CountDownLatch latch = new CountDownLatch(tasks.size());
-        for (Task<?> task : tasks) {
-            if (cancelled.get())
-                return false;
-            Invoker invoker = new Invoker(parentTask, task, latch, success);
-            try {
-                Future<?> future = Schedulers.schedule(scheduler, invoker);
-                workerQueue.add(future);
-            } catch (RejectedExecutionException e) {
-                throw new InterruptedException();
-            }
-        }
-
-        if (cancelled.get())
-            return false;
+    private void onStop(Throwable throwable) {
+        boolean success = throwable == null && !cancelled.get();
+        if (throwable != null && !(throwable instanceof Exception))
+            Lang.handleUncaughtException(throwable);
 
         try {
-            latch.await();
-        } catch (InterruptedException e) {
-            return false;
+            taskListeners.forEach(it -> it.onStop(success, this));
+        } catch (Throwable e) {
+            Lang.handleUncaughtException(e);
         }
-        return success.get() && !cancelled.get();
+        future.complete(success);
     }
 
     private synchronized void updateStageProperties(String stage, Map<String, Object> taskProperties) {
@@ -100,92 +88,203 @@ public class CancellableTaskExecutor extends TaskExecutor {
         taskListeners.forEach(taskListener -> taskListener.onPropertiesUpdate(stageProperties));
     }
 
-    private boolean executeTask(Task<?> parentTask, Task<?> task) {
-        task.setCancelled(this::isCancelled);
+    private static boolean isCancellation(Throwable e) {
+        return e instanceof CancellationException || e instanceof InterruptedException;
+    }
 
-        if (cancelled.get()) {
-            task.setState(Task.TaskState.FAILED);
-            task.setException(new CancellationException());
-            return false;
+    /**
+     * The lifecycle of one task, advanced by the thread finishing the previous step.
+     */
+    private final class Node implements Runnable {
+        private static final int PRE_EXECUTE = 0;
+        private static final int EXECUTE = 1;
+        private static final int POST_EXECUTE = 2;
+
+        private final Node parent;
+        private final Task<?> task;
+
+        private int step;
+        private boolean runningDependencies;
+        private Exception dependenciesException;
+        private Thread runner;
+
+        /**
+         * Subtasks of the running group not finished yet, and the failure among them to report.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<Throwable> subtaskFailure = new AtomicReference<>();
+
+        Node(Node parent, Task<?> task) {
+            this.parent = parent;
+            this.task = task;
         }
 
-        task.setState(Task.TaskState.READY);
-        if (parentTask != null && task.getStage() == null)
-            task.setStage(parentTask.getStage());
+        void start() {
+            try {
+                task.setCancelled(CancellableTaskExecutor.this::isCancelled);
+                task.setPropertiesListener(properties -> updateStageProperties(task.getStage(), properties));
 
-        if (task.getSignificance().shouldLog())
-            Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
+                if (cancelled.get())
+                    throw new CancellationException();
 
-        taskListeners.forEach(it -> it.onReady(task));
+                task.setState(Task.TaskState.READY);
+                if (parent != null && task.getStage() == null)
+                    task.setStage(parent.task.getStage());
 
-        boolean flag = false;
+                if (task.getSignificance().shouldLog())
+                    Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
 
-        try {
-            if (task.doPreExecute()) {
-                try {
-                    Schedulers.schedule(task.getExecutor(), wrap(task::preExecute)).get();
-                } catch (ExecutionException e) {
-                    rethrow(e);
-                }
-            }
+                taskListeners.forEach(it -> it.onReady(task));
 
-            Collection<? extends Task<?>> dependents = task.getDependents();
-            boolean doDependentsSucceeded = executeTasks(task, dependents);
-            Exception dependentsException = dependents.stream().map(Task::getException)
-                    .filter(Objects::nonNull)
-                    .filter(x -> !(x instanceof CancellationException))
-                    .filter(x -> !(x instanceof InterruptedException))
-                    .findAny().orElse(null);
-            if (!doDependentsSucceeded && task.isRelyingOnDependents() || cancelled.get()) {
-                task.setException(dependentsException);
-                throw new ExecutionException(dependentsException);
+                if (task.doPreExecute())
+                    submit(PRE_EXECUTE);
+                else
+                    runSubtasks(task.getDependents(), false);
+            } catch (Throwable e) {
+                fail(e);
             }
+        }
 
-            if (doDependentsSucceeded)
-                task.setDependentsSucceeded();
+        private void submit(int step) {
+            if (cancelled.get())
+                throw new CancellationException();
+
+            this.step = step;
+            Executor executor = task.getExecutor();
+            // Virtual threads are cheap enough to take one for every task.
+            if (executor == Schedulers.defaultScheduler() && !Schedulers.isVirtualThreads())
+                executor = Schedulers.workStealing();
+            executor.execute(new PrioritizedRunnable(this, getPriority()));
+        }
 
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String oldName = thread.getName();
+            synchronized (this) {
+                runner = thread;
+            }
+            running.add(this);
             try {
-                Schedulers.schedule(task.getExecutor(), wrap(() -> {
-                    task.setState(Task.TaskState.RUNNING);
-                    taskListeners.forEach(it -> it.onRunning(task));
-                    task.execute();
-                })).get();
-            } catch (ExecutionException e) {
-                rethrow(e);
+                if (cancelled.get())
+                    throw new CancellationException();
+
+                switch (step) {
+                    case PRE_EXECUTE:
+                        task.preExecute();
+                        runSubtasks(task.getDependents(), false);
+                        break;
+                    case EXECUTE:
+                        if (task.getName() != null)
+                            thread.setName(task.getName());
+                        try {
+                            task.setState(Task.TaskState.RUNNING);
+                            taskListeners.forEach(it -> it.onRunning(task));
+                            task.execute();
+                        } finally {
+                            task.setState(Task.TaskState.EXECUTED);
+                            thread.setName(oldName);
+                        }
+                        taskListeners.forEach(it -> it.onExecuted(task));
+
+                        if (task.properties != null) {
+                            updateStageProperties(task.getStage(), task.properties);
+                        }
+                        runSubtasks(task.getDependencies(), true);
+                        break;
+                    case POST_EXECUTE:
+                        task.postExecute();
+                        finish();
+                        break;
+                    default:
+                        throw new AssertionError();
+                }
+            } catch (Throwable e) {
+                fail(e);
             } finally {
-                task.setState(Task.TaskState.EXECUTED);
+                running.remove(this);
+                synchronized (this) {
+                    runner = null;
+                    // Interrupted for cancelling this task, the thread goes on with other work.
+                    Thread.interrupted();
+                }
             }
+        }
 
-            if (task.properties != null) {
-                updateStageProperties(task.getStage(), task.properties);
+        synchronized void interrupt() {
+            if (runner != null)
+                runner.interrupt();
+        }
+
+        private void runSubtasks(Collection<Task<?>> tasks, boolean dependencies) throws Exception {
+            runningDependencies = dependencies;
+            if (tasks == null || tasks.isEmpty()) {
+                onSubtasksDone(null);
+                return;
             }
 
-            Collection<? extends Task<?>> dependencies = task.getDependencies();
-            boolean doDependenciesSucceeded = executeTasks(task, dependencies);
-            Exception dependenciesException = dependencies.stream().map(Task::getException)
-                    .filter(Objects::nonNull)
-                    .filter(x -> !(x instanceof CancellationException))
-                    .filter(x -> !(x instanceof InterruptedException))
-                    .findAny().orElse(null);
+            subtaskFailure.set(null);
+            pending.set(tasks.size());
+            totTask.addAndGet(tasks.size());
+            for (Task<?> subtask : tasks)
+                new Node(this, subtask).start();
+        }
 
-            if (doDependenciesSucceeded)
-                task.setDependenciesSucceeded();
+        void onSubtaskDone(Throwable failure) {
+            if (failure != null) {
+                // A real failure is more useful than the cancellation of other subtasks following it.
+                subtaskFailure.accumulateAndGet(failure, (previous, current) ->
+                        previous == null || isCancellation(previous) && !isCancellation(current) ? current : previous);
+            }
+            if (pending.decrementAndGet() != 0)
+                return;
 
-            if (task.doPostExecute()) {
-                try {
-                    Schedulers.schedule(task.getExecutor(), wrap(task::postExecute)).get();
-                } catch (ExecutionException e) {
-                    rethrow(e);
+            Throwable first = subtaskFailure.get();
+            if (first != null && !(first instanceof Exception)) {
+                fail(first);
+                return;
+            }
+
+            try {
+                onSubtasksDone((Exception) first);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void onSubtasksDone(Exception exception) throws Exception {
+            if (cancelled.get())
+                throw exception != null && isCancellation(exception) ? exception : new CancellationException();
+
+            if (!runningDependencies) {
+                if (exception != null && task.isRelyingOnDependents()) {
+                    task.setException(exception);
+                    throw exception;
                 }
+
+                if (exception == null)
+                    task.setDependentsSucceeded();
+
+                submit(EXECUTE);
+            } else {
+                if (exception == null)
+                    task.setDependenciesSucceeded();
+
+                dependenciesException = exception;
+                if (task.doPostExecute())
+                    submit(POST_EXECUTE);
+                else
+                    finish();
             }
+        }
 
-            if (!doDependenciesSucceeded && task.isRelyingOnDependencies()) {
+        private void finish() throws Exception {
+            if (dependenciesException != null && task.isRelyingOnDependencies()) {
                 Logging.LOG.severe("Subtasks failed for " + task.getName());
                 task.setException(dependenciesException);
-                throw new ExecutionException(dependenciesException);
+                throw dependenciesException;
             }
 
-            flag = true;
             if (task.getSignificance().shouldLog()) {
                 Logging.LOG.log(Level.FINER, "Task finished: " + task.getName());
             }
@@ -194,36 +293,49 @@ public class CancellableTaskExecutor extends TaskExecutor {
                 updateStageProperties(task.getStage(), task.properties);
             }
 
-            task.onDone().fireEvent(new TaskEvent(this, task, false));
+            task.onDone().fireEvent(new TaskEvent(CancellableTaskExecutor.this, task, false));
             taskListeners.forEach(it -> it.onFinished(task));
-        } catch (RejectedExecutionException e) {
-            Logging.LOG.log(Level.SEVERE, "Task rejected: " + task.getName(), e);
-        } catch (Exception throwable) {
+
+            task.setState(Task.TaskState.SUCCEEDED);
+            done(null);
+        }
+
+        private void fail(Throwable throwable) {
             Throwable resolved = resolveException(throwable);
-            if (resolved instanceof Exception) {
+            if (resolved == null)
+                resolved = throwable;
+            if (resolved instanceof RejectedExecutionException) {
+                Logging.LOG.log(Level.SEVERE, "Task rejected: " + task.getName(), resolved);
+            } else if (resolved instanceof Exception) {
                 Exception e = (Exception) resolved;
-                if (e instanceof InterruptedException || e instanceof CancellationException) {
-                    task.setException(e);
+                task.setException(e);
+                if (isCancellation(e)) {
                     if (task.getSignificance().shouldLog()) {
                         Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
                     }
-                    task.onDone().fireEvent(new TaskEvent(this, task, true));
-                    taskListeners.forEach(it -> it.onFailed(task, e));
                 } else {
-                    task.setException(e);
                     exception = e;
                     if (task.getSignificance().shouldLog()) {
                         Logging.LOG.log(Level.FINE, "Task failed: " + task.getName(), e);
                     }
-                    task.onDone().fireEvent(new TaskEvent(this, task, true));
+                }
+                try {
+                    task.onDone().fireEvent(new TaskEvent(CancellableTaskExecutor.this, task, true));
                     taskListeners.forEach(it -> it.onFailed(task, e));
+                } catch (Throwable listenerFailure) {
+                    Lang.handleUncaughtException(listenerFailure);
                 }
-            } else if (resolved instanceof Error) {
-                throw (Error) resolved;
             }
+            task.setState(Task.TaskState.FAILED);
+            done(resolved);
+        }
+
+        private void done(Throwable failure) {
+            if (parent != null)
+                parent.onSubtaskDone(failure);
+            else
+                onStop(failure);
         }
-        task.setState(flag ? Task.TaskState.SUCCEEDED : Task.TaskState.FAILED);
-        return flag;
     }
 
     private static Throwable resolveException(Throwable e) {
@@ -232,56 +344,4 @@ public class CancellableTaskExecutor extends TaskExecutor {
         else
             return e;
     }
-
-    private static void rethrow(Throwable e) {
-        if (e == null)
-            return;
-        if (e instanceof ExecutionException || e instanceof CompletionException) { // including UncheckedException and UncheckedThrowable
-            rethrow(e.getCause());
-        } else if (e instanceof RuntimeException) {
-            throw (RuntimeException) e;
-        } else {
-            throw new CompletionException(e);
-        }
-    }
-
-    private static Runnable wrap(ExceptionalRunnable<?> runnable) {
-        return () -> {
-            try {
-                runnable.run();
-            } catch (Exception e) {
-                rethrow(e);
-            }
-        };
-    }
-
-    private class Invoker implements Runnable {
-
-        private final Task<?> parentTask;
-        private final Task<?> task;
-        private final CountDownLatch latch;
-        private final AtomicBoolean success;
-
-        public Invoker(Task<?> parentTask, Task<?> task, CountDownLatch latch, AtomicBoolean success) {
-            this.parentTask = parentTask;
-            this.task = task;
-            this.latch = latch;
-            this.success = success;
-        }
-
-        @Override
-        public void run() {
-            String oldName = Thread.currentThread().getName();
-            try {
-                if (task.getName() != null)
-                    Thread.currentThread().setName(task.getName());
-                if (!executeTask(parentTask, task))
-                    success.set(false);
-            } finally {
-                Thread.currentThread().setName(oldName);
-                latch.countDown();
-            }
-        }
-
-    }
 }
@@ -0,0 +1,343 @@
+package ru.spark.slauncher.task;
+
+import com.google.gson.JsonParseException;
+import ru.spark.slauncher.util.Lang;
+import ru.spark.slauncher.util.Logging;
+
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * Runs tasks like {@link AsyncTaskExecutor}, but drives every task by a single state machine object instead of
+ * a chain of {@link CompletableFuture} stages.
+ * <p>
+ * Each step of the lifecycle of a task (pre-execution, dependents, execution, dependencies, post-execution)
+ * is submitted to {@link Task#getExecutor()} directly, and bookkeeping between steps runs on the thread
+ * finishing the previous step, so a task costs one object and at most three submissions.
+ * Created by {@link Task#directExecutor()}, {@link Task#executor()} still creates {@link AsyncTaskExecutor}.
+ *
+ * @author spark1337
+ */
+public final class DirectTaskExecutor extends TaskExecutor {
+
+    private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private volatile boolean started;
+
+    public DirectTaskExecutor(Task<?> task) {
+        super(task);
+    }
+
+    @Override
+    public TaskExecutor start() {
+        started = true;
+        taskListeners.forEach(TaskListener::onStart);
+        Node root = new Node(null, firstTask);
+        totTask.incrementAndGet();
+        root.start();
+        return this;
+    }
+
+    @Override
+    public boolean test() {
+        start();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignore) {
+            // We have dealt with ExecutionException in exception handling and uncaught exception handler.
+        } catch (CancellationException e) {
+            Logging.LOG.log(Level.INFO, "Task " + firstTask + " has been cancelled.", e);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void cancel() {
+        if (!started) {
+            throw new IllegalStateException("Cannot cancel a not started TaskExecutor");
+        }
+
+        cancelled.set(true);
+        future.cancel(true);
+    }
+
+    private void onStop(Throwable throwable) {
+        if (throwable != null && !(throwable instanceof Exception)) {
+            // Errors are not handled by tasks, like AsyncTaskExecutor does.
+            Lang.handleUncaughtException(throwable);
+            future.complete(false);
+            return;
+        }
+
+        boolean success = throwable == null;
+        if (!success) {
+            // We log exception stacktrace because some of exceptions occurred because of bugs.
+            Logging.LOG.log(Level.WARNING, "An exception occurred in task execution", throwable);
+
+            if (throwable instanceof RuntimeException &&
+                    !(throwable instanceof CancellationException) &&
+                    !(throwable instanceof JsonParseException) &&
+                    !(throwable instanceof RejectedExecutionException)) {
+                // Track uncaught RuntimeException which are thrown mostly by our mistake
+                if (uncaughtExceptionHandler != null)
+                    uncaughtExceptionHandler.uncaughtException(Thread.currentThread(), throwable);
+            }
+        }
+
+        try {
+            taskListeners.forEach(it -> it.onStop(success, this));
+        } catch (Throwable e) {
+            Lang.handleUncaughtException(e);
+        }
+        future.complete(success);
+    }
+
+    /**
+     * The lifecycle of one task, advanced by the thread finishing the previous step.
+     */
+    private final class Node implements Runnable {
+        private static final int PRE_EXECUTE = 0;
+        private static final int EXECUTE = 1;
+        private static final int POST_EXECUTE = 2;
+
+        private final Node parent;
+        private final Task<?> task;
+
+        /**
+         * The step {@link #run()} performs on the executor of the task.
+         */
+        private int step;
+        private boolean runningDependencies;
+        private Exception dependenciesException;
+
+        /**
+         * Subtasks of the running group not finished yet, and the first failure among them.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<Throwable> subtaskFailure = new AtomicReference<>();
+
+        Node(Node parent, Task<?> task) {
+            this.parent = parent;
+            this.task = task;
+        }
+
+        void start() {
+            try {
+                task.setCancelled(DirectTaskExecutor.this::isCancelled);
+                task.setState(Task.TaskState.READY);
+                if (parent != null && task.getStage() == null)
+                    task.setStage(parent.task.getStage());
+
+                if (task.getSignificance().shouldLog())
+                    Logging.LOG.log(Level.FINE, "Executing task: " + task.getName());
+
+                taskListeners.forEach(it -> it.onReady(task));
+
+                if (task.doPreExecute())
+                    submit(PRE_EXECUTE);
+                else
+                    runSubtasks(task.getDependents(), false);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void submit(int step) {
+            if (isCancelled()) {
+                abort();
+                return;
+            }
+            this.step = step;
+            task.getExecutor().execute(new PrioritizedRunnable(this, getPriority()));
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (step) {
+                    case PRE_EXECUTE:
+                        task.preExecute();
+                        runSubtasks(task.getDependents(), false);
+                        break;
+                    case EXECUTE:
+                        try {
+                            task.setState(Task.TaskState.RUNNING);
+                            taskListeners.forEach(it -> it.onRunning(task));
+                            task.execute();
+                        } finally {
+                            task.setState(Task.TaskState.EXECUTED);
+                        }
+                        taskListeners.forEach(it -> it.onExecuted(task));
+                        runSubtasks(task.getDependencies(), true);
+                        break;
+                    case POST_EXECUTE:
+                        task.postExecute();
+                        finish();
+                        break;
+                    default:
+                        throw new AssertionError();
+                }
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void runSubtasks(Collection<Task<?>> tasks, boolean dependencies) throws Exception {
+            runningDependencies = dependencies;
+            if (tasks == null || tasks.isEmpty()) {
+                onSubtasksDone(null);
+                return;
+            }
+
+            if (isCancelled()) {
+                abort();
+                return;
+            }
+
+            subtaskFailure.set(null);
+            pending.set(tasks.size());
+            totTask.addAndGet(tasks.size());
+            for (Task<?> subtask : tasks)
+                new Node(this, subtask).start();
+        }
+
+        /**
+         * Called by a subtask of the running group when it finishes.
+         *
+         * @param failure the exception the subtask failed with, null if succeeded.
+         */
+        void onSubtaskDone(Throwable failure) {
+            if (failure != null)
+                subtaskFailure.compareAndSet(null, failure);
+            if (pending.decrementAndGet() != 0)
+                return;
+
+            Throwable first = subtaskFailure.get();
+            if (first != null && !(first instanceof Exception)) {
+                // If an error occurred, we just rethrow it.
+                fail(first);
+                return;
+            }
+
+            if (isCancelled()) {
+                abort();
+                return;
+            }
+
+            try {
+                onSubtasksDone((Exception) first);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void onSubtasksDone(Exception exception) throws Exception {
+            if (!runningDependencies) {
+                if (exception != null && task.isRelyingOnDependents()) {
+                    task.setException(exception);
+                    throw exception;
+                }
+
+                if (exception == null)
+                    task.setDependentsSucceeded();
+
+                submit(EXECUTE);
+            } else {
+                if (exception == null)
+                    task.setDependenciesSucceeded();
+
+                dependenciesException = exception;
+                if (task.doPostExecute())
+                    submit(POST_EXECUTE);
+                else
+                    finish();
+            }
+        }
+
+        private void finish() throws Exception {
+            if (dependenciesException != null && task.isRelyingOnDependencies()) {
+                Logging.LOG.severe("Subtasks failed for " + task.getName());
+                task.setException(dependenciesException);
+                throw dependenciesException;
+            }
+
+            if (task.getSignificance().shouldLog()) {
+                Logging.LOG.log(Level.FINER, "Task finished: " + task.getName());
+            }
+
+            task.onDone().fireEvent(new TaskEvent(DirectTaskExecutor.this, task, false));
+            taskListeners.forEach(it -> it.onFinished(task));
+
+            task.setState(Task.TaskState.SUCCEEDED);
+            done(null);
+        }
+
+        private void fail(Throwable throwable) {
+            Throwable resolved = resolveException(throwable);
+            if (resolved instanceof Exception) {
+                Exception e = (Exception) resolved;
+                task.setException(e);
+                if (e instanceof InterruptedException || e instanceof CancellationException) {
+                    if (task.getSignificance().shouldLog())
+                        Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
+                } else {
+                    exception = e;
+                    if (task.getSignificance().shouldLog())
+                        Logging.LOG.log(Level.FINE, "Task failed: " + task.getName(), e);
+                }
+                try {
+                    task.onDone().fireEvent(new TaskEvent(DirectTaskExecutor.this, task, true));
+                    taskListeners.forEach(it -> it.onFailed(task, e));
+                } catch (Throwable listenerFailure) {
+                    Lang.handleUncaughtException(listenerFailure);
+                }
+
+                task.setState(Task.TaskState.FAILED);
+            }
+            done(resolved);
+        }
+
+        /**
+         * Stops the task as the execution has been cancelled. No exception is recorded, but its parent and at last
+         * {@link TaskListener#onStop(boolean, TaskExecutor)} are told, like the task threw {@link CancellationException}.
+         */
+        private void abort() {
+            CancellationException e = new CancellationException();
+            if (task.getSignificance().shouldLog())
+                Logging.LOG.log(Level.FINE, "Task aborted: " + task.getName());
+            try {
+                task.onDone().fireEvent(new TaskEvent(DirectTaskExecutor.this, task, true));
+                taskListeners.forEach(it -> it.onFailed(task, e));
+            } catch (Throwable listenerFailure) {
+                Lang.handleUncaughtException(listenerFailure);
+            }
+
+            task.setState(Task.TaskState.FAILED);
+            done(e);
+        }
+
+        private void done(Throwable failure) {
+            if (parent != null)
+                parent.onSubtaskDone(failure);
+            else
+                onStop(failure);
+        }
+    }
+
+    private static Throwable resolveException(Throwable e) {
+        if (e instanceof ExecutionException || e instanceof CompletionException)
+            return resolveException(e.getCause());
+        else
+            return e;
+    }
+
+    private static Thread.UncaughtExceptionHandler uncaughtExceptionHandler = null;
+
+    public static void setUncaughtExceptionHandler(Thread.UncaughtExceptionHandler uncaughtExceptionHandler) {
+        DirectTaskExecutor.uncaughtExceptionHandler = uncaughtExceptionHandler;
+    }
+}
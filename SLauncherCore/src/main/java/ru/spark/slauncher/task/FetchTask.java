@@ -9,18 +9,29 @@ import ru.spark.slauncher.util.io.IOUtils;
 import ru.spark.slauncher.util.io.NetworkUtils;
 import ru.spark.slauncher.util.io.ResponseCodeException;
 
+import javax.net.ssl.SSLException;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.UnknownHostException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
 public abstract class FetchTask<T> extends Task<T> {
@@ -28,6 +39,7 @@ public abstract class FetchTask<T> extends Task<T> {
     protected final int retry;
     protected boolean caching;
     protected CacheRepository repository = CacheRepository.getInstance();
+    private long expectedSize = -1;
 
     public FetchTask(List<URL> urls, int retry) {
         if (urls == null || urls.isEmpty())
@@ -36,7 +48,8 @@ public abstract class FetchTask<T> extends Task<T> {
         this.urls = new ArrayList<>(urls);
         this.retry = retry;
 
-        setExecutor(Schedulers.io());
+        // The task is admitted by the host it connects first before taking a thread from Schedulers.io().
+        setExecutor(HostConcurrencyLimiter.getInstance().getExecutor(this.urls.get(0)));
     }
 
     public void setCaching(boolean caching) {
@@ -47,9 +60,34 @@ public abstract class FetchTask<T> extends Task<T> {
         this.repository = repository;
     }
 
+    /**
+     * Tells the size of the content if known in advance, small contents may be raced between two mirrors.
+     *
+     * @param expectedSize the size in bytes, -1 if unknown.
+     */
+    public void setExpectedSize(long expectedSize) {
+        this.expectedSize = expectedSize;
+    }
+
     protected void beforeDownload(URL url) throws IOException {
     }
 
+    /**
+     * Called before connecting, subclasses may add request properties here,
+     * e.g. a range request continuing a partial download.
+     *
+     * @param conn the connection not connected yet.
+     */
+    protected void prepareConnection(URLConnection conn) throws IOException {
+    }
+
+    /**
+     * Called when the server rejects the range requested in {@link #prepareConnection(URLConnection)},
+     * the partial download should be dropped and the next attempt will download the whole content.
+     */
+    protected void onRangeNotSatisfiable() throws IOException {
+    }
+
     protected abstract void useCachedResult(Path cachedFile) throws IOException;
 
     protected abstract EnumCheckETag shouldCheckETag();
@@ -58,8 +96,6 @@ public abstract class FetchTask<T> extends Task<T> {
 
     @Override
     public void execute() throws Exception {
-        Exception exception = null;
-        URL failedURL = null;
         boolean checkETag;
         switch (shouldCheckETag()) {
             case CHECK_E_TAG:
@@ -72,25 +108,87 @@ public abstract class FetchTask<T> extends Task<T> {
                 return;
         }
 
+        HostConcurrencyLimiter limiter = HostConcurrencyLimiter.getInstance();
+        // Tasks run by other executors than the limiter take a permit when connecting, and give it back when done.
+        boolean admitted = limiter.holdsPermit();
+        try {
+            fetch(checkETag);
+        } finally {
+            if (!admitted)
+                limiter.release();
+        }
+    }
+
+    private void fetch(boolean checkETag) throws Exception {
+        Exception exception = null;
+        URL failedURL = null;
+        HostConcurrencyLimiter limiter = HostConcurrencyLimiter.getInstance();
+        List<URL> candidates = MirrorScoreboard.getInstance().sort(urls);
+        Contender raced = null;
+        if (mirrorRacing && expectedSize >= 0 && expectedSize <= RACE_MAX_SIZE) {
+            // Only a mirror never scored is raced against the best one, to give it a chance to show its speed.
+            URL second = candidates.stream()
+                    .filter(url -> !MirrorScoreboard.isSameMirror(url, candidates.get(0)))
+                    .filter(url -> MirrorScoreboard.getInstance().getCost(url) == Double.MAX_VALUE)
+                    .findFirst()
+                    .orElse(null);
+            limiter.acquire(candidates.get(0));
+            // Racing is skipped rather than waiting when the host of the opponent is busy.
+            if (second != null && limiter.tryAcquire(second)) {
+                boolean secondWon = false;
+                try {
+                    raced = race(candidates.get(0), second, checkETag);
+                    secondWon = raced != null && raced.url == second;
+                    if (secondWon) {
+                        candidates.remove(second);
+                        candidates.add(0, second);
+                        limiter.transfer(second);
+                    }
+                } finally {
+                    if (!secondWon)
+                        limiter.release(second);
+                }
+            }
+        }
+
         int repeat = 0;
+        boolean segmentable = true;
         download:
-        for (URL url : urls) {
+        for (URL url : candidates) {
             for (int retryTime = 0; retryTime < retry; retryTime++) {
                 if (isCancelled()) {
                     break download;
                 }
 
                 try {
+                    limiter.acquire(url);
                     beforeDownload(url);
 
                     updateProgress(0);
 
-                    URLConnection conn = NetworkUtils.createConnection(url);
-                    if (checkETag) repository.injectConnection(conn);
+                    long connectTime;
+                    URLConnection conn;
+                    boolean rangeRequested;
+                    if (raced != null) {
+                        // The first attempt continues with the connection that won the race.
+                        connectTime = raced.startTime;
+                        conn = raced.resolved;
+                        rangeRequested = raced.rangeRequested;
+                        raced = null;
+                    } else {
+                        connectTime = System.nanoTime();
+                        conn = NetworkUtils.createConnection(url);
+                        if (checkETag) repository.injectConnection(conn);
+                        prepareConnection(conn);
+                        rangeRequested = conn.getRequestProperty("Range") != null;
+                        if (conn instanceof HttpURLConnection)
+                            conn = NetworkUtils.resolveConnection((HttpURLConnection) conn);
+                    }
 
                     if (conn instanceof HttpURLConnection) {
-                        conn = NetworkUtils.resolveConnection((HttpURLConnection) conn);
                         int responseCode = ((HttpURLConnection) conn).getResponseCode();
+                        limiter.onResponse(url, responseCode, System.nanoTime() - connectTime);
+                        MirrorScoreboard.getInstance().onResponse(url, responseCode, System.nanoTime() - connectTime);
 
                         if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
                             // Handle cache
@@ -106,48 +204,54 @@ public abstract class FetchTask<T> extends Task<T> {
                                 retryTime--;
                                 continue;
                             }
-                        } else if (responseCode / 100 == 4) {
+                        } else if (responseCode == 416 && rangeRequested) {
+                            // The partial content does not match the remote file any more, download it again.
+                            onRangeNotSatisfiable();
+                            retryTime--;
+                            continue;
+                        } else if (responseCode / 100 == 4 && responseCode != 429) {
                             break; // we will not try this URL again
+                        } else if (responseCode == 429 || responseCode == 503) {
+                            // The server is overloaded, give it some time before retrying, without keeping the permit.
+                            limiter.backOff(getRetryDelay(conn, retryTime));
+                            throw new ResponseCodeException(url, responseCode);
                         } else if (responseCode / 100 != 2) {
                             throw new ResponseCodeException(url, responseCode);
                         }
                     }
 
-                    long contentLength = conn.getContentLength();
-                    try (Context context = getContext(conn, checkETag); InputStream stream = conn.getInputStream()) {
-                        int lastDownloaded = 0, downloaded = 0;
-                        byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
-                        while (true) {
-                            if (isCancelled()) break;
-
-                            int len = stream.read(buffer);
-                            if (len == -1) break;
-
-                            context.write(buffer, 0, len);
-
-                            downloaded += len;
-
-                            if (contentLength >= 0) {
-                                // Update progress information per second
-                                updateProgress(downloaded, contentLength);
+                    long contentLength = conn.getContentLengthLong();
+                    long transferTime = System.nanoTime();
+                    long transferred;
+                    try (Context context = getContext(conn, checkETag)) {
+                        int segments = segmentable && context.supportsPositionalWrite() && isRangeSupported(conn) ? getSegmentCount(contentLength) : 1;
+                        if (segments > 1) {
+                            context.allocate(contentLength);
+                            try {
+                                downloadSegments(url, conn, context, contentLength, segments);
+                                transferred = contentLength;
+                            } catch (IOException e) {
+                                // Some mirrors advertise ranges but fail to serve them, use a single stream from now on.
+                                segmentable = false;
+                                throw e;
                             }
-
-                            updateDownloadSpeed(downloaded - lastDownloaded);
-                            lastDownloaded = downloaded;
+                        } else {
+                            transferred = download(conn, context, contentLength);
                         }
 
-                        updateDownloadSpeed(downloaded - lastDownloaded);
-
-                        if (contentLength >= 0 && downloaded != contentLength)
-                            throw new IOException("Unexpected file size: " + downloaded + ", expected: " + contentLength);
-
                         if (isCancelled()) break download;
 
                         context.withResult(true);
                     }
+                    limiter.onTransferred(url, transferred, System.nanoTime() - transferTime);
+                    MirrorScoreboard.getInstance().onTransferred(url, transferred, System.nanoTime() - transferTime);
 
                     return;
                 } catch (IOException ex) {
+                    limiter.onFailed(url, ex);
+                    // HTTP errors have been scored by the response, failures in writing or verifying the file are not the mirror's fault.
+                    if (isNetworkFailure(ex))
+                        MirrorScoreboard.getInstance().onFailed(url);
                     failedURL = url;
                     exception = ex;
                     Logging.LOG.log(Level.WARNING, "Failed to download " + url + ", repeat times: " + (++repeat), ex);
@@ -159,21 +263,327 @@ public abstract class FetchTask<T> extends Task<T> {
             throw new DownloadException(failedURL, exception);
     }
 
-    private static final Timer timer = new Timer("DownloadSpeedRecorder", true);
-    private static final AtomicInteger downloadSpeed = new AtomicInteger(0);
-    public static final EventBus speedEvent = new EventBus();
+    /**
+     * Connects to two mirrors at the same time, the one answering first is used and the other one is disconnected.
+     *
+     * @return the contender answered first, whose connection is resolved, null if neither of them answered successfully.
+     */
+    private Contender race(URL first, URL second, boolean checkETag) throws InterruptedException {
+        List<Contender> contenders = new ArrayList<>(2);
+        try {
+            // Subclasses may touch their files when preparing, so connections are prepared on this thread.
+            for (URL url : new URL[]{first, second}) {
+                URLConnection conn = NetworkUtils.createConnection(url);
+                if (!(conn instanceof HttpURLConnection))
+                    return null;
+                if (checkETag) repository.injectConnection(conn);
+                prepareConnection(conn);
+                contenders.add(new Contender(url, (HttpURLConnection) conn));
+            }
+        } catch (IOException e) {
+            Logging.LOG.log(Level.FINE, "Unable to race mirrors " + first + " and " + second, e);
+            return null;
+        }
+
+        BlockingQueue<Contender> answered = new ArrayBlockingQueue<>(contenders.size());
+        for (Contender contender : contenders) {
+            Runnable runnable = () -> {
+                try {
+                    contender.connect();
+                } finally {
+                    // Whatever happened, the race must not wait for this contender forever.
+                    answered.add(contender);
+                }
+            };
+            try {
+                Schedulers.newThread().execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
+
+        Contender winner = null;
+        try {
+            for (int i = 0; i < contenders.size() && winner == null; i++) {
+                Contender contender = answered.take();
+                if (contender.isUsable())
+                    winner = contender;
+            }
+        } finally {
+            for (Contender contender : contenders)
+                if (contender != winner)
+                    contender.abandon();
+        }
+
+        if (winner != null)
+            Logging.LOG.log(Level.FINER, "Mirror " + winner.url + " won the race for " + this);
+        return winner;
+    }
+
+    private static final class Contender {
+        final URL url;
+        final HttpURLConnection conn;
+        final boolean rangeRequested;
+        final long startTime = System.nanoTime();
+        volatile HttpURLConnection resolved;
+        volatile int responseCode = -1;
+        volatile long answerTime;
+        private boolean abandoned;
+        private boolean finished;
+
+        Contender(URL url, HttpURLConnection conn) {
+            this.url = url;
+            this.conn = conn;
+            this.rangeRequested = conn.getRequestProperty("Range") != null;
+        }
+
+        void connect() {
+            HttpURLConnection resolved = null;
+            try {
+                resolved = NetworkUtils.resolveConnection(conn);
+                responseCode = resolved.getResponseCode();
+            } catch (IOException | RuntimeException e) {
+                Logging.LOG.log(Level.FINE, "Mirror " + url + " failed in the race", e);
+            }
+            answerTime = System.nanoTime();
+
+            boolean abandoned;
+            synchronized (this) {
+                this.resolved = resolved;
+                this.finished = true;
+                abandoned = this.abandoned;
+            }
+
+            // The loser has been scored when abandoned, failures now may be caused by disconnecting it.
+            if (abandoned && resolved != null)
+                resolved.disconnect();
+        }
+
+        boolean isUsable() {
+            return resolved != null && (responseCode / 100 == 2 || responseCode == HttpURLConnection.HTTP_NOT_MODIFIED || responseCode == 416 && rangeRequested);
+        }
+
+        void abandon() {
+            boolean finished;
+            synchronized (this) {
+                abandoned = true;
+                finished = this.finished;
+            }
+
+            if (!finished) {
+                MirrorScoreboard.getInstance().onLost(url, System.nanoTime() - startTime);
+                conn.disconnect();
+            } else if (resolved != null) {
+                MirrorScoreboard.getInstance().onResponse(url, responseCode, answerTime - startTime);
+                resolved.disconnect();
+            } else {
+                MirrorScoreboard.getInstance().onFailed(url);
+            }
+        }
+    }
+
+    /**
+     * @return true if the failure is caused by the network or the mirror, rather than writing or verifying the file.
+     */
+    private static boolean isNetworkFailure(IOException e) {
+        return e instanceof SocketException || e instanceof SocketTimeoutException || e instanceof UnknownHostException
+                || e instanceof SSLException || e instanceof ProtocolException;
+    }
+
+    private static long getRetryDelay(URLConnection conn, int retryTime) {
+        long delay = 500L * (retryTime + 1);
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter != null) {
+            try {
+                delay = Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException ignored) {
+                // HTTP-date is not supported
+            }
+        }
+        return Math.min(Math.max(delay, 0), 10_000);
+    }
+
+    /**
+     * Decides how many concurrent range requests should be used to download a content of given length.
+     *
+     * @param contentLength the length of the content announced by the server.
+     * @return the count of segments, 1 if the content should be downloaded in a single stream.
+     */
+    protected int getSegmentCount(long contentLength) {
+        return 1;
+    }
+
+    private long download(URLConnection conn, Context context, long contentLength) throws IOException {
+        try (InputStream stream = conn.getInputStream()) {
+            long downloaded = 0;
+            byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+            while (true) {
+                if (isCancelled()) break;
+
+                int len = stream.read(buffer);
+                if (len == -1) break;
+
+                context.write(buffer, 0, len);
+
+                downloaded += len;
+
+                if (contentLength >= 0) {
+                    updateProgress(downloaded, contentLength);
+                }
 
-    static {
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                speedEvent.channel(SpeedEvent.class).fireEvent(new SpeedEvent(speedEvent, downloadSpeed.getAndSet(0)));
+                updateDownloadSpeed(len);
             }
-        }, 0, 1000);
+
+            if (contentLength >= 0 && downloaded != contentLength)
+                throw new ProtocolException("Unexpected file size: " + downloaded + ", expected: " + contentLength);
+
+            return downloaded;
+        }
     }
 
-    private static void updateDownloadSpeed(int speed) {
-        downloadSpeed.addAndGet(speed);
+    private static boolean isRangeSupported(URLConnection conn) throws IOException {
+        return conn instanceof HttpURLConnection
+                && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_OK
+                && conn.getContentLengthLong() > 0
+                && conn.getHeaderField("Content-Encoding") == null
+                && "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
+    }
+
+    /**
+     * Downloads the content in several byte ranges concurrently.
+     * <p>
+     * The first range is read from the probing connection {@code conn}, other ranges are queued and
+     * fetched by helpers admitted by the host of the candidate url. The calling thread also takes
+     * queued ranges, so the download finishes even if the host cannot offer any more permits.
+     */
+    private void downloadSegments(URL candidate, URLConnection conn, Context context, long contentLength, int segmentCount) throws IOException {
+        URL url = conn.getURL(); // redirects have already been resolved
+        String eTag = conn.getHeaderField("ETag");
+        long segmentSize = contentLength / segmentCount;
+
+        Queue<long[]> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 1; i < segmentCount; i++) {
+            long start = i * segmentSize;
+            long end = i == segmentCount - 1 ? contentLength : start + segmentSize;
+            pending.add(new long[]{start, end});
+        }
+
+        CountDownLatch latch = new CountDownLatch(segmentCount - 1);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        AtomicLong downloaded = new AtomicLong();
+
+        Runnable worker = () -> {
+            long[] range;
+            while ((range = pending.poll()) != null) {
+                try {
+                    if (failure.get() == null)
+                        downloadSegment(url, eTag, context, range[0], range[1], downloaded, contentLength, failure);
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        };
+
+        for (int i = 1; i < segmentCount; i++) {
+            try {
+                HostConcurrencyLimiter.getInstance().getExecutor(candidate).execute(worker);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+
+        try (InputStream stream = conn.getInputStream()) {
+            copySegment(stream, context, 0, segmentSize, downloaded, contentLength, failure);
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            ((HttpURLConnection) conn).disconnect();
+        }
+
+        worker.run();
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + url);
+        }
+
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    private void downloadSegment(URL url, String eTag, Context context, long start, long end, AtomicLong downloaded, long contentLength, AtomicReference<IOException> failure) throws IOException {
+        HttpURLConnection conn = NetworkUtils.createHttpConnection(url);
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+        if (eTag != null)
+            conn.setRequestProperty("If-Range", eTag);
+        conn = NetworkUtils.resolveConnection(conn);
+
+        try {
+            int responseCode = conn.getResponseCode();
+            if (responseCode != 206)
+                throw new ResponseCodeException(url, responseCode);
+
+            String contentRange = conn.getHeaderField("Content-Range");
+            if (contentRange == null || !contentRange.startsWith("bytes " + start + "-"))
+                throw new ProtocolException("Unexpected content range " + contentRange + " of " + url + ", expected start " + start);
+
+            // The connection returns to the keep-alive pool once the stream is read to the end and closed.
+            try (InputStream stream = conn.getInputStream()) {
+                copySegment(stream, context, start, end, downloaded, contentLength, failure);
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private void copySegment(InputStream stream, Context context, long start, long end, AtomicLong downloaded, long contentLength, AtomicReference<IOException> failure) throws IOException {
+        byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+        long position = start;
+        while (position < end) {
+            if (isCancelled() || failure.get() != null) break;
+
+            int len = stream.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (len == -1) break;
+
+            context.write(position, buffer, 0, len);
+            position += len;
+
+            updateProgress(downloaded.addAndGet(len), contentLength);
+            updateDownloadSpeed(len);
+        }
+
+        if (position != end)
+            throw new ProtocolException("Unexpected segment size: " + (position - start) + ", expected: " + (end - start));
+    }
+
+    /**
+     * Contents not larger than this are raced between the first two mirrors.
+     */
+    private static final long RACE_MAX_SIZE = 512 * 1024;
+
+    private static volatile boolean mirrorRacing = false;
+
+    public static boolean isMirrorRacing() {
+        return mirrorRacing;
+    }
+
+    /**
+     * @param mirrorRacing true if small contents with known size should be requested from the best mirror and a mirror
+     *                     never scored at the same time.
+     */
+    public static void setMirrorRacing(boolean mirrorRacing) {
+        FetchTask.mirrorRacing = mirrorRacing;
+    }
+
+    public static final EventBus speedEvent = ProgressSampler.getEventBus();
+
+    private void updateDownloadSpeed(int speed) {
+        ProgressSampler.addBytes(getStage(), speed);
     }
 
     public static class SpeedEvent extends Event {
@@ -205,6 +615,32 @@ public abstract class FetchTask<T> extends Task<T> {
 
         public abstract void write(byte[] buffer, int offset, int len) throws IOException;
 
+        /**
+         * @return true if this context implements {@link #allocate(long)} and {@link #write(long, byte[], int, int)},
+         * contents are downloaded in segments only then.
+         */
+        public boolean supportsPositionalWrite() {
+            return false;
+        }
+
+        /**
+         * Prepares this context for out-of-order writes of a content with given length.
+         * Only invoked if {@link #supportsPositionalWrite()} is true.
+         *
+         * @param length the total length of the content.
+         */
+        public void allocate(long length) throws IOException {
+            throw new UnsupportedOperationException(getClass().getName() + " does not support positional writes");
+        }
+
+        /**
+         * Writes bytes at the given position. Only invoked after {@link #allocate(long)},
+         * and may be invoked from several threads concurrently.
+         */
+        public void write(long position, byte[] buffer, int offset, int len) throws IOException {
+            throw new UnsupportedOperationException(getClass().getName() + " does not support positional writes");
+        }
+
         public final void withResult(boolean success) {
             this.success = success;
         }
@@ -1,6 +1,10 @@
 package ru.spark.slauncher.task;
 
+import com.google.gson.JsonParseException;
+import ru.spark.slauncher.util.ChecksumJournal;
+import ru.spark.slauncher.util.DigestUtils;
 import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.gson.JsonUtils;
 import ru.spark.slauncher.util.io.ChecksumMismatchException;
 import ru.spark.slauncher.util.io.CompressingUtils;
 import ru.spark.slauncher.util.io.FileUtils;
@@ -10,13 +14,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import static java.util.Objects.requireNonNull;
@@ -69,6 +80,9 @@ public class FileDownloadTask extends FetchTask<Void> {
     private RandomAccessFile rFile;
     private InputStream stream;
     private final ArrayList<IntegrityCheckHandler> integrityCheckHandlers = new ArrayList<>();
+    private String requestedURL;
+    private Path partFile;
+    private boolean partClaimed;
 
     /**
      * @param url  the URL of remote file.
@@ -147,6 +161,31 @@ public class FileDownloadTask extends FetchTask<Void> {
         integrityCheckHandlers.add(Objects.requireNonNull(handler));
     }
 
+    @Override
+    protected int getSegmentCount(long contentLength) {
+        int count = segments;
+        long minSize = minSegmentSize;
+        if (count <= 1 || contentLength < 2 * minSize)
+            return 1;
+        return (int) Math.min(count, contentLength / minSize);
+    }
+
+    @Override
+    public void execute() throws Exception {
+        // Tasks downloading the same file at the same time, like assets sharing a hash, must not share the part file.
+        Path part = Paths.get(file.getAbsolutePath() + ".part");
+        partClaimed = CLAIMED_PARTS.add(part);
+        partFile = partClaimed ? part : Paths.get(file.getAbsolutePath() + "." + UUID.randomUUID() + ".part");
+        try {
+            super.execute();
+        } finally {
+            if (partClaimed)
+                CLAIMED_PARTS.remove(part);
+            else
+                deletePartial();
+        }
+    }
+
     @Override
     protected EnumCheckETag shouldCheckETag() {
         // Check cache
@@ -154,7 +193,7 @@ public class FileDownloadTask extends FetchTask<Void> {
             Optional<Path> cache = repository.checkExistentFile(candidate, integrityCheck.getAlgorithm(), integrityCheck.getChecksum());
             if (cache.isPresent()) {
                 try {
-                    FileUtils.copyFile(cache.get().toFile(), file);
+                    repository.placeCachedFile(cache.get(), file.toPath());
                     Logging.LOG.log(Level.FINER, "Successfully verified file " + file + " from " + urls.get(0));
                     return EnumCheckETag.CACHED;
                 } catch (IOException e) {
@@ -170,20 +209,86 @@ public class FileDownloadTask extends FetchTask<Void> {
     @Override
     protected void beforeDownload(URL url) {
         Logging.LOG.log(Level.FINER, "Downloading " + url + " to " + file);
+        requestedURL = url.toString();
     }
 
     @Override
     protected void useCachedResult(Path cache) throws IOException {
-        FileUtils.copyFile(cache.toFile(), file);
+        repository.placeCachedFile(cache, file.toPath());
+    }
+
+    @Override
+    protected void prepareConnection(URLConnection conn) throws IOException {
+        PartialState state = readPartialState();
+        long offset = Files.isRegularFile(getPartFile()) ? Files.size(getPartFile()) : 0;
+        if (state == null || offset <= 0) {
+            deletePartial();
+            return;
+        }
+
+        String validator = state.getValidator();
+        // Connections to several mirrors may be prepared for a race, so compare with the url of this one.
+        boolean sameURL = conn.getURL().toString().equals(state.url);
+        if (sameURL && validator != null) {
+            conn.setRequestProperty("If-Range", validator);
+        } else if (integrityCheck == null) {
+            // Without validator or checksum we cannot tell whether the partial content is still the same file.
+            deletePartial();
+            return;
+        }
+
+        conn.setRequestProperty("Range", "bytes=" + offset + "-");
+        Logging.LOG.log(Level.FINER, "Resuming download of " + file + " from " + offset + " bytes");
+    }
+
+    @Override
+    protected void onRangeNotSatisfiable() throws IOException {
+        deletePartial();
     }
 
     @Override
     protected Context getContext(URLConnection conn, boolean checkETag) throws IOException {
-        Path temp = Files.createTempFile(null, null);
+        Path temp = getPartFile();
+        Files.createDirectories(temp.getParent());
+
+        long offset = 0;
+        if (conn instanceof HttpURLConnection && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+            offset = parseContentRangeStart(conn.getHeaderField("Content-Range"));
+            if (offset != (Files.isRegularFile(temp) ? Files.size(temp) : 0)) {
+                deletePartial();
+                throw new IOException("Unexpected content range " + conn.getHeaderField("Content-Range") + " when resuming " + file);
+            }
+        }
+
+        long remaining = conn.getContentLengthLong();
+        boolean resumable = partClaimed && (remaining < 0 || offset + remaining >= RESUMABLE_MIN_SIZE);
+        PartialState state = new PartialState(requestedURL, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), null);
         RandomAccessFile rFile = new RandomAccessFile(temp.toFile(), "rw");
         MessageDigest digest = integrityCheck == null ? null : integrityCheck.createDigest();
+        try {
+            rFile.setLength(offset);
+            rFile.seek(offset);
+
+            // The checksum covers the whole file, so the bytes downloaded last time must be hashed again.
+            if (digest != null && offset > 0) {
+                try (InputStream is = Files.newInputStream(temp)) {
+                    DigestUtils.updateDigest(digest, is);
+                }
+            }
+
+            if (resumable)
+                writePartialState(state);
+        } catch (IOException e) {
+            rFile.close();
+            throw e;
+        }
+
+        long initialLength = offset;
 
         return new Context() {
+            private FileChannel channel;
+            private long length = initialLength;
+
             @Override
             public void write(byte[] buffer, int offset, int len) throws IOException {
                 if (digest != null) {
@@ -191,6 +296,26 @@ public class FileDownloadTask extends FetchTask<Void> {
                 }
 
                 rFile.write(buffer, offset, len);
+                length += len;
+            }
+
+            @Override
+            public boolean supportsPositionalWrite() {
+                return true;
+            }
+
+            @Override
+            public void allocate(long length) throws IOException {
+                rFile.setLength(length);
+                channel = rFile.getChannel();
+            }
+
+            @Override
+            public void write(long position, byte[] buffer, int offset, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(buffer, offset, len);
+                while (buf.hasRemaining()) {
+                    position += channel.write(buf, position);
+                }
             }
 
             @Override
@@ -202,31 +327,58 @@ public class FileDownloadTask extends FetchTask<Void> {
                 }
 
                 if (!isSuccess()) {
-                    try {
-                        Files.delete(temp);
-                    } catch (IOException e) {
-                        Logging.LOG.log(Level.WARNING, "Failed to delete file: " + rFile, e);
+                    if (!resumable || channel != null || length == 0) {
+                        // Segments are written out of order, there is no prefix to continue with.
+                        deletePartial();
+                    } else {
+                        try {
+                            writePartialState(state.withDownloaded(length));
+                        } catch (IOException e) {
+                            Logging.LOG.log(Level.WARNING, "Failed to save partial download state of " + file, e);
+                            deletePartial();
+                        }
                     }
                     return;
                 }
 
-                for (IntegrityCheckHandler handler : integrityCheckHandlers) {
-                    handler.checkIntegrity(temp, file.toPath());
-                }
+                try {
+                    // Segments arrive out of order, so the digest can only be computed once the file is complete.
+                    if (channel != null && digest != null) {
+                        try (InputStream is = Files.newInputStream(temp)) {
+                            DigestUtils.updateDigest(digest, is);
+                        }
+                    }
 
-                Files.deleteIfExists(file.toPath());
-                if (!FileUtils.makeDirectory(file.getAbsoluteFile().getParentFile()))
-                    throw new IOException("Unable to make parent directory " + file);
+                    for (IntegrityCheckHandler handler : integrityCheckHandlers) {
+                        handler.checkIntegrity(temp, file.toPath());
+                    }
 
-                try {
-                    FileUtils.moveFile(temp.toFile(), file);
-                } catch (Exception e) {
-                    throw new IOException("Unable to move temp file from " + temp + " to " + file, e);
+                    Files.deleteIfExists(file.toPath());
+                    if (!FileUtils.makeDirectory(file.getAbsoluteFile().getParentFile()))
+                        throw new IOException("Unable to make parent directory " + file);
+
+                    try {
+                        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (Exception e) {
+                        throw new IOException("Unable to move temp file from " + temp + " to " + file, e);
+                    }
+                } finally {
+                    deletePartial();
                 }
 
                 // Integrity check
                 if (integrityCheck != null) {
                     integrityCheck.performCheck(digest);
+
+                    // The file has just been verified, there is no need to hash it again before it changes.
+                    ChecksumJournal journal = repository.getChecksumJournal();
+                    if (journal != null) {
+                        try {
+                            journal.record(file.toPath(), integrityCheck.getAlgorithm(), integrityCheck.getChecksum());
+                        } catch (IOException e) {
+                            Logging.LOG.log(Level.FINE, "Unable to record checksum of " + file, e);
+                        }
+                    }
                 }
 
                 if (caching && integrityCheck != null) {
@@ -244,6 +396,154 @@ public class FileDownloadTask extends FetchTask<Void> {
         };
     }
 
+    /**
+     * The file being downloaded, kept next to the target so that it can be resumed after failures or restarts.
+     * A unique file is used instead if another task is downloading the same target.
+     */
+    private Path getPartFile() {
+        return partFile;
+    }
+
+    private Path getPartialStateFile() {
+        return partFile.resolveSibling(partFile.getFileName() + ".json");
+    }
+
+    private PartialState readPartialState() {
+        Path stateFile = getPartialStateFile();
+        if (!Files.isRegularFile(stateFile))
+            return null;
+
+        try {
+            PartialState state = JsonUtils.fromMaybeMalformedJson(FileUtils.readText(stateFile), PartialState.class);
+            if (state == null || state.url == null)
+                return null;
+
+            // The process may have been killed before recording the length, the checksum will reveal broken content.
+            Path part = getPartFile();
+            if (state.downloaded != null && Files.isRegularFile(part) && Files.size(part) > state.downloaded) {
+                try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                    channel.truncate(state.downloaded);
+                }
+            }
+            return state;
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read partial download state of " + file, e);
+            return null;
+        }
+    }
+
+    private void writePartialState(PartialState state) throws IOException {
+        FileUtils.writeText(getPartialStateFile().toFile(), JsonUtils.GSON.toJson(state));
+    }
+
+    private void deletePartial() {
+        try {
+            Files.deleteIfExists(getPartFile());
+            Files.deleteIfExists(getPartialStateFile());
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Failed to delete partial download of " + file, e);
+        }
+    }
+
+    private static long parseContentRangeStart(String contentRange) throws IOException {
+        // Content-Range: bytes <start>-<end>/<total>
+        if (contentRange == null || !contentRange.startsWith("bytes "))
+            throw new IOException("Malformed content range: " + contentRange);
+        try {
+            String range = contentRange.substring("bytes ".length());
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Malformed content range: " + contentRange, e);
+        }
+    }
+
+    /**
+     * The sidecar of a partial download, recording where the content comes from and how much of it is on disk.
+     */
+    private static final class PartialState {
+        private final String url;
+        private final String eTag;
+        private final String lastModified;
+        private final Long downloaded;
+
+        /**
+         * For Gson.
+         */
+        public PartialState() {
+            this(null, null, null, null);
+        }
+
+        public PartialState(String url, String eTag, String lastModified, Long downloaded) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.downloaded = downloaded;
+        }
+
+        public PartialState withDownloaded(long downloaded) {
+            return new PartialState(url, eTag, lastModified, downloaded);
+        }
+
+        /**
+         * @return the validator for If-Range, weak entity tags are not allowed there.
+         */
+        public String getValidator() {
+            if (eTag != null && !eTag.startsWith("W/"))
+                return eTag;
+            return lastModified;
+        }
+    }
+
+    /**
+     * The part files claimed by running tasks.
+     */
+    private static final Set<Path> CLAIMED_PARTS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Partial downloads of smaller files are dropped on failure, downloading them again costs less than the sidecar.
+     */
+    private static final long RESUMABLE_MIN_SIZE = 1024 * 1024;
+
+    private static volatile int segments = 1;
+    private static volatile long minSegmentSize = 4L * 1024 * 1024;
+
+    /**
+     * @return the max count of concurrent range requests used for downloading one file.
+     */
+    public static int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Sets the max count of concurrent range requests used for downloading one file.
+     * Files are downloaded in a single stream if segments is 1 or the server does not accept ranges.
+     *
+     * @param segments the max count of segments, at least 1.
+     */
+    public static void setSegments(int segments) {
+        if (segments < 1)
+            throw new IllegalArgumentException("Segments must be at least 1");
+        FileDownloadTask.segments = segments;
+    }
+
+    /**
+     * @return the min size in bytes of one segment.
+     */
+    public static long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    /**
+     * Sets the min size of one segment, files smaller than twice of this size are never segmented.
+     *
+     * @param minSegmentSize the min size in bytes of one segment.
+     */
+    public static void setMinSegmentSize(long minSegmentSize) {
+        if (minSegmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive");
+        FileDownloadTask.minSegmentSize = minSegmentSize;
+    }
+
     public interface IntegrityCheckHandler {
         /**
          * Check whether the file is corrupted or not.
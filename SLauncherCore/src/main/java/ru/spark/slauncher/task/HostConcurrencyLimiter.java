@@ -0,0 +1,501 @@
+package ru.spark.slauncher.task;
+
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.ToStringBuilder;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Limits how many downloads run against one host at the same time.
+ * <p>
+ * Tasks are admitted through {@link #getExecutor(URL)}, an executor queuing runnables per host by their priority
+ * and dispatching them to the underlying executor only when the host has a free permit, so tasks waiting for a slow
+ * host do not occupy threads needed by other hosts. An admitted runnable holds the permit of its host until it returns,
+ * but may give it back while it waits, see {@link #backOff(long)}, or trade it for a permit of another host when
+ * connecting there instead, see {@link #acquire(URL)}.
+ * <p>
+ * The limit of each host adapts like AIMD: it starts small and doubles per round trip (slow start) until the host
+ * shows congestion, then grows by one per round trip. It is halved at most once per round trip on 429/503 responses
+ * and timeouts, lowered when
+ * the latency grows far above the best observed one, and stepped back when a higher limit did not improve throughput.
+ *
+ * @author spark1337
+ */
+public final class HostConcurrencyLimiter {
+
+    private static final long MIN_DECREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long THROUGHPUT_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final ThreadLocal<Host> held = new ThreadLocal<>();
+    private final Supplier<? extends Executor> executor;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+
+    /**
+     * @param executor     supplies the executor running admitted tasks.
+     * @param initialLimit the limit of a host not seen before.
+     * @param minLimit     the limit never goes below.
+     * @param maxLimit     the limit never goes above.
+     */
+    public HostConcurrencyLimiter(Supplier<? extends Executor> executor, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit)
+            throw new IllegalArgumentException("Illegal limits: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        this.executor = executor;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    private Host getHost(String host) {
+        return hosts.computeIfAbsent(host, Host::new);
+    }
+
+    /**
+     * Returns the executor admitting runnables by the permits of the host of given url.
+     */
+    public Executor getExecutor(URL url) {
+        Host host = getHost(url.getHost());
+        return host::submit;
+    }
+
+    /**
+     * @return true if the current thread holds a permit, taken by {@link #acquire(URL)} or by being admitted.
+     */
+    public boolean holdsPermit() {
+        return held.get() != null;
+    }
+
+    /**
+     * Makes the current thread hold a permit of the host of given url before connecting to it, giving back the permit
+     * of another host it holds. Waits until the host has a free permit.
+     */
+    public void acquire(URL url) throws InterruptedException {
+        Host host = getHost(url.getHost());
+        Host current = held.get();
+        if (current == host)
+            return;
+
+        if (current != null) {
+            held.remove();
+            current.release();
+        }
+        host.acquire();
+        held.set(host);
+    }
+
+    /**
+     * Gives back the permit held by the current thread, taken by {@link #acquire(URL)}.
+     */
+    public void release() {
+        Host host = held.get();
+        if (host != null) {
+            held.remove();
+            host.release();
+        }
+    }
+
+    /**
+     * Takes a permit of the host of given url for a connection besides the one of the current thread, without waiting.
+     *
+     * @return true if taken, the permit must be given back by {@link #release(URL)} or {@link #transfer(URL)}.
+     */
+    public boolean tryAcquire(URL url) {
+        return getHost(url.getHost()).tryAcquire();
+    }
+
+    /**
+     * Gives back a permit taken by {@link #tryAcquire(URL)}.
+     */
+    public void release(URL url) {
+        getHost(url.getHost()).release();
+    }
+
+    /**
+     * Makes the permit taken by {@link #tryAcquire(URL)} the one held by the current thread, giving back the permit
+     * it holds.
+     */
+    public void transfer(URL url) {
+        Host host = getHost(url.getHost());
+        Host current = held.get();
+        held.set(host);
+        if (current != null)
+            current.release();
+    }
+
+    /**
+     * Gives back the permit held by the current thread while sleeping, so that other downloads from the host can run
+     * meanwhile, and takes a permit of the same host again before returning.
+     * Just sleeps if the current thread holds no permit.
+     *
+     * @param millis the time to sleep in milliseconds.
+     */
+    public void backOff(long millis) throws InterruptedException {
+        Host host = held.get();
+        if (host == null) {
+            Thread.sleep(millis);
+            return;
+        }
+
+        held.remove();
+        host.release();
+        Thread.sleep(millis);
+        host.acquire();
+        held.set(host);
+    }
+
+    /**
+     * Records the response of a request sent to the host of given url.
+     *
+     * @param url          the url requested.
+     * @param responseCode the response code.
+     * @param latency      time to the response in nanoseconds.
+     */
+    public void onResponse(URL url, int responseCode, long latency) {
+        getHost(url.getHost()).onResponse(responseCode, latency);
+    }
+
+    /**
+     * Records a response body read from the host of given url.
+     *
+     * @param url     the url requested.
+     * @param bytes   bytes read.
+     * @param elapsed time spent in reading in nanoseconds.
+     */
+    public void onTransferred(URL url, long bytes, long elapsed) {
+        getHost(url.getHost()).onTransferred(bytes, elapsed);
+    }
+
+    /**
+     * Records a request to the host of given url that failed with an I/O error.
+     */
+    public void onFailed(URL url, IOException exception) {
+        getHost(url.getHost()).onFailed(exception);
+    }
+
+    /**
+     * @return a snapshot of the state of all hosts seen, sorted by host name.
+     */
+    public Map<String, HostStats> getStats() {
+        Map<String, HostStats> stats = new TreeMap<>();
+        for (Host host : hosts.values())
+            stats.put(host.name, host.getStats());
+        return stats;
+    }
+
+    /**
+     * @return a snapshot of the state of the host of given url.
+     */
+    public HostStats getStats(URL url) {
+        return getHost(url.getHost()).getStats();
+    }
+
+    private final class Host {
+        private final String name;
+        private final Queue<PrioritizedRunnable> queue = new PriorityQueue<>();
+
+        private double limit = initialLimit;
+        private boolean slowStart = true;
+        private int active;
+        private int waiting;
+        private long lastDecrease;
+
+        private long completed;
+        private long throttled;
+        private long failures;
+        private long bytes;
+        private double latency = -1;
+        private double minLatency = Double.MAX_VALUE;
+
+        private long windowStart = System.nanoTime();
+        private long windowBytes;
+        private double throughput;
+        private double lastThroughput;
+        private double lastWindowLimit;
+
+        Host(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @throws RejectedExecutionException if the underlying executor rejected the runnable when dispatching it at once.
+         */
+        void submit(Runnable runnable) {
+            PrioritizedRunnable submitted = PrioritizedRunnable.of(runnable);
+            synchronized (this) {
+                queue.add(submitted);
+            }
+            dispatch(submitted);
+        }
+
+        private void dispatch() {
+            dispatch(null);
+        }
+
+        /**
+         * @param submitted the runnable submitted by the caller, whose rejection is thrown to the caller.
+         */
+        private void dispatch(PrioritizedRunnable submitted) {
+            while (true) {
+                PrioritizedRunnable runnable;
+                synchronized (this) {
+                    if (waiting > 0)
+                        notifyAll();
+                    // Threads waiting for a permit of this host go first, they are already holding a thread.
+                    if (active + waiting >= (int) limit || queue.isEmpty())
+                        return;
+                    runnable = queue.poll();
+                    active++;
+                }
+
+                try {
+                    executor.get().execute(new PrioritizedRunnable(() -> run(runnable), runnable.getPriority()));
+                } catch (RejectedExecutionException e) {
+                    if (runnable == submitted) {
+                        release();
+                        throw e;
+                    }
+
+                    // The submitter of a queued runnable has returned already, the runnable would never run otherwise.
+                    Logging.LOG.log(Level.WARNING, "Unable to dispatch download task for " + name + ", running it on the current thread", e);
+                    run(runnable);
+                }
+            }
+        }
+
+        /**
+         * Runs an admitted runnable, whose permit is released when it returns.
+         */
+        private void run(Runnable runnable) {
+            Host previous = held.get();
+            held.set(this);
+            try {
+                runnable.run();
+            } finally {
+                Host current = held.get();
+                if (previous == null)
+                    held.remove();
+                else
+                    held.set(previous);
+                if (current != null)
+                    current.release();
+            }
+        }
+
+        void acquire() throws InterruptedException {
+            synchronized (this) {
+                waiting++;
+                try {
+                    while (active >= (int) limit)
+                        wait();
+                } finally {
+                    waiting--;
+                }
+                active++;
+            }
+        }
+
+        synchronized boolean tryAcquire() {
+            if (active + waiting >= (int) limit)
+                return false;
+            active++;
+            return true;
+        }
+
+        void release() {
+            synchronized (this) {
+                active--;
+            }
+            dispatch();
+        }
+
+        void onResponse(int responseCode, long latencyNanos) {
+            synchronized (this) {
+                if (responseCode == 429 || responseCode == 503) {
+                    throttled++;
+                    decrease(0.5);
+                } else if (responseCode / 100 == 2 || responseCode == 304) {
+                    // Only successful responses tell the latency, errors are usually answered at once.
+                    double millis = latencyNanos / 1e6;
+                    latency = latency < 0 ? millis : latency * 0.8 + millis * 0.2;
+                    minLatency = Math.min(minLatency, millis);
+
+                    completed++;
+                    if (minLatency >= 1 && latency > 4 * minLatency) {
+                        // Requests are queuing at the server side.
+                        decrease(0.9);
+                    } else {
+                        increase();
+                    }
+                }
+            }
+            dispatch();
+        }
+
+        void onTransferred(long size, long elapsed) {
+            synchronized (this) {
+                bytes += size;
+                windowBytes += size;
+
+                long now = System.nanoTime();
+                if (now - windowStart >= THROUGHPUT_WINDOW) {
+                    throughput = windowBytes * 1e9 / (now - windowStart);
+                    // A higher limit that brought less throughput means the host or the link is saturated.
+                    if (lastWindowLimit > 0 && (int) limit > (int) lastWindowLimit && throughput < lastThroughput * 0.8) {
+                        slowStart = false;
+                        limit = Math.max(minLimit, lastWindowLimit);
+                    }
+                    lastThroughput = throughput;
+                    lastWindowLimit = limit;
+                    windowStart = now;
+                    windowBytes = 0;
+                }
+            }
+        }
+
+        void onFailed(IOException exception) {
+            synchronized (this) {
+                failures++;
+                if (exception instanceof SocketTimeoutException || exception instanceof ConnectException)
+                    decrease(0.5);
+            }
+            dispatch();
+        }
+
+        private void increase() {
+            if (slowStart)
+                limit = Math.min(maxLimit, limit + 1);
+            else
+                limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        private void decrease(double factor) {
+            long now = System.nanoTime();
+            slowStart = false;
+            // Responses of requests sent within a round trip after the last decrease do not reflect the new limit.
+            long interval = Math.max(MIN_DECREASE_INTERVAL, (long) (latency * 1e6));
+            if (lastDecrease != 0 && now - lastDecrease < interval)
+                return;
+            lastDecrease = now;
+            limit = Math.max(minLimit, limit * factor);
+        }
+
+        synchronized HostStats getStats() {
+            return new HostStats(name, (int) limit, active, queue.size(), completed, throttled, failures, bytes,
+                    latency < 0 ? -1 : (long) latency, (long) throughput);
+        }
+    }
+
+    public static final class HostStats {
+        private final String host;
+        private final int limit;
+        private final int active;
+        private final int queued;
+        private final long completed;
+        private final long throttled;
+        private final long failures;
+        private final long bytes;
+        private final long latency;
+        private final long throughput;
+
+        public HostStats(String host, int limit, int active, int queued, long completed, long throttled, long failures, long bytes, long latency, long throughput) {
+            this.host = host;
+            this.limit = limit;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+            this.throttled = throttled;
+            this.failures = failures;
+            this.bytes = bytes;
+            this.latency = latency;
+            this.throughput = throughput;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the current count of concurrent downloads allowed.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return count of 429 and 503 responses.
+         */
+        public long getThrottled() {
+            return throttled;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return smoothed time to response in milliseconds, -1 if unknown.
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return throughput of the last window in bytes per second.
+         */
+        public long getThroughput() {
+            return throughput;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("host", host)
+                    .append("limit", limit)
+                    .append("active", active)
+                    .append("queued", queued)
+                    .append("completed", completed)
+                    .append("throttled", throttled)
+                    .append("failures", failures)
+                    .append("latency", latency)
+                    .append("throughput", throughput)
+                    .toString();
+        }
+    }
+
+    private static final HostConcurrencyLimiter INSTANCE = new HostConcurrencyLimiter(Schedulers::io, 8, 1, 64);
+
+    public static HostConcurrencyLimiter getInstance() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,267 @@
+package ru.spark.slauncher.task;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import ru.spark.slauncher.util.InvocationDispatcher;
+import ru.spark.slauncher.util.Lang;
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.gson.JsonUtils;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Scores download mirrors by the time to first byte and the throughput observed by {@link FetchTask},
+ * so that candidate urls can be tried fastest mirror first.
+ * <p>
+ * A mirror is identified by the protocol, host and port of the url. A mirror failing to respond is tried last
+ * for a while, the period doubles with every failure in a row. Scores are saved to the storage file
+ * so that a dead mirror is not tried first again after restarting.
+ *
+ * @author spark1337
+ */
+public final class MirrorScoreboard {
+
+    /**
+     * The size of the file a mirror is scored for, bigger files are weighted by throughput more than latency.
+     */
+    private static final long REFERENCE_SIZE = 256 * 1024;
+
+    /**
+     * Bodies smaller than this tell more about latency than throughput.
+     */
+    private static final long MIN_THROUGHPUT_SAMPLE = 64 * 1024;
+
+    private static final long BASE_SUSPENSION = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_SUSPENSION = TimeUnit.HOURS.toMillis(1);
+    private static final long SAVE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, Mirror> mirrors = new ConcurrentHashMap<>();
+    private final InvocationDispatcher<String> writer = InvocationDispatcher.runOn(Lang::thread, this::write);
+    private volatile Path storage;
+    private volatile long lastSave;
+
+    /**
+     * Loads the scores saved in given file, later changes will be saved to it.
+     *
+     * @param storage the file scores are saved to, null if scores should not be saved.
+     */
+    public void setStorage(Path storage) {
+        this.storage = storage;
+        if (storage == null || !Files.isRegularFile(storage))
+            return;
+
+        try {
+            Map<String, Mirror> saved = JsonUtils.GSON.fromJson(FileUtils.readText(storage), new TypeToken<Map<String, Mirror>>() {
+            }.getType());
+            if (saved != null)
+                saved.forEach((origin, mirror) -> {
+                    if (origin != null && mirror != null)
+                        mirrors.putIfAbsent(origin, mirror);
+                });
+        } catch (IOException | JsonParseException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to read mirror scores from " + storage, e);
+        }
+    }
+
+    /**
+     * Sorts the candidate urls by the scores of their mirrors.
+     * <p>
+     * Mirrors already scored come first, fastest first, then mirrors never seen in the given order,
+     * then mirrors failing recently. Urls of the same mirror keep their relative order.
+     *
+     * @param urls the candidate urls.
+     * @return a new list of the candidate urls.
+     */
+    public List<URL> sort(List<URL> urls) {
+        long now = System.currentTimeMillis();
+        Map<String, Double> costs = new HashMap<>();
+        for (URL url : urls)
+            costs.computeIfAbsent(getOrigin(url), origin -> {
+                Mirror mirror = mirrors.get(origin);
+                return mirror == null ? Double.MAX_VALUE : mirror.getCost(now);
+            });
+
+        List<URL> sorted = new ArrayList<>(urls);
+        sorted.sort(Comparator.comparingDouble(url -> costs.get(getOrigin(url))));
+        return sorted;
+    }
+
+    /**
+     * Records the response of a request.
+     *
+     * @param url          the candidate url requested.
+     * @param responseCode the response code.
+     * @param latency      time to the response in nanoseconds.
+     */
+    public void onResponse(URL url, int responseCode, long latency) {
+        if (responseCode / 100 == 2 || responseCode == 304) {
+            getMirror(url).onLatency(latency / 1e6, true);
+            changed(false);
+        } else if (responseCode == 429 || responseCode / 100 == 5) {
+            onFailed(url);
+        }
+    }
+
+    /**
+     * Records a request abandoned because another mirror answered first.
+     *
+     * @param url     the candidate url requested.
+     * @param elapsed time waited for the response in nanoseconds, the mirror takes at least so long.
+     */
+    public void onLost(URL url, long elapsed) {
+        getMirror(url).onLatency(elapsed / 1e6, false);
+        changed(false);
+    }
+
+    /**
+     * Records a response body read.
+     *
+     * @param url     the candidate url requested.
+     * @param bytes   bytes read.
+     * @param elapsed time spent in reading in nanoseconds.
+     */
+    public void onTransferred(URL url, long bytes, long elapsed) {
+        if (bytes < MIN_THROUGHPUT_SAMPLE || elapsed <= 0)
+            return;
+        getMirror(url).onThroughput(bytes * 1e9 / elapsed);
+        changed(false);
+    }
+
+    /**
+     * Records a request that failed to connect or to complete.
+     *
+     * @param url the candidate url requested.
+     */
+    public void onFailed(URL url) {
+        // A mirror turning bad should be remembered at once.
+        changed(getMirror(url).onFailed(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the expected time in milliseconds to download a file of moderate size from the mirror of given url,
+     * {@link Double#MAX_VALUE} if the mirror is not scored yet, {@link Double#POSITIVE_INFINITY} if it is failing.
+     */
+    public double getCost(URL url) {
+        Mirror mirror = mirrors.get(getOrigin(url));
+        return mirror == null ? Double.MAX_VALUE : mirror.getCost(System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if both urls are served by the same mirror.
+     */
+    public static boolean isSameMirror(URL a, URL b) {
+        return getOrigin(a).equals(getOrigin(b));
+    }
+
+    private Mirror getMirror(URL url) {
+        return mirrors.computeIfAbsent(getOrigin(url), origin -> new Mirror());
+    }
+
+    /**
+     * Saves the scores to the storage file in background.
+     */
+    public void save() {
+        if (storage == null)
+            return;
+        lastSave = System.currentTimeMillis();
+
+        Map<String, Mirror> snapshot = new TreeMap<>();
+        mirrors.forEach((origin, mirror) -> snapshot.put(origin, mirror.copy()));
+        writer.accept(JsonUtils.GSON.toJson(snapshot));
+    }
+
+    private void changed(boolean immediately) {
+        if (immediately || System.currentTimeMillis() - lastSave >= SAVE_INTERVAL)
+            save();
+    }
+
+    private void write(String content) {
+        Path file = storage;
+        if (file == null)
+            return;
+        try {
+            FileUtils.writeText(file.toFile(), content);
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save mirror scores to " + file, e);
+        }
+    }
+
+    private static String getOrigin(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    private static final class Mirror {
+        /**
+         * Smoothed time to response in milliseconds, -1 if unknown.
+         */
+        private double latency = -1;
+
+        /**
+         * Smoothed throughput in bytes per second, -1 if unknown.
+         */
+        private double throughput = -1;
+
+        /**
+         * Count of failures in a row.
+         */
+        private int failures;
+
+        /**
+         * Time of the last failure in milliseconds since the epoch.
+         */
+        private long lastFailure;
+
+        synchronized void onLatency(double millis, boolean succeeded) {
+            if (succeeded) {
+                failures = 0;
+                latency = latency < 0 ? millis : latency * 0.7 + millis * 0.3;
+            } else if (latency < millis) {
+                // Only a lower bound is known, move towards it.
+                latency = latency < 0 ? millis : latency * 0.7 + millis * 0.3;
+            }
+        }
+
+        synchronized void onThroughput(double bytesPerSecond) {
+            throughput = throughput < 0 ? bytesPerSecond : throughput * 0.7 + bytesPerSecond * 0.3;
+        }
+
+        /**
+         * @return true if the mirror was fine before this failure.
+         */
+        synchronized boolean onFailed(long now) {
+            lastFailure = now;
+            return failures++ == 0;
+        }
+
+        synchronized double getCost(long now) {
+            if (failures > 0 && now - lastFailure < Math.min(MAX_SUSPENSION, BASE_SUSPENSION << Math.min(failures - 1, 16)))
+                return Double.POSITIVE_INFINITY;
+            if (latency < 0)
+                return Double.MAX_VALUE;
+            return throughput > 0 ? latency + REFERENCE_SIZE * 1000 / throughput : latency;
+        }
+
+        synchronized Mirror copy() {
+            Mirror mirror = new Mirror();
+            mirror.latency = latency;
+            mirror.throughput = throughput;
+            mirror.failures = failures;
+            mirror.lastFailure = lastFailure;
+            return mirror;
+        }
+    }
+
+    private static final MirrorScoreboard INSTANCE = new MirrorScoreboard();
+
+    public static MirrorScoreboard getInstance() {
+        return INSTANCE;
+    }
+}
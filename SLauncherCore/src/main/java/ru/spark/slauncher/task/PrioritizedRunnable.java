@@ -0,0 +1,47 @@
+package ru.spark.slauncher.task;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A runnable with the priority of the thread submitting it, which it runs with. Ordered by priority, then by
+ * submission.
+ *
+ * @author spark1337
+ */
+final class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Runnable runnable;
+    private final TaskPriority priority;
+    private final long sequence = SEQUENCE.getAndIncrement();
+
+    PrioritizedRunnable(Runnable runnable, TaskPriority priority) {
+        this.runnable = runnable;
+        this.priority = priority;
+    }
+
+    /**
+     * @return the runnable itself if prioritized already, or the runnable with the priority of the current thread.
+     */
+    static PrioritizedRunnable of(Runnable runnable) {
+        if (runnable instanceof PrioritizedRunnable)
+            return (PrioritizedRunnable) runnable;
+        return new PrioritizedRunnable(runnable, Schedulers.getPriority());
+    }
+
+    TaskPriority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public void run() {
+        Schedulers.runWithPriority(priority, runnable);
+    }
+
+    @Override
+    public int compareTo(PrioritizedRunnable o) {
+        int result = priority.compareTo(o.priority);
+        return result != 0 ? result : Long.compare(sequence, o.sequence);
+    }
+}
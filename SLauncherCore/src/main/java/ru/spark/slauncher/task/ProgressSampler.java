@@ -0,0 +1,164 @@
+package ru.spark.slauncher.task;
+
+import javafx.application.Platform;
+import ru.spark.slauncher.event.Event;
+import ru.spark.slauncher.event.EventBus;
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.ToStringBuilder;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Publishes progress of tasks and download throughput at a fixed rate, however often they are updated.
+ * <p>
+ * Tasks only write the latest progress and count downloaded bytes without locking. Every frame, the progress of all
+ * tasks updated since the last frame is published to their properties by a single {@link Platform#runLater}, and
+ * every second the download speed is fired as {@link FetchTask.SpeedEvent} and {@link ThroughputEvent} on
+ * {@link #getEventBus()}, on the sampler thread.
+ *
+ * @author spark1337
+ */
+public final class ProgressSampler {
+
+    /**
+     * Interval of publishing progress in milliseconds.
+     */
+    public static final long FRAME_INTERVAL = 100;
+    private static final long FRAMES_PER_SECOND = 1000 / FRAME_INTERVAL;
+
+    private static final Queue<Task<?>> updated = new ConcurrentLinkedQueue<>();
+    private static final LongAdder bytes = new LongAdder();
+    private static final ConcurrentMap<String, LongAdder> stageBytes = new ConcurrentHashMap<>();
+    private static final EventBus eventBus = new EventBus();
+    private static volatile Executor publisher = Platform::runLater;
+    private static long frames;
+
+    static {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Progress Sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(ProgressSampler::frame, FRAME_INTERVAL, FRAME_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private ProgressSampler() {
+    }
+
+    public static EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * @param publisher the executor setting progress properties, {@link Platform#runLater} by default.
+     */
+    public static void setPublisher(Executor publisher) {
+        ProgressSampler.publisher = Objects.requireNonNull(publisher);
+    }
+
+    /**
+     * Publishes the latest progress of the task at the next frame.
+     */
+    static void update(Task<?> task) {
+        if (task.progressQueued.compareAndSet(false, true))
+            updated.add(task);
+    }
+
+    /**
+     * Counts downloaded bytes for the download speed.
+     *
+     * @param stage the stage downloading, null if none.
+     */
+    public static void addBytes(String stage, long count) {
+        bytes.add(count);
+        if (stage != null) {
+            LongAdder adder = stageBytes.get(stage);
+            if (adder == null)
+                adder = stageBytes.computeIfAbsent(stage, key -> new LongAdder());
+            adder.add(count);
+        }
+    }
+
+    private static void frame() {
+        try {
+            publishProgress();
+            if (++frames % FRAMES_PER_SECOND == 0)
+                publishThroughput();
+        } catch (Throwable e) {
+            // An exception would stop the sampler.
+            Logging.LOG.log(Level.WARNING, "Unable to publish progress", e);
+        }
+    }
+
+    private static void publishProgress() {
+        List<Task<?>> tasks = new ArrayList<>();
+        Task<?> task;
+        while ((task = updated.poll()) != null) {
+            // Cleared before reading, so an update racing with this frame is published at the next one.
+            task.progressQueued.set(false);
+            tasks.add(task);
+        }
+        if (tasks.isEmpty())
+            return;
+
+        double[] values = new double[tasks.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = tasks.get(i).latestProgress;
+        publisher.execute(() -> {
+            for (int i = 0; i < values.length; i++)
+                tasks.get(i).setProgress(values[i]);
+        });
+    }
+
+    private static void publishThroughput() {
+        long speed = bytes.sumThenReset();
+        Map<String, Long> stages = new HashMap<>();
+        for (Iterator<Map.Entry<String, LongAdder>> iterator = stageBytes.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, LongAdder> entry = iterator.next();
+            long stageSpeed = entry.getValue().sumThenReset();
+            if (stageSpeed == 0)
+                iterator.remove();
+            else
+                stages.put(entry.getKey(), stageSpeed);
+        }
+
+        eventBus.channel(FetchTask.SpeedEvent.class).fireEvent(new FetchTask.SpeedEvent(eventBus, (int) Math.min(speed, Integer.MAX_VALUE)));
+        eventBus.channel(ThroughputEvent.class).fireEvent(new ThroughputEvent(eventBus, speed, Collections.unmodifiableMap(stages)));
+    }
+
+    /**
+     * Download throughput of the last second, fired every second.
+     */
+    public static class ThroughputEvent extends Event {
+        private final long speed;
+        private final Map<String, Long> stageSpeeds;
+
+        public ThroughputEvent(Object source, long speed, Map<String, Long> stageSpeeds) {
+            super(source);
+            this.speed = speed;
+            this.stageSpeeds = stageSpeeds;
+        }
+
+        /**
+         * @return download speed of all tasks in byte/sec.
+         */
+        public long getSpeed() {
+            return speed;
+        }
+
+        /**
+         * @return download speed of every stage downloading in byte/sec.
+         */
+        public Map<String, Long> getStageSpeeds() {
+            return stageSpeeds;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this).append("speed", speed).append("stageSpeeds", stageSpeeds).toString();
+        }
+    }
+}
@@ -4,7 +4,10 @@ import javafx.application.Platform;
 import ru.spark.slauncher.util.Logging;
 
 import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.logging.Level;
 
 /**
  * @author spark1337
@@ -14,6 +17,46 @@ public final class Schedulers {
     private Schedulers() {
     }
 
+    /**
+     * How many runnables {@link #io()} runs at the same time on virtual threads.
+     */
+    private static final int VIRTUAL_IO_PARALLELISM = 256;
+
+    private static volatile boolean virtualThreads;
+
+    /**
+     * @return true if {@link #defaultScheduler()} and {@link #io()} run on virtual threads.
+     */
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Makes {@link #defaultScheduler()} and {@link #io()} run on virtual threads, if the running Java supports them.
+     * Executors handed out before keep running what they are given, their threads end when idle.
+     *
+     * @see VirtualThreadExecutor#isSupported()
+     */
+    public static synchronized void setVirtualThreads(boolean enabled) {
+        boolean value = enabled && VirtualThreadExecutor.isSupported();
+        if (virtualThreads == value)
+            return;
+
+        virtualThreads = value;
+        retire(IO_EXECUTOR);
+        IO_EXECUTOR = null;
+        Logging.LOG.info("Virtual threads " + (value ? "enabled" : "disabled"));
+    }
+
+    private static void retire(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            if (pool.getKeepAliveTime(TimeUnit.SECONDS) <= 0)
+                pool.setKeepAliveTime(60, TimeUnit.SECONDS);
+            pool.allowCoreThreadTimeOut(true);
+        }
+    }
+
     private static volatile ThreadPoolExecutor CACHED_EXECUTOR;
 
     public static synchronized ThreadPoolExecutor newThread() {
@@ -24,20 +67,165 @@ public final class Schedulers {
         return CACHED_EXECUTOR;
     }
 
+    private static volatile ExecutorService VIRTUAL_EXECUTOR;
+
+    /**
+     * Like {@link #newThread()}, but runs every runnable on a new virtual thread.
+     *
+     * @throws UnsupportedOperationException if the running Java does not support virtual threads.
+     * @see VirtualThreadExecutor#isSupported()
+     */
+    public static synchronized ExecutorService newVirtualThread() {
+        if (VIRTUAL_EXECUTOR == null)
+            VIRTUAL_EXECUTOR = new VirtualThreadExecutor("Task", Integer.MAX_VALUE);
+
+        return VIRTUAL_EXECUTOR;
+    }
+
     private static volatile ExecutorService IO_EXECUTOR;
 
+    /**
+     * Runs runnables of every priority on a fixed number of threads, or on virtual threads, starting queued
+     * runnables in order of their priority.
+     *
+     * @see #getPriority()
+     */
     public static synchronized ExecutorService io() {
         if (IO_EXECUTOR == null) {
+            if (virtualThreads)
+                IO_EXECUTOR = new VirtualThreadExecutor("IO", VIRTUAL_IO_PARALLELISM);
+            else {
+                int threads = getIOParallelism();
+                IO_EXECUTOR = new ThreadPoolExecutor(threads, threads,
+                        0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                        runnable -> {
+                            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+                            thread.setDaemon(true);
+                            return thread;
+                        }) {
+                    @Override
+                    public void execute(Runnable command) {
+                        // The queue orders runnables by priority.
+                        super.execute(PrioritizedRunnable.of(command));
+                    }
+                };
+            }
+        }
+
+        return IO_EXECUTOR;
+    }
+
+    /**
+     * @return how many runnables {@link #io()} runs at the same time.
+     */
+    public static int getIOParallelism() {
+        return virtualThreads ? VIRTUAL_IO_PARALLELISM : Math.min(Runtime.getRuntime().availableProcessors() * 4, 64);
+    }
+
+    private static final ThreadLocal<TaskPriority> PRIORITY = ThreadLocal.withInitial(() -> TaskPriority.USER);
+
+    /**
+     * Priority of the current thread, given to runnables it submits to {@link #io()} and to task executors it
+     * creates. Runnables run with their priority, so the work they submit inherits it.
+     *
+     * @return the priority, {@link TaskPriority#USER} by default.
+     */
+    public static TaskPriority getPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Runs the action with the priority of the current thread set to given priority.
+     */
+    public static void runWithPriority(TaskPriority priority, Runnable action) {
+        TaskPriority old = PRIORITY.get();
+        if (old == priority) {
+            action.run();
+            return;
+        }
+
+        PRIORITY.set(priority);
+        try {
+            action.run();
+        } finally {
+            PRIORITY.set(old);
+        }
+    }
+
+    private static final BackgroundLane BACKGROUND_EXECUTOR = new BackgroundLane();
+
+    /**
+     * Runs runnables on {@link #io()} with {@link TaskPriority#BACKGROUND}, at most half of its threads at a time,
+     * so background work never takes all the threads from work the user is waiting for.
+     */
+    public static Executor background() {
+        return BACKGROUND_EXECUTOR;
+    }
+
+    private static final class BackgroundLane implements Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        private int active;
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                queue.add(command);
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            while (true) {
+                Runnable runnable;
+                synchronized (this) {
+                    if (active >= Math.max(1, getIOParallelism() / 2) || queue.isEmpty())
+                        return;
+                    runnable = queue.poll();
+                    active++;
+                }
+
+                try {
+                    io().execute(new PrioritizedRunnable(() -> {
+                        try {
+                            runnable.run();
+                        } finally {
+                            synchronized (this) {
+                                active--;
+                            }
+                            dispatch();
+                        }
+                    }, TaskPriority.BACKGROUND));
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        active--;
+                    }
+                    Logging.LOG.log(Level.WARNING, "Unable to run background work", e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static volatile ForkJoinPool WORK_STEALING_EXECUTOR;
+
+    /**
+     * A pool with as many threads as {@link #io()}, used by {@link CancellableTaskExecutor} for tasks
+     * running on {@link #defaultScheduler()}. It adds threads beyond that only to make up for threads
+     * waiting in {@link ForkJoinPool#managedBlock}.
+     */
+    public static synchronized ForkJoinPool workStealing() {
+        if (WORK_STEALING_EXECUTOR == null) {
             int threads = Math.min(Runtime.getRuntime().availableProcessors() * 4, 64);
-            IO_EXECUTOR = Executors.newFixedThreadPool(threads,
-                    runnable -> {
-                        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            WORK_STEALING_EXECUTOR = new ForkJoinPool(threads,
+                    pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("Task Worker-" + thread.getPoolIndex());
                         thread.setDaemon(true);
                         return thread;
-                    });
+                    }, null, true);
         }
 
-        return IO_EXECUTOR;
+        return WORK_STEALING_EXECUTOR;
     }
 
     public static Executor javafx() {
@@ -49,7 +237,7 @@ public final class Schedulers {
     }
 
     public static Executor defaultScheduler() {
-        return newThread();
+        return virtualThreads ? newVirtualThread() : newThread();
     }
 
     public static synchronized void shutdown() {
@@ -62,8 +250,14 @@ public final class Schedulers {
         if (CACHED_EXECUTOR != null)
             CACHED_EXECUTOR.shutdownNow();
 
+        if (VIRTUAL_EXECUTOR != null)
+            VIRTUAL_EXECUTOR.shutdownNow();
+
         if (IO_EXECUTOR != null)
             IO_EXECUTOR.shutdownNow();
+
+        if (WORK_STEALING_EXECUTOR != null)
+            WORK_STEALING_EXECUTOR.shutdownNow();
     }
 
     public static Future<?> schedule(Executor executor, Runnable command) {
@@ -19,6 +19,7 @@ import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
@@ -96,6 +97,22 @@ public abstract class Task<T> {
         return properties;
     }
 
+    private Consumer<Map<String, Object>> propertiesListener;
+
+    final void setPropertiesListener(Consumer<Map<String, Object>> propertiesListener) {
+        this.propertiesListener = propertiesListener;
+    }
+
+    /**
+     * Publishes the properties to the stage before this task finishes, e.g. the counter of a long running task.
+     * Properties must not be changed by other threads meanwhile.
+     */
+    protected final void notifyPropertiesChanged() {
+        Consumer<Map<String, Object>> listener = propertiesListener;
+        if (listener != null && properties != null)
+            listener.accept(properties);
+    }
+
     // state
     private TaskState state = TaskState.READY;
 
@@ -284,13 +301,9 @@ public abstract class Task<T> {
         return onDone;
     }
 
-    protected long getProgressInterval() {
-        return 1000L;
-    }
-
-    private long lastTime = Long.MIN_VALUE;
     private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(this, "progress", -1);
-    private final InvocationDispatcher<Double> progressUpdate = InvocationDispatcher.runOn(Platform::runLater, progress::set);
+    volatile double latestProgress = -1;
+    final AtomicBoolean progressQueued = new AtomicBoolean();
 
     public ReadOnlyDoubleProperty progressProperty() {
         return progress.getReadOnlyProperty();
@@ -300,18 +313,21 @@ public abstract class Task<T> {
         updateProgress(1.0 * progress / total);
     }
 
+    /**
+     * Updates progress of this task, published to {@link #progressProperty()} at the next frame of
+     * {@link ProgressSampler}, so it can be called as often as needed.
+     */
     protected void updateProgress(double progress) {
         if (progress < 0 || progress > 1.0)
             throw new IllegalArgumentException("Progress is must between 0 and 1.");
-        long now = System.currentTimeMillis();
-        if (lastTime == Long.MIN_VALUE || now - lastTime >= getProgressInterval()) {
-            updateProgressImmediately(progress);
-            lastTime = now;
-        }
+        latestProgress = progress;
+        ProgressSampler.update(this);
     }
 
-    protected void updateProgressImmediately(double progress) {
-        progressUpdate.accept(progress);
+    void setProgress(double progress) {
+        // Bound to a subtask by run().
+        if (!this.progress.isBound())
+            this.progress.set(progress);
     }
 
     private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper(this, "message", null);
@@ -379,6 +395,26 @@ public abstract class Task<T> {
         return executor;
     }
 
+    /**
+     * Creates an executor running this task by {@link DirectTaskExecutor} instead of {@link AsyncTaskExecutor}.
+     */
+    public final TaskExecutor directExecutor() {
+        return new DirectTaskExecutor(this);
+    }
+
+    public final TaskExecutor directExecutor(boolean start) {
+        TaskExecutor executor = new DirectTaskExecutor(this);
+        if (start)
+            executor.start();
+        return executor;
+    }
+
+    public final TaskExecutor directExecutor(TaskListener taskListener) {
+        TaskExecutor executor = new DirectTaskExecutor(this);
+        executor.addTaskListener(taskListener);
+        return executor;
+    }
+
     public final void start() {
         executor().start();
     }
@@ -17,6 +17,7 @@ public abstract class TaskExecutor {
     protected Exception exception;
     private final List<String> stages;
     protected final Map<String, Map<String, Object>> stageProperties = new HashMap<>();
+    private volatile TaskPriority priority = Schedulers.getPriority();
 
     public TaskExecutor(Task<?> task) {
         this.firstTask = task;
@@ -49,6 +50,17 @@ public abstract class TaskExecutor {
         return cancelled.get();
     }
 
+    /**
+     * @return the priority tasks are submitted with, the priority of the thread creating this executor by default.
+     */
+    public TaskPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(TaskPriority priority) {
+        this.priority = priority;
+    }
+
     public int getRunningTasks() {
         return totTask.get();
     }
@@ -34,6 +34,16 @@ public abstract class TaskListener implements EventListener {
     public void onRunning(Task<?> task) {
     }
 
+    /**
+     * Executed when the task's execution finished successfully, before its dependencies run.
+     * <p>
+     * TaskState of this task is EXECUTED.
+     *
+     * @param task the task which has been run.
+     */
+    public void onExecuted(Task<?> task) {
+    }
+
     /**
      * Executed after the task's dependencies and post-execution finished.
      * <p>
@@ -0,0 +1,25 @@
+package ru.spark.slauncher.task;
+
+/**
+ * How urgent work is, when there is more of it than threads to run it.
+ * <p>
+ * Queued work of higher priority is started first, running work is never interrupted, so work of higher priority
+ * waits at most until a running task finishes. See {@link Schedulers#getPriority()} for how the priority is passed
+ * on to the work submitted.
+ *
+ * @author spark1337
+ */
+public enum TaskPriority {
+    /**
+     * Work the user is waiting for right now, like launching the game.
+     */
+    INTERACTIVE,
+    /**
+     * Work the user has started, like installing a game.
+     */
+    USER,
+    /**
+     * Work nobody is waiting for, like loading skins and refreshing lists.
+     */
+    BACKGROUND
+}
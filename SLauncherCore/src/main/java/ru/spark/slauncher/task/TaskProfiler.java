@@ -0,0 +1,360 @@
+package ru.spark.slauncher.task;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Records when every task of a task graph gets ready, starts running, finishes its execution and finishes with its
+ * dependencies, to find out where the time of a task graph goes.
+ * <p>
+ * The time between a task being ready and running is split into the time waiting for its dependents and the time
+ * waiting on its {@link java.util.concurrent.Executor}. The report contains a summary per stage and the critical
+ * path, the chain of tasks which decided the duration of the whole graph. The timeline can be exported in Chrome
+ * trace format, to be opened in chrome://tracing or Perfetto.
+ *
+ * @author spark1337
+ */
+public class TaskProfiler extends TaskListener {
+
+    /**
+     * The system property enabling {@link #profileIfEnabled}.
+     */
+    public static final String PROPERTY = "slauncher.profile_tasks";
+
+    private final Map<Task<?>, Record> records = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final Path traceFile;
+    private volatile long start;
+    private volatile long stop;
+    private volatile Task<?> root;
+
+    public TaskProfiler() {
+        this(null);
+    }
+
+    /**
+     * @param traceFile where to write the timeline when the task graph stops, null not to write it.
+     */
+    public TaskProfiler(Path traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Profiles the executor if the system property {@value #PROPERTY} is set, logging the summary and writing the
+     * timeline to the given directory when it stops.
+     *
+     * @param name the name of the task graph, for the name of the timeline file.
+     */
+    public static void profileIfEnabled(TaskExecutor executor, Path directory, String name) {
+        if (!Boolean.getBoolean(PROPERTY))
+            return;
+        String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH-mm-ss"));
+        executor.addTaskListener(new TaskProfiler(directory.resolve("task-trace-" + name + "-" + time + ".json")));
+    }
+
+    @Override
+    public void onStart() {
+        start = System.nanoTime();
+    }
+
+    @Override
+    public void onReady(Task<?> task) {
+        if (root == null)
+            root = task;
+        Record record = new Record(task);
+        record.ready = System.nanoTime();
+        records.put(task, record);
+    }
+
+    @Override
+    public void onRunning(Task<?> task) {
+        Record record = records.get(task);
+        if (record != null)
+            record.running = System.nanoTime();
+    }
+
+    @Override
+    public void onExecuted(Task<?> task) {
+        Record record = records.get(task);
+        if (record != null) {
+            record.executed = System.nanoTime();
+            record.thread = Thread.currentThread().getName();
+            record.threadId = Thread.currentThread().getId();
+        }
+    }
+
+    @Override
+    public void onFinished(Task<?> task) {
+        Record record = records.get(task);
+        if (record != null)
+            record.finished = System.nanoTime();
+    }
+
+    @Override
+    public void onFailed(Task<?> task, Throwable throwable) {
+        Record record = records.get(task);
+        if (record != null) {
+            record.finished = System.nanoTime();
+            record.failed = true;
+        }
+    }
+
+    @Override
+    public void onStop(boolean success, TaskExecutor executor) {
+        stop = System.nanoTime();
+        if (traceFile == null)
+            return;
+
+        Logging.LOG.info("Task profile:\n" + getSummary());
+        try {
+            writeChromeTrace(traceFile);
+            Logging.LOG.info("Task timeline written to " + traceFile);
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to write task timeline to " + traceFile, e);
+        }
+    }
+
+    private List<Record> snapshot() {
+        synchronized (records) {
+            return new ArrayList<>(records.values());
+        }
+    }
+
+    private long end() {
+        return stop != 0 ? stop : System.nanoTime();
+    }
+
+    /**
+     * Finds the chain of tasks which decided the duration of the task graph: from the root task, the dependent
+     * finishing last, then the task itself, then the dependency finishing last.
+     */
+    public List<Segment> getCriticalPath() {
+        List<Segment> path = new ArrayList<>();
+        if (root != null)
+            collectCriticalPath(records.get(root), path);
+        return path;
+    }
+
+    private void collectCriticalPath(Record record, List<Segment> path) {
+        if (record == null)
+            return;
+
+        Record dependent = lastFinished(record.task.getDependents());
+        collectCriticalPath(dependent, path);
+
+        if (record.running != 0) {
+            long waitFrom = Math.max(record.ready, dependent != null ? dependent.finished : 0);
+            if (record.running > waitFrom)
+                path.add(new Segment(record, Segment.Kind.WAIT, record.running - waitFrom));
+            if (record.executed != 0)
+                path.add(new Segment(record, Segment.Kind.RUN, record.executed - record.running));
+        }
+
+        collectCriticalPath(lastFinished(record.task.getDependencies()), path);
+    }
+
+    private Record lastFinished(Collection<Task<?>> tasks) {
+        Record last = null;
+        for (Task<?> task : tasks) {
+            Record record = records.get(task);
+            if (record != null && record.finished != 0 && (last == null || record.finished > last.finished))
+                last = record;
+        }
+        return last;
+    }
+
+    /**
+     * The summary of every stage, in order of start, and the critical path.
+     */
+    public String getSummary() {
+        Map<String, StageSummary> stages = new LinkedHashMap<>();
+        List<Record> snapshot = snapshot();
+        snapshot.sort(Comparator.comparingLong(record -> record.ready));
+        for (Record record : snapshot)
+            stages.computeIfAbsent(Objects.toString(record.stage, "(no stage)"), StageSummary::new).add(record, end());
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Total %.1f ms, %d tasks%n", millis(end() - start), snapshot.size()));
+        for (StageSummary stage : stages.values())
+            builder.append(String.format("  %s: %.1f ms wall, %d tasks, %.1f ms running, %.1f ms waiting on executors, slowest %s (%.1f ms)%n",
+                    stage.name, millis(stage.last - stage.first), stage.tasks, millis(stage.running), millis(stage.waiting),
+                    stage.slowest == null ? "-" : stage.slowest.name, millis(stage.slowestTime)));
+
+        builder.append("Critical path:").append(System.lineSeparator());
+        int omitted = 0;
+        for (Segment segment : getCriticalPath()) {
+            // Plumbing tasks of thenComposeAsync and withStage take no time.
+            if (segment.getNanos() < TimeUnit.MILLISECONDS.toNanos(1)) {
+                omitted++;
+                continue;
+            }
+            builder.append(String.format("  %8.1f ms %-4s %s [%s]%n",
+                    millis(segment.getNanos()), segment.getKind(), segment.getName(), segment.getStage()));
+        }
+        if (omitted > 0)
+            builder.append(String.format("  %d steps under 1 ms%n", omitted));
+        return builder.toString();
+    }
+
+    /**
+     * Writes the timeline in Chrome trace format. Executions are complete events on the threads running them,
+     * waits on executors and stages are async events.
+     */
+    public void writeChromeTrace(Path file) throws IOException {
+        JsonArray events = new JsonArray();
+        Map<String, long[]> stages = new LinkedHashMap<>();
+        int id = 0;
+        for (Record record : snapshot()) {
+            if (record.stage != null) {
+                long[] span = stages.computeIfAbsent(record.stage, stage -> new long[]{Long.MAX_VALUE, 0});
+                span[0] = Math.min(span[0], record.ready);
+                span[1] = Math.max(span[1], record.finished != 0 ? record.finished : end());
+            }
+
+            if (record.running != 0 && record.executed != 0) {
+                JsonObject event = event(record.name, "task", "X", record.running);
+                event.addProperty("dur", micros(record.executed - record.running));
+                event.addProperty("tid", record.threadId);
+                JsonObject args = new JsonObject();
+                args.addProperty("stage", record.stage);
+                args.addProperty("thread", record.thread);
+                args.addProperty("failed", record.failed);
+                event.add("args", args);
+                events.add(event);
+
+                Record dependent = lastFinished(record.task.getDependents());
+                long waitFrom = Math.max(record.ready, dependent != null ? dependent.finished : 0);
+                if (record.running > waitFrom) {
+                    id++;
+                    events.add(asyncEvent(record.name, "queue", "b", waitFrom, id));
+                    events.add(asyncEvent(record.name, "queue", "e", record.running, id));
+                }
+            }
+        }
+        for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+            id++;
+            events.add(asyncEvent(stage.getKey(), "stage", "b", stage.getValue()[0], id));
+            events.add(asyncEvent(stage.getKey(), "stage", "e", stage.getValue()[1], id));
+        }
+
+        JsonObject trace = new JsonObject();
+        trace.add("traceEvents", events);
+        trace.addProperty("displayTimeUnit", "ms");
+        FileUtils.writeText(file.toFile(), trace.toString());
+    }
+
+    private JsonObject event(String name, String category, String phase, long time) {
+        JsonObject event = new JsonObject();
+        event.addProperty("name", name);
+        event.addProperty("cat", category);
+        event.addProperty("ph", phase);
+        event.addProperty("ts", micros(time - start));
+        event.addProperty("pid", 1);
+        return event;
+    }
+
+    private JsonObject asyncEvent(String name, String category, String phase, long time, int id) {
+        JsonObject event = event(name, category, phase, time);
+        event.addProperty("tid", 0);
+        event.addProperty("id", id);
+        return event;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static final class Record {
+        final Task<?> task;
+        final String name;
+        final String stage;
+        volatile long ready, running, executed, finished;
+        volatile String thread;
+        volatile long threadId;
+        volatile boolean failed;
+
+        Record(Task<?> task) {
+            this.task = task;
+            this.name = task.getName();
+            this.stage = task.getStage();
+        }
+    }
+
+    private final class StageSummary {
+        final String name;
+        int tasks;
+        long first = Long.MAX_VALUE, last, running, waiting, slowestTime;
+        Record slowest;
+
+        StageSummary(String name) {
+            this.name = name;
+        }
+
+        void add(Record record, long end) {
+            tasks++;
+            first = Math.min(first, record.ready);
+            last = Math.max(last, record.finished != 0 ? record.finished : end);
+            if (record.running == 0 || record.executed == 0)
+                return;
+
+            long time = record.executed - record.running;
+            running += time;
+            if (time > slowestTime) {
+                slowestTime = time;
+                slowest = record;
+            }
+            Record dependent = lastFinished(record.task.getDependents());
+            waiting += Math.max(0, record.running - Math.max(record.ready, dependent != null ? dependent.finished : 0));
+        }
+    }
+
+    /**
+     * A step of the critical path: a task waiting on its executor, or running.
+     */
+    public static final class Segment {
+        public enum Kind {
+            WAIT, RUN
+        }
+
+        private final String name;
+        private final String stage;
+        private final Kind kind;
+        private final long nanos;
+
+        Segment(Record record, Kind kind, long nanos) {
+            this.name = record.name;
+            this.stage = record.stage;
+            this.kind = kind;
+            this.nanos = nanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.spark.slauncher.task;
+
+import ru.spark.slauncher.util.Logging;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+
+/**
+ * Runs runnables on virtual threads, with at most a given number of them running at the same time.
+ * <p>
+ * Virtual threads are available since Java 21 and are looked up by reflection, see {@link #isSupported()}.
+ * Runnables over the limit are queued without blocking the submitter.
+ *
+ * @author spark1337
+ */
+public final class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, newThreadPerTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    /**
+     * @return true if the running Java supports virtual threads.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final Queue<PrioritizedRunnable> queue = new PriorityQueue<>();
+    private int active;
+
+    /**
+     * @param name        prefix of the names of the threads.
+     * @param parallelism how many runnables may run at the same time.
+     * @throws UnsupportedOperationException if virtual threads are not supported.
+     */
+    public VirtualThreadExecutor(String name, int parallelism) {
+        if (!isSupported())
+            throw new UnsupportedOperationException("Virtual threads require Java 21");
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+            this.executor = (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to create virtual threads", e);
+            throw new UnsupportedOperationException("Unable to create virtual threads", e);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runnables over the limit are queued by their priority, see {@link Schedulers#getPriority()}.
+     */
+    @Override
+    public void execute(Runnable command) {
+        PrioritizedRunnable runnable = PrioritizedRunnable.of(command);
+        synchronized (this) {
+            if (active >= parallelism) {
+                queue.add(runnable);
+                return;
+            }
+            active++;
+        }
+        start(runnable);
+    }
+
+    private void start(PrioritizedRunnable runnable) {
+        try {
+            executor.execute(() -> {
+                PrioritizedRunnable next = runnable;
+                // The thread goes on with queued runnables, a new one would not start sooner.
+                while (next != null) {
+                    try {
+                        next.run();
+                    } catch (Throwable e) {
+                        Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+                    }
+                    synchronized (this) {
+                        next = queue.poll();
+                        if (next == null)
+                            active--;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                active--;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> runnables;
+        synchronized (this) {
+            runnables = new ArrayList<>(queue);
+            queue.clear();
+        }
+        runnables.addAll(executor.shutdownNow());
+        return runnables;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,401 @@
+package ru.spark.slauncher.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Keeps the files cached by {@link CacheRepository} within a size limit.
+ * <p>
+ * Every time a cached file is served or added its access time and hit count are recorded, and when the cache
+ * grows over the limit the least recently used ({@link Policy#LRU}) or least frequently used ({@link Policy#LFU})
+ * files are deleted in background until it is back under 90% of the limit. Files hard-linked elsewhere,
+ * such as into the game directory, are neither counted nor deleted, since deleting them frees no space.
+ * Where the file system tells no link count, as on Windows, the files the launcher linked out are recorded by
+ * {@link #onLinked(Path)} and left out instead. Usage is saved in usage.json of the cache directory.
+ *
+ * @author spark1337
+ */
+public final class CacheEvictor {
+
+    public enum Policy {
+        LRU,
+        LFU
+    }
+
+    private static final long SAVE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final long SCAN_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Files deleted in one go, the scan pauses between batches so it does not compete with downloads.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private static final Gson GSON = new Gson();
+    private static final Type TYPE = new TypeToken<Map<String, Usage>>() {
+    }.getType();
+
+    private static volatile long sizeLimit;
+    private static volatile Policy policy = Policy.LRU;
+
+    private final Path cacheDirectory;
+    private final Path usageFile;
+    private final boolean linkCounted;
+    private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+    private final InvocationDispatcher<Object> writer = InvocationDispatcher.runOn(Lang::thread, ignored -> saveQuietly());
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Size of the cache as of the last scan plus the files added since, -1 if not scanned yet.
+     */
+    private final AtomicLong size = new AtomicLong(-1);
+    private volatile boolean loaded;
+    private volatile long lastSave = System.currentTimeMillis();
+    private volatile long lastScan;
+
+    /**
+     * @param cacheDirectory the cache directory of the repository.
+     */
+    public CacheEvictor(Path cacheDirectory) {
+        this(cacheDirectory, true);
+    }
+
+    /**
+     * @param linkCounted false to act as on file systems telling no link count.
+     */
+    CacheEvictor(Path cacheDirectory, boolean linkCounted) {
+        this.cacheDirectory = cacheDirectory;
+        this.usageFile = cacheDirectory.resolve("usage.json");
+        this.linkCounted = linkCounted;
+    }
+
+    /**
+     * @return the max size of the cache in bytes, 0 if not limited.
+     */
+    public static long getSizeLimit() {
+        return sizeLimit;
+    }
+
+    /**
+     * @param sizeLimit the max size of the cache in bytes, 0 if not limited.
+     */
+    public static void setSizeLimit(long sizeLimit) {
+        CacheEvictor.sizeLimit = Math.max(0, sizeLimit);
+    }
+
+    public static Policy getPolicy() {
+        return policy;
+    }
+
+    public static void setPolicy(Policy policy) {
+        CacheEvictor.policy = policy == null ? Policy.LRU : policy;
+    }
+
+    /**
+     * Records that a cached file is served.
+     *
+     * @param file the file in the cache directory.
+     */
+    public void onAccess(Path file) {
+        String key = getKey(file);
+        if (key == null)
+            return;
+        load();
+        usages.computeIfAbsent(key, k -> new Usage()).hit(System.currentTimeMillis());
+        changed();
+    }
+
+    /**
+     * Records that a cached file is hard-linked elsewhere, so that it is not deleted even if the file system tells
+     * no link count.
+     *
+     * @param file the file in the cache directory.
+     */
+    public void onLinked(Path file) {
+        String key = getKey(file);
+        if (key == null)
+            return;
+        load();
+        usages.computeIfAbsent(key, k -> new Usage()).link();
+        changed();
+    }
+
+    /**
+     * Records that a file is added to the cache, which may push the cache over the size limit.
+     *
+     * @param file the file in the cache directory.
+     */
+    public void onAdded(Path file) {
+        onAccess(file);
+        try {
+            long current = size.get();
+            if (current >= 0 && isEvictable(file, getKey(file)))
+                size.addAndGet(Files.size(file));
+        } catch (IOException ignored) {
+        }
+        evictLater();
+    }
+
+    /**
+     * Starts eviction in background if the cache may be over the size limit, and it is not running already.
+     */
+    public void evictLater() {
+        long limit = sizeLimit;
+        if (limit <= 0)
+            return;
+        long current = size.get();
+        boolean due = current < 0 || current > limit || System.currentTimeMillis() - lastScan >= SCAN_INTERVAL;
+        if (!due || !evicting.compareAndSet(false, true))
+            return;
+
+        Thread thread = Lang.thread(() -> {
+            try {
+                evict();
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to evict cached files", e);
+            } finally {
+                evicting.set(false);
+            }
+        }, "Cache Eviction", true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * Scans the cache, and deletes files until it is under 90% of the size limit.
+     *
+     * @return bytes freed.
+     */
+    public long evict() throws IOException {
+        load();
+        lastScan = System.currentTimeMillis();
+
+        List<Entry> entries = new ArrayList<>();
+        long total = scan(entries);
+        size.set(total);
+
+        long limit = sizeLimit;
+        if (limit <= 0 || total <= limit)
+            return 0;
+
+        entries.sort(policy == Policy.LFU
+                ? Comparator.<Entry>comparingInt(entry -> entry.hits).thenComparingLong(entry -> entry.lastAccess)
+                : Comparator.<Entry>comparingLong(entry -> entry.lastAccess));
+
+        long target = limit / 10 * 9;
+        long freed = 0;
+        int deleted = 0;
+        for (Entry entry : entries) {
+            if (total - freed <= target)
+                break;
+            // May have been linked since the scan.
+            if (!isEvictable(entry.path, entry.key))
+                continue;
+
+            try {
+                if (Files.deleteIfExists(entry.path)) {
+                    freed += entry.size;
+                    usages.remove(entry.key);
+                    if (++deleted % BATCH_SIZE == 0)
+                        Thread.sleep(10);
+                }
+            } catch (IOException e) {
+                Logging.LOG.log(Level.FINE, "Unable to evict cached file " + entry.path, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        size.addAndGet(-freed);
+        Logging.LOG.info("Evicted " + deleted + " cached files of " + freed / 1024 / 1024 + "MB by " + policy
+                + ", cache size is " + (total - freed) / 1024 / 1024 + "MB of " + limit / 1024 / 1024 + "MB");
+        writer.accept(null);
+        return freed;
+    }
+
+    /**
+     * Lists the files cached as {algorithm}/{xx}/{hash}, leaving out the files whose space would not be freed.
+     *
+     * @return total size of the files listed.
+     */
+    private long scan(List<Entry> entries) throws IOException {
+        if (!Files.isDirectory(cacheDirectory))
+            return 0;
+
+        long[] total = new long[1];
+        Files.walkFileTree(cacheDirectory, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String key = getKey(file);
+                if (key == null || !attrs.isRegularFile() || file.getFileName().toString().endsWith(".tmp"))
+                    return FileVisitResult.CONTINUE;
+                if (!isEvictable(file, key))
+                    return FileVisitResult.CONTINUE;
+
+                Usage usage = usages.get(key);
+                long lastAccess = usage != null ? usage.lastAccess : attrs.lastModifiedTime().toMillis();
+                entries.add(new Entry(file, key, attrs.size(), lastAccess, usage != null ? usage.hits : 0));
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    /**
+     * @return true if deleting the cached file frees its space, that is it is not hard-linked elsewhere.
+     */
+    private boolean isEvictable(Path file, String key) {
+        int links = getLinkCount(file);
+        if (links >= 0)
+            return links == 1;
+        Usage usage = usages.get(key);
+        return usage == null || !usage.isLinked();
+    }
+
+    /**
+     * @return count of hard links to the file, -1 if not known, as on Windows.
+     */
+    private int getLinkCount(Path file) {
+        if (!linkCounted)
+            return -1;
+        try {
+            Object links = Files.getAttribute(file, "unix:nlink");
+            return links instanceof Integer ? (Integer) links : -1;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the path of the file relative to the cache directory if it is a cached file, null otherwise.
+     */
+    private String getKey(Path file) {
+        Path relative;
+        try {
+            relative = cacheDirectory.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (relative.getNameCount() != 3 || relative.startsWith(".."))
+            return null;
+        return relative.toString().replace('\\', '/');
+    }
+
+    private void changed() {
+        if (System.currentTimeMillis() - lastSave >= SAVE_INTERVAL) {
+            lastSave = System.currentTimeMillis();
+            writer.accept(null);
+        }
+    }
+
+    /**
+     * Saves usage of cached files.
+     */
+    public synchronized void save() throws IOException {
+        lastSave = System.currentTimeMillis();
+        Map<String, Usage> snapshot = new TreeMap<>();
+        usages.forEach((key, usage) -> snapshot.put(key, usage.copy()));
+        Path temp = usageFile.resolveSibling(usageFile.getFileName() + ".tmp");
+        FileUtils.writeText(temp.toFile(), GSON.toJson(snapshot, TYPE));
+        Files.move(temp, usageFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save usage of cached files", e);
+        }
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        synchronized (this) {
+            if (loaded)
+                return;
+            loaded = true;
+            if (!Files.isRegularFile(usageFile))
+                return;
+
+            try {
+                Map<String, Usage> saved = GSON.fromJson(FileUtils.readText(usageFile), TYPE);
+                if (saved != null)
+                    saved.forEach((key, usage) -> {
+                        if (key != null && usage != null)
+                            usages.putIfAbsent(key, usage);
+                    });
+            } catch (IOException | JsonParseException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read usage of cached files", e);
+            }
+        }
+    }
+
+    private static final class Usage {
+        @SerializedName("a")
+        private long lastAccess;
+        @SerializedName("h")
+        private int hits;
+        /**
+         * True if the file has been hard-linked elsewhere by the launcher, it may still be.
+         */
+        @SerializedName("l")
+        private boolean linked;
+
+        synchronized void hit(long now) {
+            lastAccess = now;
+            hits++;
+        }
+
+        synchronized void link() {
+            linked = true;
+        }
+
+        synchronized boolean isLinked() {
+            return linked;
+        }
+
+        synchronized Usage copy() {
+            Usage usage = new Usage();
+            usage.lastAccess = lastAccess;
+            usage.hits = hits;
+            usage.linked = linked;
+            return usage;
+        }
+    }
+
+    private static final class Entry {
+        private final Path path;
+        private final String key;
+        private final long size;
+        private final long lastAccess;
+        private final int hits;
+
+        Entry(Path path, String key, long size, long lastAccess, int hits) {
+            this.path = path;
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.hits = hits;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package ru.spark.slauncher.util;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
 import ru.spark.slauncher.util.function.ExceptionalSupplier;
 import ru.spark.slauncher.util.gson.JsonUtils;
+import ru.spark.slauncher.util.io.FileMaterializer;
 import ru.spark.slauncher.util.io.FileUtils;
 import ru.spark.slauncher.util.io.IOUtils;
 
@@ -17,11 +19,13 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiFunction;
@@ -32,33 +36,61 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static ru.spark.slauncher.util.Logging.LOG;
 
 public class CacheRepository {
+    /**
+     * Size in bytes the ETag log grows to before it is merged into etag.json.
+     */
+    private static final long COMPACT_THRESHOLD = 64 * 1024;
+    private static final Gson LOG_GSON = new Gson();
+    private static final Map<Path, Object> LOG_MONITORS = new ConcurrentHashMap<>();
+
     private Path commonDirectory;
     private Path cacheDirectory;
     private Path indexFile;
+    private Path indexLogFile;
     private Map<String, ETagItem> index;
+    private final Queue<ETagItem> unsavedETags = new ConcurrentLinkedQueue<>();
+    private final InvocationDispatcher<Object> eTagWriter = InvocationDispatcher.runOn(Lang::thread, ignored -> {
+        try {
+            writeETagIndex(false);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to save ETag index", e);
+        }
+    });
+    private ChecksumJournal checksumJournal;
+    private CacheEvictor cacheEvictor;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public void changeDirectory(Path commonDir) {
         commonDirectory = commonDir;
         cacheDirectory = commonDir.resolve("cache");
         indexFile = cacheDirectory.resolve("etag.json");
+        indexLogFile = cacheDirectory.resolve("etag.log");
+        checksumJournal = new ChecksumJournal(cacheDirectory.resolve("checksums.json"));
+        cacheEvictor = new CacheEvictor(cacheDirectory);
 
         lock.writeLock().lock();
         try {
-            if (Files.isRegularFile(indexFile)) {
-                ETagIndex raw = JsonUtils.GSON.fromJson(FileUtils.readText(indexFile.toFile()), ETagIndex.class);
-                if (raw == null)
-                    index = new HashMap<>();
-                else
-                    index = joinETagIndexes(raw.eTag);
-            } else
-                index = new HashMap<>();
-        } catch (IOException | JsonParseException e) {
-            LOG.log(Level.WARNING, "Unable to read index file", e);
-            index = new HashMap<>();
+            unsavedETags.clear();
+            ETagIndex raw = null;
+            try {
+                if (Files.isRegularFile(indexFile))
+                    raw = JsonUtils.GSON.fromJson(FileUtils.readText(indexFile.toFile()), ETagIndex.class);
+            } catch (IOException | JsonParseException e) {
+                LOG.log(Level.WARNING, "Unable to read index file", e);
+            }
+            List<ETagItem> logged = Collections.emptyList();
+            try {
+                if (Files.isRegularFile(indexLogFile))
+                    logged = readETagLog(new String(Files.readAllBytes(indexLogFile), UTF_8));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to read ETag log", e);
+            }
+            index = joinETagIndexes(raw == null ? null : raw.eTag, logged);
         } finally {
             lock.writeLock().unlock();
         }
+
+        cacheEvictor.evictLater();
     }
 
     public Path getCommonDirectory() {
@@ -69,6 +101,82 @@ public class CacheRepository {
         return cacheDirectory;
     }
 
+    /**
+     * @return the journal of the digests of local files, saved in the cache directory.
+     */
+    public ChecksumJournal getChecksumJournal() {
+        return checksumJournal;
+    }
+
+    /**
+     * @return the evictor keeping the cache directory within the size limit.
+     */
+    public CacheEvictor getCacheEvictor() {
+        return cacheEvictor;
+    }
+
+    /**
+     * Records that a cached file is served, so that it is evicted later than files not used.
+     */
+    protected void onCacheAccess(Path cache) {
+        CacheEvictor evictor = cacheEvictor;
+        if (evictor != null)
+            evictor.onAccess(cache);
+    }
+
+    /**
+     * Records that a cached file is hard-linked elsewhere, so that it is not evicted.
+     */
+    protected void onCacheLinked(Path cache) {
+        CacheEvictor evictor = cacheEvictor;
+        if (evictor != null)
+            evictor.onLinked(cache);
+    }
+
+    /**
+     * Records that a file is added to the cache, which may start eviction.
+     */
+    protected void onCacheAdded(Path cache) {
+        CacheEvictor evictor = cacheEvictor;
+        if (evictor != null)
+            evictor.onAdded(cache);
+    }
+
+    /**
+     * Computes the digest of a local file, or takes it from the checksum journal if the file has not changed
+     * since it was last hashed.
+     *
+     * @param algorithm the algorithm of the digest.
+     * @param file      the file.
+     * @return the digest in lowercase hex.
+     */
+    public String digest(String algorithm, Path file) throws IOException {
+        ChecksumJournal journal = checksumJournal;
+        if (journal == null)
+            return Hex.encodeHex(DigestUtils.digest(algorithm, file));
+        return journal.digest(algorithm, file);
+    }
+
+    /**
+     * Places a cached file at {@code target} like {@link FileMaterializer#materialize(Path, Path)}, recording it
+     * if it is hard-linked there.
+     *
+     * @param cache the file in the cache directory.
+     */
+    public void placeCachedFile(Path cache, Path target) throws IOException {
+        if (FileMaterializer.materialize(cache, target) == FileMaterializer.Strategy.HARD_LINK)
+            onCacheLinked(cache);
+    }
+
+    /**
+     * Places {@code path} in the cache at {@code cache}, recording the cached file if it is hard-linked to {@code path}.
+     */
+    protected void materializeCache(Path path, Path cache) throws IOException {
+        if (FileMaterializer.materialize(path, cache) == FileMaterializer.Strategy.HARD_LINK)
+            onCacheLinked(cache);
+        onCacheAdded(cache);
+    }
+
     protected Path getFile(String algorithm, String hash) {
         return getCacheDirectory().resolve(algorithm).resolve(hash.substring(0, 2)).resolve(hash);
     }
@@ -78,7 +186,7 @@ public class CacheRepository {
         Path file = getFile(algorithm, hash);
         if (Files.exists(file)) {
             try {
-                return Hex.encodeHex(DigestUtils.digest(algorithm, file)).equalsIgnoreCase(hash);
+                return digest(algorithm, file).equalsIgnoreCase(hash);
             } catch (IOException e) {
                 return false;
             }
@@ -90,23 +198,26 @@ public class CacheRepository {
     public void tryCacheFile(Path path, String algorithm, String hash) throws IOException {
         Path cache = getFile(algorithm, hash);
         if (Files.isRegularFile(cache)) return;
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        materializeCache(path, cache);
     }
 
     public Path cacheFile(Path path, String algorithm, String hash) throws IOException {
         Path cache = getFile(algorithm, hash);
-        FileUtils.copyFile(path.toFile(), cache.toFile());
+        materializeCache(path, cache);
         return cache;
     }
 
     public Optional<Path> checkExistentFile(Path original, String algorithm, String hash) {
-        if (fileExists(algorithm, hash))
-            return Optional.of(getFile(algorithm, hash));
+        if (fileExists(algorithm, hash)) {
+            Path cache = getFile(algorithm, hash);
+            onCacheAccess(cache);
+            return Optional.of(cache);
+        }
 
         if (original != null && Files.exists(original)) {
             if (hash != null) {
                 try {
-                    String checksum = Hex.encodeHex(DigestUtils.digest(algorithm, original));
+                    String checksum = digest(algorithm, original);
                     if (checksum.equalsIgnoreCase(hash))
                         return Optional.of(restore(original, () -> cacheFile(original, algorithm, hash)));
                 } catch (IOException e) {
@@ -140,10 +251,11 @@ public class CacheRepository {
         if (StringUtils.isBlank(eTagItem.hash) || !fileExists(SHA1, eTagItem.hash)) throw new FileNotFoundException();
         Path file = getFile(SHA1, eTagItem.hash);
         if (Files.getLastModifiedTime(file).toMillis() != eTagItem.localLastModified) {
-            String hash = Hex.encodeHex(DigestUtils.digest(SHA1, file));
+            String hash = digest(SHA1, file);
             if (!Objects.equals(hash, eTagItem.hash))
                 throw new IOException("This file is modified");
         }
+        onCacheAccess(file);
         return file;
     }
 
@@ -173,41 +285,52 @@ public class CacheRepository {
         //     conn.setRequestProperty("If-Modified-Since", eTagItem.getRemoteLastModified());
     }
 
-    public synchronized void cacheRemoteFile(Path downloaded, URLConnection conn) throws IOException {
+    public void cacheRemoteFile(Path downloaded, URLConnection conn) throws IOException {
         String eTag = conn.getHeaderField("ETag");
         if (eTag == null) return;
         String url = conn.getURL().toString();
         String lastModified = conn.getHeaderField("Last-Modified");
-        String hash = Hex.encodeHex(DigestUtils.digest(SHA1, downloaded));
+        String hash = digest(SHA1, downloaded);
         Path cached = cacheFile(downloaded, SHA1, hash);
-        ETagItem eTagItem = new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified);
-        Lock writeLock = lock.writeLock();
-        writeLock.lock();
-        try {
-            index.compute(eTagItem.url, updateEntity(eTagItem));
-            saveETagIndex();
-        } finally {
-            writeLock.unlock();
-        }
+        putETagItem(new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified));
     }
 
-    public synchronized void cacheText(String text, URLConnection conn) throws IOException {
+    public void cacheText(String text, URLConnection conn) throws IOException {
         String eTag = conn.getHeaderField("ETag");
         if (eTag == null) return;
         String url = conn.getURL().toString();
         String lastModified = conn.getHeaderField("Last-Modified");
         String hash = Hex.encodeHex(DigestUtils.digest(SHA1, text));
         Path cached = getFile(SHA1, hash);
-        FileUtils.writeText(cached.toFile(), text);
-        ETagItem eTagItem = new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified);
-        Lock writeLock = lock.writeLock();
-        writeLock.lock();
+        if (!Files.isRegularFile(cached)) {
+            // Another thread may be caching the same text, so the file is moved in place only when complete.
+            Files.createDirectories(cached.getParent());
+            Path temp = Files.createTempFile(cached.getParent(), hash, ".tmp");
+            try {
+                FileUtils.writeText(temp.toFile(), text);
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            onCacheAdded(cached);
+        } else {
+            onCacheAccess(cached);
+        }
+        putETagItem(new ETagItem(url, eTag, hash, Files.getLastModifiedTime(cached).toMillis(), lastModified));
+    }
+
+    /**
+     * Updates the index in memory at once, the entry is saved in background.
+     */
+    private void putETagItem(ETagItem eTagItem) {
+        lock.readLock().lock();
         try {
             index.compute(eTagItem.url, updateEntity(eTagItem));
-            saveETagIndex();
         } finally {
-            writeLock.unlock();
+            lock.readLock().unlock();
         }
+        unsavedETags.add(eTagItem);
+        eTagWriter.accept(null);
     }
 
     private BiFunction<String, ETagItem, ETagItem> updateEntity(ETagItem newItem) {
@@ -215,11 +338,14 @@ public class CacheRepository {
             if (oldItem == null) {
                 return newItem;
             } else if (oldItem.compareTo(newItem) < 0) {
-                Path cached = getFile(SHA1, oldItem.hash);
-                try {
-                    Files.deleteIfExists(cached);
-                } catch (IOException e) {
-                    LOG.log(Level.WARNING, "Cannot delete old file");
+                // The content may be the same as before, then the cached file is still in use.
+                if (!Objects.equals(oldItem.hash, newItem.hash)) {
+                    Path cached = getFile(SHA1, oldItem.hash);
+                    try {
+                        Files.deleteIfExists(cached);
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Cannot delete old file");
+                    }
                 }
                 return newItem;
             } else {
@@ -242,23 +368,102 @@ public class CacheRepository {
         return eTags;
     }
 
+    /**
+     * Saves the entries not saved yet, and merges the ETag log into etag.json together with the entries
+     * saved by other launchers sharing the cache directory.
+     */
     public void saveETagIndex() throws IOException {
+        writeETagIndex(true);
+    }
+
+    /**
+     * A file lock is held by the whole JVM, so repositories of the same directory take turns by this monitor
+     * before locking a log shared with other launchers.
+     */
+    protected static Object getLogMonitor(Path logFile) {
+        return LOG_MONITORS.computeIfAbsent(logFile.toAbsolutePath().normalize(), path -> new Object());
+    }
+
+    /**
+     * Appends the entries cached since last call to the ETag log, which is shared with other launchers
+     * through its file lock. The log is merged into etag.json, locked as well, when it has grown long.
+     */
+    private void writeETagIndex(boolean compact) throws IOException {
+        Path logFile = indexLogFile;
+        if (logFile == null) return;
+
+        synchronized (getLogMonitor(logFile)) {
+            // Entries leave the queue only after reaching the log, so a failed write leaves them for the next one.
+            List<ETagItem> items = new ArrayList<>(unsavedETags);
+            StringBuilder lines = new StringBuilder();
+            for (ETagItem eTagItem : items)
+                lines.append(LOG_GSON.toJson(eTagItem)).append('\n');
+
+            Files.createDirectories(logFile.getParent());
+            try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock logLock = log.lock();
+                try {
+                    if (lines.length() > 0) {
+                        log.position(log.size());
+                        IOUtils.write(lines.toString().getBytes(UTF_8), Channels.newOutputStream(log));
+                        for (ETagItem eTagItem : items)
+                            unsavedETags.remove(eTagItem);
+                    }
+
+                    if (compact || log.size() >= COMPACT_THRESHOLD)
+                        compactETagIndex(log);
+                } finally {
+                    logLock.release();
+                }
+            }
+        }
+    }
+
+    private void compactETagIndex(FileChannel log) throws IOException {
+        log.position(0);
+        List<ETagItem> logged = readETagLog(new String(IOUtils.readFullyWithoutClosing(Channels.newInputStream(log)), UTF_8));
+
         try (RandomAccessFile file = new RandomAccessFile(indexFile.toFile(), "rw"); FileChannel channel = file.getChannel()) {
             FileLock lock = channel.lock();
             try {
                 ETagIndex indexOnDisk = JsonUtils.fromMaybeMalformedJson(new String(IOUtils.readFullyWithoutClosing(Channels.newInputStream(channel)), UTF_8), ETagIndex.class);
-                Map<String, ETagItem> newIndex = joinETagIndexes(indexOnDisk == null ? null : indexOnDisk.eTag, index.values());
+                Map<String, ETagItem> newIndex = joinETagIndexes(indexOnDisk == null ? null : indexOnDisk.eTag, logged, index.values());
                 channel.truncate(0);
                 OutputStream os = Channels.newOutputStream(channel);
                 ETagIndex writeTo = new ETagIndex(newIndex.values());
                 IOUtils.write(JsonUtils.GSON.toJson(writeTo).getBytes(UTF_8), os);
-                this.index = newIndex;
+                log.truncate(0);
+
+                // Takes in the entries saved by other launchers.
+                this.lock.readLock().lock();
+                try {
+                    newIndex.values().forEach(item -> index.compute(item.url, updateEntity(item)));
+                } finally {
+                    this.lock.readLock().unlock();
+                }
             } finally {
                 lock.release();
             }
         }
     }
 
+    private List<ETagItem> readETagLog(String content) {
+        List<ETagItem> items = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            if (StringUtils.isBlank(line))
+                continue;
+            try {
+                ETagItem item = LOG_GSON.fromJson(line, ETagItem.class);
+                if (item != null && item.url != null)
+                    items.add(item);
+            } catch (JsonParseException e) {
+                // The last line may be cut short by a crash.
+                LOG.log(Level.WARNING, "Skipped malformed entry of ETag log: " + line);
+            }
+        }
+        return items;
+    }
+
     private class ETagIndex {
         private final Collection<ETagItem> eTag;
 
@@ -0,0 +1,278 @@
+package ru.spark.slauncher.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import ru.spark.slauncher.util.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Remembers the digests of local files, so that a file not changed since is not hashed again.
+ * <p>
+ * A recorded digest is trusted only while the size, the last modified time and the file key
+ * (the inode on most file systems) of the file stay the same, a record found outdated by a lookup is dropped.
+ * Records of files deleted since are dropped once per process, when the journal is first saved. The journal is
+ * shared by all threads, and launchers sharing the cache directory merge their records when saving.
+ *
+ * @author spark1337
+ */
+public final class ChecksumJournal {
+
+    private static final long SAVE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Not pretty printed, the journal holds an entry for every asset object.
+     */
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final Type TYPE = new TypeToken<Map<String, Entry>>() {
+    }.getType();
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> dropped = ConcurrentHashMap.newKeySet();
+    private final InvocationDispatcher<Object> writer = InvocationDispatcher.runOn(Lang::thread, ignored -> saveQuietly());
+    private volatile boolean loaded;
+    private volatile boolean dirty;
+    private volatile long lastSave = System.currentTimeMillis();
+    private boolean compacted;
+
+    /**
+     * @param file where the journal is saved.
+     */
+    public ChecksumJournal(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @param path      the file.
+     * @param algorithm the algorithm of the digest.
+     * @return the digest in hex recorded for the file, null if not recorded or the file has changed since.
+     */
+    public String getRecordedDigest(Path path, String algorithm) throws IOException {
+        return getRecordedDigest(path, Files.readAttributes(path, BasicFileAttributes.class), algorithm);
+    }
+
+    /**
+     * @param attributes the attributes of the file read just now.
+     * @see #getRecordedDigest(Path, String)
+     */
+    public String getRecordedDigest(Path path, BasicFileAttributes attributes, String algorithm) {
+        load();
+        String key = getKey(path);
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (!entry.matches(attributes)) {
+            // The file has changed, the record will never match again.
+            if (entries.remove(key, entry)) {
+                dropped.add(key);
+                dirty = true;
+            }
+            return null;
+        }
+        return entry.digests.get(algorithm);
+    }
+
+    /**
+     * Takes the recorded digest of the file if it has not changed, or computes and records it.
+     *
+     * @param algorithm the algorithm of the digest.
+     * @param path      the file.
+     * @return the digest in hex.
+     */
+    public String digest(String algorithm, Path path) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+        String digest = getRecordedDigest(path, before, algorithm);
+        if (digest != null)
+            return digest;
+
+        digest = Hex.encodeHex(DigestUtils.digest(algorithm, path));
+
+        // The file may be written while hashing, then the digest is not worth recording.
+        BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+        if (before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime()))
+            record(path, after, algorithm, digest);
+        return digest;
+    }
+
+    /**
+     * Records the digest of a file just verified by other means, such as a download computing it on the fly.
+     *
+     * @param path      the file, not changed since the digest was computed.
+     * @param algorithm the algorithm of the digest.
+     * @param digest    the digest in hex.
+     */
+    public void record(Path path, String algorithm, String digest) throws IOException {
+        record(path, Files.readAttributes(path, BasicFileAttributes.class), algorithm, digest);
+    }
+
+    private void record(Path path, BasicFileAttributes attributes, String algorithm, String digest) {
+        load();
+        entries.compute(getKey(path), (key, entry) -> {
+            Entry newEntry = entry != null && entry.matches(attributes) ? entry.copy() : new Entry(attributes);
+            newEntry.digests.put(algorithm, digest.toLowerCase());
+            return newEntry;
+        });
+        dirty = true;
+
+        if (System.currentTimeMillis() - lastSave >= SAVE_INTERVAL) {
+            lastSave = System.currentTimeMillis();
+            writer.accept(null);
+        }
+    }
+
+    /**
+     * Saves the journal if anything has been recorded since it was loaded or saved.
+     * <p>
+     * Records saved by others meanwhile are kept, records dropped by lookups are removed.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty)
+            return;
+        dirty = false;
+        lastSave = System.currentTimeMillis();
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw"); FileChannel channel = raf.getChannel()) {
+            FileLock lock = channel.lock();
+            try {
+                Map<String, Entry> merged = new TreeMap<>(read(new String(IOUtils.readFullyWithoutClosing(Channels.newInputStream(channel)), UTF_8)));
+                Set<String> dropped = new HashSet<>(this.dropped);
+                merged.keySet().removeAll(dropped);
+                merged.putAll(entries);
+                if (!compacted) {
+                    // Checking every record costs a stat per file, which is done only once per process.
+                    merged.keySet().removeIf(key -> !Files.isRegularFile(Paths.get(key)));
+                    compacted = true;
+                }
+
+                channel.truncate(0);
+                OutputStream os = Channels.newOutputStream(channel);
+                IOUtils.write(GSON.toJson(merged, TYPE).getBytes(UTF_8), os);
+                this.dropped.removeAll(dropped);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            Logging.LOG.log(Level.WARNING, "Unable to save checksum journal " + file, e);
+        }
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        synchronized (this) {
+            if (loaded)
+                return;
+            loaded = true;
+            if (!Files.isRegularFile(file))
+                return;
+
+            try {
+                read(new String(Files.readAllBytes(file), UTF_8)).forEach(entries::putIfAbsent);
+            } catch (IOException e) {
+                Logging.LOG.log(Level.WARNING, "Unable to read checksum journal " + file, e);
+            }
+        }
+    }
+
+    private Map<String, Entry> read(String json) {
+        Map<String, Entry> result = new HashMap<>();
+        try {
+            Map<String, Entry> saved = GSON.fromJson(json, TYPE);
+            if (saved != null)
+                saved.forEach((key, entry) -> {
+                    if (key != null && entry != null && entry.digests != null)
+                        result.put(key, entry);
+                });
+        } catch (JsonParseException e) {
+            // A journal broken by a crash while saving only costs hashing again.
+            Logging.LOG.log(Level.WARNING, "Checksum journal " + file + " is malformed", e);
+        }
+        return result;
+    }
+
+    private static String getKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static final class Entry {
+        @SerializedName("s")
+        private final long size;
+        @SerializedName("m")
+        private final long lastModified;
+
+        /**
+         * The file key of the file, null if the file system does not provide one.
+         */
+        @SerializedName("k")
+        private final String fileKey;
+
+        @SerializedName("d")
+        private final Map<String, String> digests;
+
+        /**
+         * For Gson.
+         */
+        Entry() {
+            this(0, 0, null);
+        }
+
+        Entry(BasicFileAttributes attributes) {
+            this(attributes.size(), attributes.lastModifiedTime().toMillis(), Objects.toString(attributes.fileKey(), null));
+        }
+
+        Entry(long size, long lastModified, String fileKey) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.digests = new HashMap<>();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            if (size != attributes.size() || lastModified != attributes.lastModifiedTime().toMillis())
+                return false;
+            Object key = attributes.fileKey();
+            return fileKey == null || key == null || fileKey.equals(key.toString());
+        }
+
+        Entry copy() {
+            Entry entry = new Entry(size, lastModified, fileKey);
+            entry.digests.putAll(digests);
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package ru.spark.slauncher.util;
+
+import ru.spark.slauncher.util.io.FileMaterializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * Keeps a single copy of identical instance files, such as mods and resource packs shared by many versions
+ * and modpack instances, in the cache directory of {@link CacheRepository} by their SHA-1.
+ * <p>
+ * Instance files are linked to the stored copy by {@link FileMaterializer}. Only archives are stored, since
+ * they are replaced rather than written in place, while configs edited by the game would be written through
+ * the link into every instance sharing it. A tool may still write an archive in place, changing the stored copy
+ * as well, so stored copies are verified by their full digest before being placed again, and dropped from the
+ * store if changed.
+ *
+ * @author spark1337
+ */
+public final class ContentStore {
+
+    /**
+     * Smaller files take a block whether linked or not.
+     */
+    private static final long MIN_SIZE = 4096;
+
+    private static volatile boolean enabled;
+
+    private final CacheRepository repository;
+
+    public ContentStore(CacheRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @return true if versions duplicated and modpacks installed are placed from the store.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ContentStore.enabled = enabled;
+    }
+
+    /**
+     * @param name the file name or path.
+     * @return true if the file is an archive not written in place.
+     */
+    public static boolean isStorable(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".jar") || lower.endsWith(".zip") || lower.endsWith(".litemod");
+    }
+
+    private static boolean isStorable(Path file, BasicFileAttributes attributes) {
+        return attributes.isRegularFile() && attributes.size() >= MIN_SIZE && isStorable(file.getFileName().toString());
+    }
+
+    /**
+     * Places the stored file with given content at {@code target}, replacing the existing one.
+     *
+     * @param hash the SHA-1 of the content.
+     * @return false if the content is not stored.
+     */
+    public boolean place(Path target, String hash) throws IOException {
+        if (hash == null)
+            return false;
+        Path stored = repository.getFile(CacheRepository.SHA1, hash);
+        if (!Files.isRegularFile(stored))
+            return false;
+
+        // Not taken from the checksum journal, a write in place may keep the size and the last modified time.
+        if (!hash.equalsIgnoreCase(Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, stored)))) {
+            Logging.LOG.warning("Stored file " + stored + " has been changed in place, removing it from the store");
+            Files.deleteIfExists(stored);
+            return false;
+        }
+        repository.placeCachedFile(stored, target);
+        repository.onCacheAccess(stored);
+        return true;
+    }
+
+    /**
+     * Reads the content from {@code input} and places the stored file with the same content at {@code target}.
+     *
+     * @return false if the content is not stored, {@code target} is left untouched.
+     */
+    public boolean place(Path target, InputStream input) throws IOException {
+        return place(target, Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, input)));
+    }
+
+    /**
+     * Links the file to the stored copy of its content, storing it if not stored yet.
+     *
+     * @return bytes saved, negative if the store lies on another file system and the file has to be copied into it.
+     */
+    public long store(Path file) throws IOException {
+        String hash = repository.digest(CacheRepository.SHA1, file);
+        Path stored = repository.getFile(CacheRepository.SHA1, hash);
+        if (Files.exists(stored) && Files.isSameFile(stored, file))
+            return 0;
+
+        long size = Files.size(file);
+        if (place(file, hash))
+            return Files.isSameFile(stored, file) ? size : 0;
+
+        repository.cacheFile(file, CacheRepository.SHA1, hash);
+        return Files.isSameFile(stored, file) ? 0 : -size;
+    }
+
+    /**
+     * Copies a directory like {@link ru.spark.slauncher.util.io.FileUtils#copyDirectory(Path, Path, Predicate)},
+     * but archives are placed from the store, or stored after copied. Files of {@code src} are not touched.
+     */
+    public void copyDirectory(Path src, Path dest, Predicate<String> filePredicate) throws IOException {
+        Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!filePredicate.test(src.relativize(file).toString()))
+                    return FileVisitResult.SKIP_SUBTREE;
+
+                Path destFile = dest.resolve(src.relativize(file).toString());
+                if (isStorable(file, attrs)) {
+                    // The source is left as it is, only the copy is linked to the store.
+                    try {
+                        if (!place(destFile, repository.digest(CacheRepository.SHA1, file))) {
+                            Files.copy(file, destFile, StandardCopyOption.REPLACE_EXISTING);
+                            store(destFile);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException e) {
+                        Logging.LOG.log(Level.WARNING, "Unable to store " + destFile + ", copying it", e);
+                    }
+                }
+                Files.copy(file, destFile, StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!filePredicate.test(src.relativize(dir).toString()))
+                    return FileVisitResult.SKIP_SUBTREE;
+
+                Files.createDirectories(dest.resolve(src.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Links every archive in the directory to the store, skipping saves and the cache directory itself.
+     *
+     * @param report where the result is added.
+     */
+    public void dedupe(Path directory, Report report) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+
+        Path cacheDirectory = repository.getCacheDirectory().toAbsolutePath().normalize();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.toAbsolutePath().normalize().equals(cacheDirectory) || "saves".equals(String.valueOf(dir.getFileName())))
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!isStorable(file, attrs))
+                    return FileVisitResult.CONTINUE;
+
+                report.files++;
+                try {
+                    long saved = store(file);
+                    if (saved > 0)
+                        report.linked++;
+                    report.savedBytes += saved;
+                } catch (IOException e) {
+                    Logging.LOG.log(Level.WARNING, "Unable to deduplicate " + file, e);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Result of {@link #dedupe(Path, Report)}.
+     */
+    public static final class Report {
+        private int files;
+        private int linked;
+        private long savedBytes;
+
+        /**
+         * @return archives found.
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return archives linked to a copy stored before.
+         */
+        public int getLinked() {
+            return linked;
+        }
+
+        public long getSavedBytes() {
+            return savedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this)
+                    .append("files", files)
+                    .append("linked", linked)
+                    .append("savedBytes", savedBytes)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ru.spark.slauncher.util.io;
+
+import ru.spark.slauncher.util.Logging;
+import ru.spark.slauncher.util.platform.OperatingSystem;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Places a copy of a cached file somewhere else, preferring ways that do not copy the content.
+ * <p>
+ * The cache repository keeps every verified file once, and assets and libraries of game versions are placed
+ * from there. A hard link takes no extra disk space and no time, a reflink (copy-on-write clone) is as cheap
+ * but only some file systems support it, {@link FileChannel#transferTo} lets the kernel copy the content.
+ * Ways failing because the file systems do not support them are skipped for those file systems from then on,
+ * other failures only make the following ways tried for this file. Files are placed under a temporary name first
+ * and moved over the target, so that concurrent placements of the same target do not fail each other.
+ * <p>
+ * A hard-linked file shares its content with the cache, so callers must replace such files rather than
+ * write them in place. Files are verified by their digests before being placed, and downloads always replace
+ * the target.
+ *
+ * @author spark1337
+ */
+public final class FileMaterializer {
+
+    private FileMaterializer() {
+    }
+
+    public enum Strategy {
+        /**
+         * Picks the first working way for the file systems, in the order below.
+         */
+        AUTO,
+        HARD_LINK,
+        REFLINK,
+        TRANSFER,
+        COPY
+    }
+
+    private static volatile Strategy strategy = Strategy.AUTO;
+    private static final Map<String, Strategy> working = new ConcurrentHashMap<>();
+
+    public static Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @param strategy the preferred way, the following ones are still tried if it does not work. Null means {@link Strategy#AUTO}.
+     */
+    public static void setStrategy(Strategy strategy) {
+        FileMaterializer.strategy = strategy == null ? Strategy.AUTO : strategy;
+        working.clear();
+    }
+
+    /**
+     * Makes {@code target} a file with the same content and last modified time as {@code source}, replacing the existing one.
+     *
+     * @param source the file in the cache.
+     * @param target where the file is needed.
+     * @return the way used.
+     */
+    public static Strategy materialize(Path source, Path target) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Source '" + source + "' does not exist");
+        }
+        if (!attributes.isRegularFile())
+            throw new IOException("Source '" + source + "' exists but is not a regular file");
+
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) {
+                if (strategy == Strategy.AUTO || strategy == Strategy.HARD_LINK)
+                    return Strategy.HARD_LINK;
+                // Writing the target would write the source as well.
+                Files.delete(target);
+            } else if (!Files.isWritable(target))
+                throw new IOException("Destination '" + target + "' exists but is read-only");
+        }
+
+        String key = getDevice(source, attributes) + "->" + getDevice(parent, null);
+        Strategy preferred = working.get(key);
+        if (preferred == null)
+            preferred = strategy == Strategy.AUTO ? Strategy.HARD_LINK : strategy;
+
+        Strategy[] strategies = Strategy.values();
+        // Only a way unsupported by the file systems is skipped next time, others may fail by chance.
+        boolean unsupported = true;
+        for (int i = preferred.ordinal(); i < strategies.length; i++) {
+            Strategy current = strategies[i];
+            if (current == Strategy.REFLINK && !isReflinkSupported())
+                continue;
+
+            Path temp = parent.resolve("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            try {
+                apply(current, source, temp, attributes);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                // Renaming a link onto another link of the same file leaves both in place.
+                Files.deleteIfExists(temp);
+                if (unsupported)
+                    working.putIfAbsent(key, current);
+                return current;
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.deleteIfExists(temp);
+                if (current == Strategy.COPY)
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                unsupported &= isUnsupported(e);
+                Logging.LOG.log(Level.FINE, "Unable to place " + target + " by " + current + ", trying the next way", e);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * @param target a file not existing yet.
+     */
+    private static void apply(Strategy strategy, Path source, Path target, BasicFileAttributes attributes) throws IOException {
+        switch (strategy) {
+            case HARD_LINK:
+                Files.createLink(target, source);
+                break;
+            case REFLINK:
+                reflink(source, target);
+                Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+                break;
+            case TRANSFER:
+                transfer(source, target, attributes.size());
+                Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+                break;
+            default:
+                Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+                break;
+        }
+    }
+
+    /**
+     * @return true if the failure tells the file systems do not support the way, like linking across devices.
+     */
+    private static boolean isUnsupported(Exception e) {
+        if (e instanceof UnsupportedOperationException)
+            return true;
+        String message = e instanceof FileSystemException ? ((FileSystemException) e).getReason() : e.getMessage();
+        if (message == null)
+            return false;
+        message = message.toLowerCase(Locale.ROOT);
+        return message.contains("cross-device") || message.contains("not supported") || message.contains("not permitted")
+                || message.contains("different disk drive");
+    }
+
+    private static void transfer(Path source, Path target, long size) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long position = 0;
+            while (position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0)
+                    throw new IOException("Unable to transfer " + source + " to " + target);
+                position += transferred;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private static void reflink(Path source, Path target) throws IOException {
+        String[] command = OperatingSystem.CURRENT_OS == OperatingSystem.OSX
+                ? new String[]{"cp", "-c", "-f", source.toString(), target.toString()}
+                : new String[]{"cp", "--reflink=always", "-f", source.toString(), target.toString()};
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try {
+            String output = IOUtils.readFullyAsString(process.getInputStream());
+            if (process.waitFor() != 0)
+                throw new IOException("Unable to clone " + source + " to " + target + ": " + output.trim());
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + source, e);
+        }
+    }
+
+    private static boolean isReflinkSupported() {
+        return OperatingSystem.CURRENT_OS == OperatingSystem.LINUX || OperatingSystem.CURRENT_OS == OperatingSystem.OSX;
+    }
+
+    /**
+     * @return an identifier of the file system holding given file, cheaper than looking up its {@link java.nio.file.FileStore}.
+     */
+    private static String getDevice(Path path, BasicFileAttributes attributes) throws IOException {
+        if (attributes == null)
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            // "(dev=803,ino=1234)" on Unix-like systems
+            String text = fileKey.toString();
+            int begin = text.indexOf("dev=");
+            if (begin >= 0) {
+                int end = text.indexOf(',', begin);
+                return text.substring(begin, end < 0 ? text.length() : end);
+            }
+        }
+        Path root = path.toAbsolutePath().getRoot();
+        return root == null ? "" : root.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,33 @@
+package ru.spark.slauncher.util.io;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Opens and redirects the connections made by {@link NetworkUtils} and download tasks.
+ *
+ * @author spark1337
+ * @see NetworkUtils#setTransport(HttpTransport)
+ */
+public interface HttpTransport {
+
+    /**
+     * Creates a connection not connected yet, request properties may be added by the caller.
+     *
+     * @param url the url to connect to.
+     * @return the connection.
+     * @throws IOException if an I/O error occurs.
+     */
+    URLConnection createConnection(URL url) throws IOException;
+
+    /**
+     * Connects and follows the redirects of the given connection.
+     *
+     * @param conn the connection created by {@link #createConnection(URL)}.
+     * @return the connection whose response is not a redirect.
+     * @throws IOException if an I/O error occurs.
+     */
+    HttpURLConnection resolveConnection(HttpURLConnection conn) throws IOException;
+}
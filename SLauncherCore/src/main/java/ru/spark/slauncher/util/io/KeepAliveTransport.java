@@ -0,0 +1,254 @@
+package ru.spark.slauncher.util.io;
+
+import ru.spark.slauncher.util.Logging;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * The default {@link HttpTransport}, reusing connections through the keep-alive cache of {@link HttpURLConnection}.
+ * <p>
+ * A connection returns to the pool of its host only when its response body has been read to the end and closed,
+ * so redirect responses are drained instead of disconnected. Permanent redirects of GET requests are remembered
+ * per URL, later requests of that URL go to the target directly.
+ * <p>
+ * The count of idle connections kept alive for each host is set by {@code http.maxConnections} at startup.
+ *
+ * @author spark1337
+ */
+public class KeepAliveTransport implements HttpTransport {
+
+    /**
+     * Redirect responses larger than this are not worth draining for reusing the connection.
+     */
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    /**
+     * Max count of redirects remembered, the least recently used ones are forgotten first.
+     */
+    private static final int MAX_REDIRECTS = 4096;
+
+    private final Map<String, String> redirects = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_REDIRECTS;
+        }
+    });
+    private final AtomicLong handshakes = new AtomicLong();
+    private volatile CountingSSLSocketFactory socketFactory;
+
+    @Override
+    public URLConnection createConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(15000);
+        connection.setReadTimeout(15000);
+        if (connection instanceof HttpsURLConnection)
+            ((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+        return connection;
+    }
+
+    /**
+     * This method is a work-around that aims to solve problem when "Location" in stupid server's response is not encoded.
+     *
+     * @see <a href="https://github.com/curl/curl/issues/473">Issue with libcurl</a>
+     */
+    @Override
+    public HttpURLConnection resolveConnection(HttpURLConnection conn) throws IOException {
+        String cachedTarget = "GET".equals(conn.getRequestMethod()) ? redirects.get(conn.getURL().toString()) : null;
+        if (cachedTarget != null) {
+            HttpURLConnection original = conn;
+            try {
+                HttpURLConnection redirected = follow(redirect(conn, new URL(cachedTarget)));
+                if (redirected.getResponseCode() / 100 != 4 && redirected.getResponseCode() / 100 != 5)
+                    return redirected;
+                redirected.disconnect();
+            } catch (IOException e) {
+                Logging.LOG.log(Level.FINE, "Cached redirect of " + original.getURL() + " failed", e);
+            }
+            // The mirror may have changed its redirect target.
+            redirects.remove(original.getURL().toString(), cachedTarget);
+            conn = original;
+        }
+
+        return follow(conn);
+    }
+
+    private HttpURLConnection follow(HttpURLConnection conn) throws IOException {
+        int redirect = 0;
+        while (true) {
+
+            conn.setUseCaches(false);
+            conn.setConnectTimeout(15000);
+            conn.setReadTimeout(15000);
+            conn.setInstanceFollowRedirects(false);
+            String method = conn.getRequestMethod();
+            Map<String, List<String>> properties = conn.getRequestProperties();
+            int code = conn.getResponseCode();
+            if (code >= 300 && code <= 308 && code != 306 && code != 304) {
+                String newURL = conn.getHeaderField("Location");
+                drain(conn);
+
+                if (redirect > 20) {
+                    throw new IOException("Too much redirects");
+                }
+
+                URL source = conn.getURL();
+                URL target = new URL(source, NetworkUtils.encodeLocation(newURL));
+                // Only permanent redirects may be reused, temporary ones may point elsewhere next time.
+                if ("GET".equals(method) && (code == 301 || code == 308))
+                    redirects.put(source.toString(), target.toString());
+
+                HttpURLConnection redirected = redirect(conn, target, properties);
+                redirected.setRequestMethod(method);
+                conn = redirected;
+                ++redirect;
+            } else {
+                break;
+            }
+        }
+        return conn;
+    }
+
+    private HttpURLConnection redirect(HttpURLConnection conn, URL target) throws IOException {
+        HttpURLConnection redirected = redirect(conn, target, conn.getRequestProperties());
+        redirected.setRequestMethod(conn.getRequestMethod());
+        return redirected;
+    }
+
+    private HttpURLConnection redirect(HttpURLConnection conn, URL target, Map<String, List<String>> properties) throws IOException {
+        URLConnection connection = createConnection(target);
+        if (!(connection instanceof HttpURLConnection))
+            throw new IOException("Unsupported redirect from " + conn.getURL() + " to " + target);
+        HttpURLConnection redirected = (HttpURLConnection) connection;
+        properties.forEach((key, value) -> value.forEach(element -> redirected.addRequestProperty(key, element)));
+        return redirected;
+    }
+
+    /**
+     * Reads the rest of the response so that the connection can be reused.
+     */
+    private static void drain(HttpURLConnection conn) {
+        try {
+            InputStream stream;
+            try {
+                stream = conn.getInputStream();
+            } catch (IOException e) {
+                stream = conn.getErrorStream();
+            }
+
+            if (stream == null)
+                return;
+
+            try (InputStream is = stream) {
+                byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
+                int total = 0;
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    total += len;
+                    if (total > MAX_DRAIN) {
+                        conn.disconnect();
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
+
+    private SSLSocketFactory getSocketFactory() {
+        // The keep-alive cache tells connections apart by their socket factory, so the same instance must be reused.
+        SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        CountingSSLSocketFactory factory = socketFactory;
+        if (factory == null || factory.delegate != defaultFactory) {
+            factory = new CountingSSLSocketFactory(defaultFactory, handshakes);
+            socketFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * @return count of TLS handshakes completed by connections of this transport, each of them is a new connection.
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return count of URLs whose redirect target is remembered.
+     */
+    public int getCachedRedirectCount() {
+        return redirects.size();
+    }
+
+    private static final class CountingSSLSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final AtomicLong handshakes;
+
+        CountingSSLSocketFactory(SSLSocketFactory delegate, AtomicLong handshakes) {
+            this.delegate = delegate;
+            this.handshakes = handshakes;
+        }
+
+        private Socket count(Socket socket) {
+            if (socket instanceof SSLSocket)
+                ((SSLSocket) socket).addHandshakeCompletedListener(event -> handshakes.incrementAndGet());
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return count(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return count(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return count(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return count(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return count(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
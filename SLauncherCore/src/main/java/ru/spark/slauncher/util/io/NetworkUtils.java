@@ -2,9 +2,9 @@ package ru.spark.slauncher.util.io;
 
 import java.io.*;
 import java.net.*;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static ru.spark.slauncher.util.StringUtils.*;
@@ -17,6 +17,21 @@ public final class NetworkUtils {
     private NetworkUtils() {
     }
 
+    private static volatile HttpTransport transport = new KeepAliveTransport();
+
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Replaces the transport that opens all connections of the launcher.
+     *
+     * @param transport the new transport.
+     */
+    public static void setTransport(HttpTransport transport) {
+        NetworkUtils.transport = Objects.requireNonNull(transport);
+    }
+
     public static String withQuery(String baseUrl, Map<String, String> params) {
         StringBuilder sb = new StringBuilder(baseUrl);
         boolean first = true;
@@ -37,11 +52,7 @@ public final class NetworkUtils {
     }
 
     public static URLConnection createConnection(URL url) throws IOException {
-        URLConnection connection = url.openConnection();
-        connection.setUseCaches(false);
-        connection.setConnectTimeout(15000);
-        connection.setReadTimeout(15000);
-        return connection;
+        return transport.createConnection(url);
     }
 
     public static HttpURLConnection createHttpConnection(URL url) throws IOException {
@@ -77,42 +88,15 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method is a work-around that aims to solve problem when "Location" in stupid server's response is not encoded.
+     * Connects and follows redirects manually.
      *
-     * @param conn the stupid http connection.
+     * @param conn the http connection.
      * @return manually redirected http connection.
      * @throws IOException if an I/O error occurs.
-     * @see <a href="https://github.com/curl/curl/issues/473">Issue with libcurl</a>
+     * @see HttpTransport#resolveConnection(HttpURLConnection)
      */
     public static HttpURLConnection resolveConnection(HttpURLConnection conn) throws IOException {
-        int redirect = 0;
-        while (true) {
-
-            conn.setUseCaches(false);
-            conn.setConnectTimeout(15000);
-            conn.setReadTimeout(15000);
-            conn.setInstanceFollowRedirects(false);
-            Map<String, List<String>> properties = conn.getRequestProperties();
-            String method = conn.getRequestMethod();
-            int code = conn.getResponseCode();
-            if (code >= 300 && code <= 307 && code != 306 && code != 304) {
-                String newURL = conn.getHeaderField("Location");
-                conn.disconnect();
-
-                if (redirect > 20) {
-                    throw new IOException("Too much redirects");
-                }
-
-                HttpURLConnection redirected = (HttpURLConnection) new URL(conn.getURL(), encodeLocation(newURL)).openConnection();
-                properties.forEach((key, value) -> value.forEach(element -> redirected.addRequestProperty(key, element)));
-                redirected.setRequestMethod(method);
-                conn = redirected;
-                ++redirect;
-            } else {
-                break;
-            }
-        }
-        return conn;
+        return transport.resolveConnection(conn);
     }
 
     public static String doGet(URL url) throws IOException {
@@ -0,0 +1,78 @@
+package ru.spark.slauncher.download;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.game.Artifact;
+import ru.spark.slauncher.game.LibrariesDownloadInfo;
+import ru.spark.slauncher.game.Library;
+import ru.spark.slauncher.game.LibraryDownloadInfo;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class DefaultCacheRepositoryTest {
+
+    private static final int LIBRARIES = 500;
+    private static final Pattern NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]+)\"");
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("library-index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    private static Library library(String name, int i) {
+        String hash = String.format(Locale.ROOT, "%08x%032x", name.hashCode(), i);
+        return new Library(new Artifact("test", name + i, "1.0"), null,
+                new LibrariesDownloadInfo(new LibraryDownloadInfo("test/" + name + i + ".jar", null, hash)));
+    }
+
+    @Test(timeout = 30000)
+    public void testLaunchersSharingIndex() throws Exception {
+        Path jar = directory.resolve("library.jar");
+        Files.write(jar, new byte[]{1, 2, 3});
+
+        // Two launchers sharing the cache directory append and compact the index in turn.
+        DefaultCacheRepository first = new DefaultCacheRepository(directory);
+        DefaultCacheRepository second = new DefaultCacheRepository(directory);
+        for (int i = 0; i < LIBRARIES; i++) {
+            first.cacheLibrary(library("first", i), jar, false);
+            second.cacheLibrary(library("second", i), jar, false);
+        }
+
+        Path cache = first.getCacheDirectory();
+        while (savedNames(cache).size() < 2 * LIBRARIES)
+            Thread.sleep(50);
+        Assert.assertEquals(2 * LIBRARIES, savedNames(cache).size());
+    }
+
+    private static Set<String> savedNames(Path cache) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (String file : new String[]{"index.json", "index.log"}) {
+            Path path = cache.resolve(file);
+            if (!Files.isRegularFile(path))
+                continue;
+            Matcher matcher = NAME.matcher(new String(Files.readAllBytes(path), UTF_8));
+            while (matcher.find())
+                names.add(matcher.group(1));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,140 @@
+package ru.spark.slauncher.game;
+
+import com.google.gson.JsonParseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.event.ChangedVersionsEvent;
+import ru.spark.slauncher.event.EventBus;
+import ru.spark.slauncher.event.LoadedOneVersionEvent;
+import ru.spark.slauncher.util.Lang;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Refreshes a game directory of 300 versions inheriting from one, as after installing a version.
+ */
+public class VersionRefreshTest {
+
+    private static final int VERSIONS = 300;
+
+    private File directory;
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final List<ChangedVersionsEvent> changes = new ArrayList<>();
+    private final Consumer<LoadedOneVersionEvent> loadedListener = event -> resolved.incrementAndGet();
+    private final Consumer<ChangedVersionsEvent> changedListener = changes::add;
+    private DefaultGameRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("versions").toFile();
+        writeVersion("base", null, 0);
+        for (int i = 0; i < VERSIONS; i++)
+            writeVersion("version" + i, "base", i);
+        // Old enough not to be taken as modified while read.
+        for (File dir : new File(directory, "versions").listFiles())
+            for (File file : dir.listFiles())
+                Assert.assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+
+        EventBus.EVENT_BUS.channel(LoadedOneVersionEvent.class).registerWeak(loadedListener);
+        EventBus.EVENT_BUS.channel(ChangedVersionsEvent.class).registerWeak(changedListener);
+        repository = new DefaultGameRepository(directory) {
+            @Override
+            public Version readVersionJson(File file) throws IOException, JsonParseException {
+                parsed.incrementAndGet();
+                return super.readVersionJson(file);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private void writeVersion(String id, String inheritsFrom, int seed) throws IOException {
+        StringBuilder libraries = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            if (i > 0) libraries.append(',');
+            libraries.append("{\"name\":\"org.example:library").append(i).append(":").append(seed).append("\"}");
+        }
+        File dir = new File(directory, "versions/" + id);
+        FileUtils.writeText(new File(dir, id + ".json"), "{\"id\":\"" + id + "\","
+                + (inheritsFrom == null ? "\"mainClass\":\"net.minecraft.client.main.Main\",\"type\":\"release\","
+                : "\"inheritsFrom\":\"" + inheritsFrom + "\",")
+                + "\"libraries\":[" + libraries + "]}");
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws IOException {
+        repository.refreshVersions();
+        Assert.assertEquals(VERSIONS + 1, repository.getVersionCount());
+        Assert.assertEquals(VERSIONS + 1, parsed.get());
+        Assert.assertEquals(VERSIONS + 1, changes.get(0).getAdded().size());
+
+        parsed.set(0);
+        resolved.set(0);
+        changes.clear();
+        repository.refreshVersions();
+        Assert.assertEquals(0, parsed.get());
+        Assert.assertEquals(0, resolved.get());
+        Assert.assertTrue(changes.isEmpty());
+
+        // Changing one version reads and resolves only that one.
+        writeVersion("version7", "base", 1000);
+        Assert.assertTrue(new File(directory, "versions/version7/version7.json").setLastModified(System.currentTimeMillis() - 30000));
+        FileUtils.deleteDirectory(new File(directory, "versions/version8"));
+        writeVersion("added", "base", 0);
+        Assert.assertTrue(new File(directory, "versions/added/added.json").setLastModified(System.currentTimeMillis() - 30000));
+        repository.refreshVersions();
+        Assert.assertEquals(2, parsed.get());
+        Assert.assertEquals(2, resolved.get());
+        Assert.assertEquals(1, changes.size());
+        Assert.assertEquals(Lang.immutableListOf("added"), new ArrayList<>(changes.get(0).getAdded()));
+        Assert.assertEquals(Lang.immutableListOf("version8"), new ArrayList<>(changes.get(0).getRemoved()));
+        Assert.assertEquals(Lang.immutableListOf("version7"), new ArrayList<>(changes.get(0).getChanged()));
+
+        // Changing the parent resolves all its children again.
+        parsed.set(0);
+        resolved.set(0);
+        changes.clear();
+        writeVersion("base", null, 1);
+        Assert.assertTrue(new File(directory, "versions/base/base.json").setLastModified(System.currentTimeMillis() - 30000));
+        repository.refreshVersions();
+        Assert.assertEquals(1, parsed.get());
+        Assert.assertEquals(VERSIONS + 1, resolved.get());
+        Assert.assertEquals(VERSIONS + 1, changes.get(0).getChanged().size());
+        Assert.assertNotNull(loadedListener);
+        Assert.assertNotNull(changedListener);
+    }
+
+    @Test
+    public void testResolvedVersionCache() throws IOException {
+        repository.refreshVersions();
+
+        Version resolved = repository.getResolvedVersion("version7");
+        Assert.assertSame(resolved, repository.getResolvedVersion("version7"));
+        Assert.assertSame(resolved, repository.getVersion("version7").resolve(repository));
+        Assert.assertEquals(60, resolved.getLibraries().size());
+        Version preservingPatches = repository.getResolvedPreservingPatchesVersion("version7");
+        Assert.assertSame(preservingPatches, repository.getResolvedPreservingPatchesVersion("version7"));
+
+        // Changing the parent invalidates the resolution of its children.
+        writeVersion("base", null, 1);
+        Assert.assertTrue(new File(directory, "versions/base/base.json").setLastModified(System.currentTimeMillis() - 30000));
+        repository.refreshVersions();
+        Version changed = repository.getResolvedVersion("version7");
+        Assert.assertNotSame(resolved, changed);
+        Assert.assertTrue(changed.getLibraries().stream().anyMatch(library -> "1".equals(library.getVersion())));
+        Assert.assertNotSame(preservingPatches, repository.getResolvedPreservingPatchesVersion("version7"));
+    }
+}
@@ -0,0 +1,114 @@
+package ru.spark.slauncher.game;
+
+import com.google.gson.JsonParseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.event.ChangedVersionsEvent;
+import ru.spark.slauncher.event.EventBus;
+import ru.spark.slauncher.util.Lang;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Adds, modifies and removes versions of a game directory of 300 versions while it is watched.
+ */
+public class VersionWatcherTest {
+
+    private static final int VERSIONS = 300;
+
+    private File directory;
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final BlockingQueue<ChangedVersionsEvent> changes = new LinkedBlockingQueue<>();
+    private final Consumer<ChangedVersionsEvent> changedListener = changes::add;
+    private DefaultGameRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("versions").toFile();
+        for (int i = 0; i < VERSIONS; i++)
+            writeVersion("version" + i);
+
+        EventBus.EVENT_BUS.channel(ChangedVersionsEvent.class).registerWeak(changedListener);
+        repository = new DefaultGameRepository(directory) {
+            @Override
+            public Version readVersionJson(File file) throws IOException, JsonParseException {
+                parsed.incrementAndGet();
+                return super.readVersionJson(file);
+            }
+        };
+        VersionWatcher.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        VersionWatcher.setEnabled(false);
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private void writeVersion(String id) throws IOException {
+        FileUtils.writeText(new File(directory, "versions/" + id + "/" + id + ".json"),
+                "{\"id\":\"" + id + "\",\"mainClass\":\"net.minecraft.client.main.Main\",\"type\":\"release\"}");
+    }
+
+    private ChangedVersionsEvent nextChange() throws InterruptedException {
+        ChangedVersionsEvent event = changes.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull("Changes should be seen without refreshing", event);
+        return event;
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        repository.refreshVersions();
+        Assert.assertEquals(VERSIONS, repository.getVersionCount());
+        changes.clear();
+        parsed.set(0);
+
+        writeVersion("added");
+        ChangedVersionsEvent event = nextChange();
+        Assert.assertEquals(Lang.immutableListOf("added"), new ArrayList<>(event.getAdded()));
+        Assert.assertTrue(repository.hasVersion("added"));
+        Assert.assertEquals("Only the added version should be read", 1, parsed.get());
+
+        FileUtils.writeText(new File(directory, "versions/version7/version7.json"),
+                "{\"id\":\"version7\",\"mainClass\":\"net.minecraft.client.main.Main\",\"type\":\"snapshot\"}");
+        event = nextChange();
+        Assert.assertEquals(Lang.immutableListOf("version7"), new ArrayList<>(event.getChanged()));
+        Assert.assertEquals(ReleaseType.SNAPSHOT, repository.getVersion("version7").getType());
+
+        FileUtils.deleteDirectory(new File(directory, "versions/version8"));
+        event = nextChange();
+        Assert.assertEquals(Lang.immutableListOf("version8"), new ArrayList<>(event.getRemoved()));
+        Assert.assertFalse(repository.hasVersion("version8"));
+        Assert.assertEquals(VERSIONS, repository.getVersionCount());
+
+        // Files other than the version json do not refresh anything.
+        FileUtils.writeText(new File(directory, "versions/version9/version9.jar"), "");
+        Assert.assertNull(changes.poll(VersionWatcher.DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long watcherThread = -1;
+        for (ThreadInfo info : threads.dumpAllThreads(false, false))
+            if ("Version Watcher".equals(info.getThreadName()))
+                watcherThread = info.getThreadId();
+        Assert.assertNotEquals(-1, watcherThread);
+        long cpu = threads.getThreadCpuTime(watcherThread);
+        Thread.sleep(1000);
+        long idleCpu = threads.getThreadCpuTime(watcherThread) - cpu;
+        Assert.assertTrue("The watcher should not take CPU while idle", idleCpu < TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertNotNull(changedListener);
+    }
+}
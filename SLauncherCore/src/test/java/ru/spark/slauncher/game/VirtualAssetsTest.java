@@ -0,0 +1,88 @@
+package ru.spark.slauncher.game;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Reconstructs a virtual asset index of 3000 objects, as done before every launch of legacy versions.
+ */
+public class VirtualAssetsTest {
+
+    private static final int OBJECTS = 3000;
+
+    private File directory;
+    private DefaultGameRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("assets").toFile();
+        repository = new DefaultGameRepository(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private File object(int i) {
+        String hash = String.format("%040x", i);
+        return new File(directory, "assets/objects/" + hash.substring(0, 2) + "/" + hash);
+    }
+
+    private void writeIndex(int objectCount) throws IOException {
+        StringBuilder objects = new StringBuilder();
+        for (int i = 0; i < objectCount; i++) {
+            if (i > 0) objects.append(',');
+            objects.append("\"sounds/sound").append(i).append(".ogg\":{\"hash\":\"").append(String.format("%040x", i)).append("\",\"size\":1}");
+        }
+        FileUtils.writeText(new File(directory, "assets/indexes/legacy.json"), "{\"virtual\":true,\"objects\":{" + objects + "}}");
+    }
+
+    @Test
+    public void testReconstruct() throws IOException {
+        for (int i = 0; i < OBJECTS; i++)
+            FileUtils.writeText(object(i), "x");
+        Assert.assertTrue(object(7).delete());
+        writeIndex(OBJECTS);
+        File virtualRoot = new File(directory, "assets/virtual/legacy");
+        File stamp = new File(directory, "assets/virtual/legacy.complete");
+
+        // Incomplete, the objects present are placed but the next launch tries again.
+        Assert.assertEquals(virtualRoot, repository.getActualAssetDirectory("test", "legacy"));
+        Assert.assertFalse(stamp.exists());
+        Assert.assertTrue(new File(virtualRoot, "sounds/sound0.ogg").isFile());
+
+        FileUtils.writeText(object(7), "x");
+        Assert.assertEquals(virtualRoot, repository.getActualAssetDirectory("test", "legacy"));
+        Assert.assertTrue(stamp.isFile());
+        Assert.assertTrue(new File(virtualRoot, "sounds/sound7.ogg").isFile());
+
+        FileUtils.deleteDirectory(virtualRoot);
+        Assert.assertTrue(stamp.delete());
+        repository.getActualAssetDirectory("test", "legacy");
+        Assert.assertEquals(virtualRoot, repository.getActualAssetDirectory("test", "legacy"));
+        Assert.assertTrue(Files.isSameFile(object(1).toPath(), new File(virtualRoot, "sounds/sound1.ogg").toPath()));
+
+        // The same index downloaded again keeps the stamp.
+        writeIndex(OBJECTS);
+        Assert.assertTrue(new File(directory, "assets/indexes/legacy.json").setLastModified(0));
+        Assert.assertTrue(new File(virtualRoot, "sounds/sound1.ogg").delete());
+        repository.getActualAssetDirectory("test", "legacy");
+        Assert.assertTrue(FileUtils.readText(stamp).endsWith(" 0"));
+        Assert.assertFalse(new File(virtualRoot, "sounds/sound1.ogg").exists());
+
+        // A new index places the new objects.
+        FileUtils.writeText(object(OBJECTS), "x");
+        writeIndex(OBJECTS + 1);
+        repository.getActualAssetDirectory("test", "legacy");
+        Assert.assertTrue(new File(virtualRoot, "sounds/sound" + OBJECTS + ".ogg").isFile());
+        Assert.assertTrue(new File(virtualRoot, "sounds/sound1.ogg").isFile());
+    }
+}
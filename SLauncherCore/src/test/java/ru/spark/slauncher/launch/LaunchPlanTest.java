@@ -0,0 +1,104 @@
+package ru.spark.slauncher.launch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.auth.AuthInfo;
+import ru.spark.slauncher.game.DefaultGameRepository;
+import ru.spark.slauncher.game.LaunchOptions;
+import ru.spark.slauncher.game.Version;
+import ru.spark.slauncher.util.io.FileUtils;
+import ru.spark.slauncher.util.platform.JavaVersion;
+import ru.spark.slauncher.util.platform.OperatingSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+/**
+ * Generates the launch command of a version of 200 libraries, half of them downloaded, with an asset index of 4000
+ * objects, and again as when relaunching the same version.
+ */
+public class LaunchPlanTest {
+
+    private static final int LIBRARIES = 200;
+
+    private File directory;
+    private DefaultGameRepository repository;
+    private LaunchOptions options;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("launch").toFile();
+        StringBuilder libraries = new StringBuilder();
+        for (int i = 0; i < LIBRARIES; i++) {
+            if (i > 0) libraries.append(',');
+            libraries.append("{\"name\":\"org.example:library").append(i).append(":1.0\"}");
+            if (i % 2 == 0)
+                FileUtils.writeText(new File(directory, "libraries/org/example/library" + i + "/1.0/library" + i + "-1.0.jar"), "");
+        }
+        FileUtils.writeText(new File(directory, "versions/test/test.json"), "{\"id\":\"test\",\"type\":\"release\","
+                + "\"mainClass\":\"net.minecraft.client.main.Main\",\"assets\":\"1.16\","
+                + "\"minecraftArguments\":\"--username ${auth_player_name} --accessToken ${auth_access_token} --assetsDir ${assets_root} --version ${version_name}\","
+                + "\"libraries\":[" + libraries + "]}");
+        FileUtils.writeText(new File(directory, "versions/test/test.jar"), "");
+
+        StringBuilder objects = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            if (i > 0) objects.append(',');
+            String hash = String.format("%040x", i);
+            objects.append("\"minecraft/sounds/sound").append(i).append(".ogg\":{\"hash\":\"").append(hash).append("\",\"size\":").append(i).append('}');
+        }
+        FileUtils.writeText(new File(directory, "assets/indexes/1.16.json"), "{\"objects\":{" + objects + "}}");
+
+        repository = new DefaultGameRepository(directory);
+        repository.refreshVersions();
+        options = new LaunchOptions.Builder()
+                .setGameDir(directory)
+                .setJava(JavaVersion.fromCurrentEnvironment())
+                .setWidth(854)
+                .setHeight(480)
+                .setMaxMemory(1024)
+                .create();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private String command(String token) throws Exception {
+        Version version = repository.getResolvedVersion("test");
+        AuthInfo authInfo = new AuthInfo("Steve", UUID.nameUUIDFromBytes(new byte[0]), token, "{}");
+        File script = new File(directory, OperatingSystem.CURRENT_OS == OperatingSystem.WINDOWS ? "launch.bat" : "launch.sh");
+        new DefaultLauncher(repository, version, authInfo, options).makeLaunchScript(script);
+        return FileUtils.readText(script);
+    }
+
+    @Test
+    public void testLaunchPlan() throws Exception {
+        File plan = new File(repository.getVersionRoot("test"), LaunchPlan.FILE_NAME);
+        String made = command("secret-token");
+        Assert.assertTrue(plan.isFile());
+
+        // The plan is reused rather than made again.
+        Assert.assertTrue(plan.setLastModified(0));
+        Assert.assertEquals(made, command("secret-token"));
+        Assert.assertEquals(0, plan.lastModified());
+
+        // Values of every launch are filled into slots, never stored.
+        String content = FileUtils.readText(plan);
+        Assert.assertFalse(content.contains("secret-token"));
+        Assert.assertFalse(content.contains("Steve"));
+        Assert.assertTrue(command("another").contains("--accessToken another"));
+        Assert.assertEquals(made, command("secret-token"));
+
+        // A library downloaded since makes a new plan.
+        File library = new File(directory, "libraries/org/example/library1/1.0/library1-1.0.jar");
+        Assert.assertFalse(made.contains(library.getAbsolutePath()));
+        FileUtils.writeText(library, "");
+        Assert.assertTrue(command("secret-token").contains(library.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,127 @@
+package ru.spark.slauncher.launch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.auth.AuthInfo;
+import ru.spark.slauncher.game.DefaultGameRepository;
+import ru.spark.slauncher.game.LaunchOptions;
+import ru.spark.slauncher.game.Library;
+import ru.spark.slauncher.game.Version;
+import ru.spark.slauncher.util.io.FileUtils;
+import ru.spark.slauncher.util.platform.JavaVersion;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Extracts 4 native libraries of 8 files of 1 MiB each before every launch, as when relaunching the same version.
+ */
+public class NativesExtractionTest {
+
+    private static final int LIBRARIES = 4;
+    private static final int FILES = 8;
+
+    private File directory;
+    private File natives;
+    private DefaultLauncher launcher;
+    private Version version;
+    private DefaultGameRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("natives").toFile();
+        StringBuilder libraries = new StringBuilder();
+        for (int i = 0; i < LIBRARIES; i++) {
+            if (i > 0) libraries.append(',');
+            libraries.append("{\"name\":\"org.example:native").append(i).append(":1.0\",")
+                    .append("\"natives\":{\"linux\":\"natives-linux\",\"windows\":\"natives-windows\",\"osx\":\"natives-osx\"},")
+                    .append("\"extract\":{\"exclude\":[\"META-INF/\"]}}");
+        }
+        FileUtils.writeText(new File(directory, "versions/test/test.json"), "{\"id\":\"test\",\"type\":\"release\","
+                + "\"mainClass\":\"net.minecraft.client.main.Main\",\"libraries\":[" + libraries + "]}");
+
+        repository = new DefaultGameRepository(directory);
+        repository.refreshVersions();
+        version = repository.getResolvedVersion("test");
+        int index = 0;
+        for (Library library : version.getLibraries())
+            writeNative(repository.getLibraryFile(version, library), index++);
+
+        natives = repository.getNativeDirectory("test");
+        LaunchOptions options = new LaunchOptions.Builder()
+                .setGameDir(directory)
+                .setJava(JavaVersion.fromCurrentEnvironment())
+                .create();
+        launcher = new DefaultLauncher(repository, version, new AuthInfo("Steve", UUID.randomUUID(), "token", "{}"), options);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static void writeNative(File file, int seed) throws IOException {
+        Assert.assertTrue(FileUtils.makeDirectory(file.getParentFile()));
+        byte[] data = new byte[1024 * 1024];
+        new Random(seed).nextBytes(data);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("shared.so"));
+            zip.write(seed);
+            zip.closeEntry();
+            for (int i = 0; i < FILES; i++) {
+                zip.putNextEntry(new ZipEntry("native" + seed + "-" + i + ".so"));
+                zip.write(data);
+                zip.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalExtraction() throws Exception {
+        launcher.decompressNatives(natives);
+        Assert.assertEquals(LIBRARIES * FILES + 2, natives.list().length);
+        Assert.assertFalse(new File(natives, "META-INF").exists());
+
+        // Marks the extracted files to tell whether they are extracted again.
+        File marked = new File(natives, "native0-0.so");
+        Assert.assertTrue(marked.setLastModified(0));
+        launcher.decompressNatives(natives);
+        Assert.assertEquals(0, marked.lastModified());
+
+        // A missing file extracts natives again.
+        Assert.assertTrue(new File(natives, "native1-1.so").delete());
+        launcher.decompressNatives(natives);
+        Assert.assertTrue(new File(natives, "native1-1.so").isFile());
+        Assert.assertNotEquals(0, marked.lastModified());
+
+        // So does a changed library.
+        Assert.assertTrue(marked.setLastModified(0));
+        Library library = version.getLibraries().get(0);
+        File jar = repository.getLibraryFile(version, library);
+        writeNative(jar, 100);
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        launcher.decompressNatives(natives);
+        Assert.assertTrue(new File(natives, "native100-0.so").isFile());
+        Assert.assertFalse(marked.exists());
+    }
+
+    @Test
+    public void testFirstLibraryWins() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            FileUtils.cleanDirectoryQuietly(natives);
+            launcher.decompressNatives(natives);
+            // A file found in every library is extracted from the first one, however the extraction interleaves.
+            Assert.assertArrayEquals(new byte[]{0}, Files.readAllBytes(new File(natives, "shared.so").toPath()));
+        }
+    }
+}
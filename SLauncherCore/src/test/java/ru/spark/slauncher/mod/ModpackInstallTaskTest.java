@@ -0,0 +1,63 @@
+package ru.spark.slauncher.mod;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.util.DigestUtils;
+import ru.spark.slauncher.util.Hex;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ModpackInstallTaskTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("modpack");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testUpdateKeepsChangesOfUser() throws Exception {
+        Path modpack = directory.resolve("modpack.zip");
+        try (OutputStream out = Files.newOutputStream(modpack); ZipOutputStream zos = new ZipOutputStream(out)) {
+            for (String name : new String[]{"unchanged.cfg", "modified.cfg", "deleted.cfg"}) {
+                zos.putNextEntry(new ZipEntry("overrides/config/" + name));
+                zos.write("new".getBytes(UTF_8));
+                zos.closeEntry();
+            }
+        }
+
+        // Installed by the old modpack, then the user modified one file and deleted another.
+        Path game = directory.resolve("game");
+        Files.createDirectories(game.resolve("config"));
+        Files.write(game.resolve("config/unchanged.cfg"), "old".getBytes(UTF_8));
+        Files.write(game.resolve("config/modified.cfg"), "user".getBytes(UTF_8));
+        String oldHash = Hex.encodeHex(DigestUtils.digest("SHA-1", "old".getBytes(UTF_8)));
+        ModpackConfiguration<Void> oldConfiguration = new ModpackConfiguration<>(null, null, Arrays.asList(
+                new ModpackConfiguration.FileInformation("config/unchanged.cfg", oldHash),
+                new ModpackConfiguration.FileInformation("config/modified.cfg", oldHash),
+                new ModpackConfiguration.FileInformation("config/deleted.cfg", oldHash)));
+
+        new ModpackInstallTask<>(modpack.toFile(), game.toFile(), UTF_8, "/overrides", name -> true, oldConfiguration).execute();
+
+        Assert.assertEquals("new", new String(Files.readAllBytes(game.resolve("config/unchanged.cfg")), UTF_8));
+        Assert.assertEquals("user", new String(Files.readAllBytes(game.resolve("config/modified.cfg")), UTF_8));
+        Assert.assertFalse(Files.exists(game.resolve("config/deleted.cfg")));
+    }
+}
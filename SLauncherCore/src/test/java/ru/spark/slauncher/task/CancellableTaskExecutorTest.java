@@ -0,0 +1,92 @@
+package ru.spark.slauncher.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+import ru.spark.slauncher.util.Lang;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CancellableTaskExecutorTest {
+
+    /**
+     * A graph like installing a modpack: groups of libraries of groups, each task waiting for its subtasks.
+     * {@link CancellableTaskExecutor} used to park a thread for every task waiting and run every task on a new thread.
+     */
+    @Test
+    public void testPeakThreadCountOfDeepGraph() {
+        AtomicInteger executed = new AtomicInteger();
+        List<Task<?>> groups = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            List<Task<?>> libraries = new ArrayList<>();
+            for (int j = 0; j < 20; j++)
+                libraries.add(Task.runAsync(() -> {
+                    Thread.sleep(5);
+                    executed.incrementAndGet();
+                }).thenRunAsync(executed::incrementAndGet));
+            groups.add(Task.allOf(libraries));
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int pool = Schedulers.workStealing().getParallelism();
+        int before = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        Assert.assertTrue(Task.allOf(groups).cancellableExecutor().test());
+
+        int peak = threads.getPeakThreadCount() - before;
+        Assert.assertEquals(800, executed.get());
+        Assert.assertTrue("Threads should be bounded by the pool, " + peak + " created", peak <= pool + 4);
+    }
+
+    /**
+     * The running task sleeps for 10 s unless interrupted.
+     */
+    @Test(timeout = 5000)
+    public void testCancellation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean following = new AtomicBoolean();
+        Task<?> task = Task.runAsync(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw e;
+            }
+        }).thenRunAsync(() -> following.set(true));
+
+        TaskExecutor executor = task.cancellableExecutor();
+        Lang.thread(() -> {
+            try {
+                started.await();
+                executor.cancel();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        Assert.assertFalse("Task should fail because we have cancelled it", executor.test());
+        Assert.assertTrue("The running task should be interrupted", interrupted.get());
+        Assert.assertFalse("Tasks following a cancelled one should not run", following.get());
+        Assert.assertNull("Cancellation is not a failure", executor.getException());
+    }
+
+    @Test
+    public void testNestedExecutorDoesNotStarvePool() {
+        int pool = Schedulers.workStealing().getParallelism();
+        List<Task<?>> tasks = new ArrayList<>();
+        // Every thread of the pool waits for another executor using the same pool.
+        for (int i = 0; i < pool * 2; i++)
+            tasks.add(Task.runAsync(() -> {
+                if (!Task.runAsync(() -> Thread.sleep(10)).cancellableExecutor().test())
+                    throw new IllegalStateException();
+            }));
+        Assert.assertTrue(Task.allOf(tasks).cancellableExecutor().test());
+    }
+}
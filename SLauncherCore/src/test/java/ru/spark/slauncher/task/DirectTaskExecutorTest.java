@@ -0,0 +1,183 @@
+package ru.spark.slauncher.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DirectTaskExecutorTest {
+
+    @Test(timeout = 10000)
+    public void testCancellationStopsExecutor() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean following = new AtomicBoolean();
+        Task<?> child = Task.runAsync(() -> {
+            started.countDown();
+            release.await();
+        });
+        Task<?> root = Task.allOf(child).thenRunAsync(() -> following.set(true));
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicReference<Boolean> success = new AtomicReference<>();
+        AtomicReference<Throwable> rootFailure = new AtomicReference<>();
+        TaskExecutor executor = new DirectTaskExecutor(root);
+        executor.addTaskListener(new TaskListener() {
+            @Override
+            public void onFailed(Task<?> task, Throwable throwable) {
+                if (task == root)
+                    rootFailure.set(throwable);
+            }
+
+            @Override
+            public void onStop(boolean succeeded, TaskExecutor stoppedExecutor) {
+                success.set(succeeded);
+                stopped.countDown();
+            }
+        });
+        executor.start();
+
+        started.await();
+        executor.cancel();
+        release.countDown();
+
+        // The running subtask returns, its parent is told and stops the execution instead of running on.
+        Assert.assertTrue("onStop should be fired", stopped.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Boolean.FALSE, success.get());
+        Assert.assertTrue(rootFailure.get() instanceof CancellationException);
+        Assert.assertEquals(Task.TaskState.FAILED, root.getState());
+        Assert.assertFalse("Tasks after cancellation should not run", following.get());
+    }
+
+    @Test
+    public void testListenerEvents() {
+        AtomicInteger ready = new AtomicInteger(), running = new AtomicInteger(), finished = new AtomicInteger();
+        List<Task<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            tasks.add(Task.runAsync(Schedulers.io(), () -> {
+            }));
+        TaskExecutor executor = new DirectTaskExecutor(Task.allOf(tasks).thenRunAsync(() -> {
+        }));
+        executor.addTaskListener(new TaskListener() {
+            @Override
+            public void onReady(Task<?> task) {
+                ready.incrementAndGet();
+            }
+
+            @Override
+            public void onRunning(Task<?> task) {
+                running.incrementAndGet();
+            }
+
+            @Override
+            public void onFinished(Task<?> task) {
+                finished.incrementAndGet();
+            }
+        });
+
+        Assert.assertTrue(executor.test());
+        Assert.assertEquals(ready.get(), running.get());
+        Assert.assertEquals(ready.get(), finished.get());
+        Assert.assertEquals(ready.get(), executor.getRunningTasks());
+        for (Task<?> task : tasks)
+            Assert.assertEquals(Task.TaskState.SUCCEEDED, task.getState());
+    }
+
+    @Test
+    public void testFailureOfDependent() {
+        IllegalStateException failure = new IllegalStateException();
+        Task<?> task = Task.allOf(Task.runAsync(() -> {
+            throw failure;
+        }), Task.runAsync(() -> {
+        }));
+        TaskExecutor executor = new DirectTaskExecutor(task);
+
+        Assert.assertFalse(executor.test());
+        Assert.assertSame(failure, executor.getException());
+        Assert.assertSame(failure, task.getException());
+    }
+
+    /**
+     * An install-like graph: the version is fetched, then its libraries are downloaded in parallel and
+     * one of them fails, while the assets succeed, and the result is reported at last.
+     */
+    private static Task<String> installGraph(List<String> events) {
+        List<Task<?>> libraries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int index = i;
+            libraries.add(Task.runAsync("library" + i, Schedulers.io(), () -> {
+                if (index == 13)
+                    throw new IllegalStateException("library13");
+            }));
+        }
+        Task<?> assets = Task.allOf(Task.runAsync("assetIndex", () -> {
+        }), Task.runAsync("assetObjects", Schedulers.io(), () -> {
+        }));
+
+        return Task.supplyAsync("version", () -> "1.0")
+                .thenComposeAsync(version -> Task.allOf(Task.allOf(libraries), assets).thenSupplyAsync(() -> version))
+                .whenComplete(Schedulers.defaultScheduler(), exception -> events.add("completed " + (exception == null ? null : exception.getMessage())))
+                .thenSupplyAsync(() -> "done");
+    }
+
+    private static List<String> run(TaskExecutor executor, Task<?> task, List<String> events) {
+        executor.addTaskListener(new TaskListener() {
+            @Override
+            public void onFinished(Task<?> finished) {
+                if (finished.getName() != null && finished.getName().startsWith("library"))
+                    synchronized (events) {
+                        events.add("finished " + finished.getName());
+                    }
+            }
+
+            @Override
+            public void onFailed(Task<?> failed, Throwable throwable) {
+                synchronized (events) {
+                    events.add("failed " + label(failed));
+                }
+            }
+
+            @Override
+            public void onStop(boolean success, TaskExecutor stopped) {
+                synchronized (events) {
+                    events.add("stop " + success);
+                }
+            }
+        });
+        events.add("test " + executor.test());
+        events.add("result " + task.getResult());
+        events.add("exception " + (executor.getException() == null ? null : executor.getException().getMessage()));
+        events.sort(null);
+        return events;
+    }
+
+    /**
+     * @return the name given by {@link #installGraph(List)}, tasks named after their classes are not told apart.
+     */
+    private static String label(Task<?> task) {
+        String name = task.getName();
+        return name != null && name.matches("\\w+") ? name : "unnamed";
+    }
+
+    @Test
+    public void testSameOutcomeAsAsyncExecutor() {
+        List<String> asyncEvents = new ArrayList<>();
+        Task<String> asyncTask = installGraph(asyncEvents);
+        run(asyncTask.executor(), asyncTask, asyncEvents);
+
+        List<String> directEvents = new ArrayList<>();
+        Task<String> directTask = installGraph(directEvents);
+        run(directTask.directExecutor(), directTask, directEvents);
+
+        Assert.assertTrue(asyncEvents.contains("test false"));
+        Assert.assertTrue(asyncEvents.contains("failed library13"));
+        Assert.assertEquals(asyncEvents, directEvents);
+    }
+}
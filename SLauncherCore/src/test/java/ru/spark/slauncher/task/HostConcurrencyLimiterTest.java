@@ -0,0 +1,170 @@
+package ru.spark.slauncher.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class HostConcurrencyLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final URL url;
+    private final List<Runnable> dispatched = Collections.synchronizedList(new ArrayList<>());
+
+    public HostConcurrencyLimiterTest() throws MalformedURLException {
+        url = new URL("https://example.com/file");
+    }
+
+    /**
+     * The runnables dispatched are kept in order and run by the test.
+     */
+    private HostConcurrencyLimiter newLimiter(int initialLimit) {
+        Executor executor = dispatched::add;
+        return new HostConcurrencyLimiter(() -> executor, initialLimit, 1, 16);
+    }
+
+    @Test
+    public void testIncrease() {
+        HostConcurrencyLimiter limiter = newLimiter(2);
+        // Slow start grows by one per response.
+        for (int i = 0; i < 4; i++)
+            limiter.onResponse(url, 200, LATENCY);
+        Assert.assertEquals(6, limiter.getStats(url).getLimit());
+
+        // Congestion ends slow start, from then on the limit grows by one per round trip, as many responses as the limit.
+        limiter.onFailed(url, new SocketTimeoutException());
+        Assert.assertEquals(3, limiter.getStats(url).getLimit());
+        for (int i = 0; i < 4; i++)
+            limiter.onResponse(url, 200, LATENCY);
+        Assert.assertEquals(4, limiter.getStats(url).getLimit());
+    }
+
+    @Test
+    public void testDecrease() {
+        HostConcurrencyLimiter limiter = newLimiter(8);
+        limiter.onResponse(url, 429, LATENCY);
+        Assert.assertEquals(4, limiter.getStats(url).getLimit());
+        Assert.assertEquals(1, limiter.getStats(url).getThrottled());
+
+        // Responses within a round trip after a decrease do not decrease it again.
+        limiter.onResponse(url, 503, LATENCY);
+        Assert.assertEquals(4, limiter.getStats(url).getLimit());
+
+        // Nor goes the limit below the min.
+        for (int i = 0; i < 10; i++) {
+            limiter = newLimiter(1);
+            limiter.onResponse(url, 429, LATENCY);
+            Assert.assertEquals(1, limiter.getStats(url).getLimit());
+        }
+    }
+
+    @Test
+    public void testQueueOrder() {
+        HostConcurrencyLimiter limiter = newLimiter(1);
+        Executor executor = limiter.getExecutor(url);
+        List<String> ran = new ArrayList<>();
+
+        executor.execute(() -> ran.add("first"));
+        executor.execute(new PrioritizedRunnable(() -> ran.add("background"), TaskPriority.BACKGROUND));
+        executor.execute(new PrioritizedRunnable(() -> ran.add("user 1"), TaskPriority.USER));
+        executor.execute(new PrioritizedRunnable(() -> ran.add("interactive"), TaskPriority.INTERACTIVE));
+        executor.execute(new PrioritizedRunnable(() -> ran.add("user 2"), TaskPriority.USER));
+        Assert.assertEquals(1, dispatched.size());
+        Assert.assertEquals(4, limiter.getStats(url).getQueued());
+
+        // Each runnable returning dispatches the next one.
+        for (int i = 0; i < dispatched.size(); i++)
+            dispatched.get(i).run();
+        Assert.assertEquals(5, dispatched.size());
+        Assert.assertEquals("[first, interactive, user 1, user 2, background]", ran.toString());
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+    }
+
+    @Test
+    public void testRejection() {
+        List<String> ran = new ArrayList<>();
+        boolean[] rejecting = {false};
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(() -> runnable -> {
+            if (rejecting[0])
+                throw new RejectedExecutionException();
+            dispatched.add(runnable);
+        }, 1, 1, 1);
+        Executor executor = limiter.getExecutor(url);
+        executor.execute(() -> ran.add("first"));
+        executor.execute(() -> ran.add("queued"));
+
+        // Runnables whose submitter has returned are run rather than left waiting.
+        rejecting[0] = true;
+        dispatched.get(0).run();
+        Assert.assertEquals("[first, queued]", ran.toString());
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+        Assert.assertEquals(0, limiter.getStats(url).getQueued());
+
+        // The submitter is told at once.
+        try {
+            executor.execute(() -> ran.add("rejected"));
+            Assert.fail("The rejection should be thrown to the submitter");
+        } catch (RejectedExecutionException ignored) {
+        }
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+        Assert.assertEquals(0, limiter.getStats(url).getQueued());
+    }
+
+    @Test
+    public void testAcquireTradesPermit() throws InterruptedException, MalformedURLException {
+        HostConcurrencyLimiter limiter = newLimiter(1);
+        URL mirror = new URL("https://mirror.example.org/file");
+        limiter.acquire(url);
+        Assert.assertTrue(limiter.holdsPermit());
+        Assert.assertFalse(limiter.tryAcquire(url));
+
+        // Connecting to a mirror instead gives back the permit of the first host.
+        Assert.assertTrue(limiter.tryAcquire(mirror));
+        limiter.transfer(mirror);
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+        Assert.assertEquals(1, limiter.getStats(mirror).getActive());
+
+        limiter.acquire(url);
+        Assert.assertEquals(1, limiter.getStats(url).getActive());
+        Assert.assertEquals(0, limiter.getStats(mirror).getActive());
+
+        limiter.release();
+        Assert.assertFalse(limiter.holdsPermit());
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+    }
+
+    @Test(timeout = 10000)
+    public void testBackOffGivesBackPermit() throws InterruptedException {
+        HostConcurrencyLimiter limiter = newLimiter(1);
+        Executor executor = limiter.getExecutor(url);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(() -> {
+            try {
+                limiter.backOff(100);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            ran.add("backed off");
+        });
+        executor.execute(() -> ran.add("second"));
+
+        Thread backingOff = new Thread(dispatched.get(0));
+        backingOff.start();
+        // The second one is dispatched while the first is backing off, which waits for the permit afterwards.
+        while (dispatched.size() < 2)
+            Thread.sleep(10);
+        dispatched.get(1).run();
+        backingOff.join();
+        Assert.assertEquals("[second, backed off]", ran.toString());
+        Assert.assertEquals(0, limiter.getStats(url).getActive());
+    }
+}
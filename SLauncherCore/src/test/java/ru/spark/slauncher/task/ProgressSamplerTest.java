@@ -0,0 +1,90 @@
+package ru.spark.slauncher.task;
+
+import javafx.application.Platform;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hundreds of downloads updating progress on every buffer read, as {@link ru.spark.slauncher.task.FetchTask} does.
+ */
+public class ProgressSamplerTest {
+
+    private static final int TASKS = 200;
+    private static final int UPDATES = 10000;
+
+    private final AtomicInteger published = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        ProgressSampler.setPublisher(runnable -> {
+            published.incrementAndGet();
+            runnable.run();
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ProgressSampler.setPublisher(Platform::runLater);
+    }
+
+    @Test
+    public void testCoalescedProgress() throws Exception {
+        List<Task<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++)
+            tasks.add(new Task<Void>() {
+                {
+                    setExecutor(Schedulers.io());
+                }
+
+                @Override
+                public void execute() {
+                    for (int j = 1; j <= UPDATES; j++)
+                        updateProgress(j, UPDATES);
+                }
+            });
+
+        Assert.assertTrue(Task.allOf(tasks).executor().test());
+        Thread.sleep(ProgressSampler.FRAME_INTERVAL * 3);
+
+        for (Task<?> task : tasks)
+            Assert.assertEquals(1.0, task.progressProperty().get(), 0);
+        // Progress of all tasks is published together once a frame, rather than once an update.
+        Assert.assertTrue("Progress should be coalesced, published " + published.get() + " times",
+                published.get() < TASKS * UPDATES / 1000);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        AtomicLong total = new AtomicLong(), stage = new AtomicLong();
+        Consumer<ProgressSampler.ThroughputEvent> listener = event -> {
+            total.addAndGet(event.getSpeed());
+            stage.addAndGet(event.getStageSpeeds().getOrDefault("test.stage", 0L));
+        };
+        ProgressSampler.getEventBus().channel(ProgressSampler.ThroughputEvent.class).registerWeak(listener);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 100000; j++)
+                    ProgressSampler.addBytes("test.stage", 10);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Thread.sleep(2500);
+
+        Assert.assertEquals(8_000_000, stage.get());
+        Assert.assertTrue(total.get() >= 8_000_000);
+        // Keeps the weak listener reachable until the end.
+        Assert.assertNotNull(listener);
+    }
+}
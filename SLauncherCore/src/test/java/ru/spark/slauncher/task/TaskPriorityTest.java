@@ -0,0 +1,82 @@
+package ru.spark.slauncher.task;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Launching while a queue of skin downloads is waiting for {@link Schedulers#io()}.
+ */
+public class TaskPriorityTest {
+
+    private static final int BACKGROUND = 200;
+
+    @Test
+    public void testInteractiveTaskSkipsBackgroundQueue() throws Exception {
+        CountDownLatch done = new CountDownLatch(BACKGROUND);
+        for (int i = 0; i < BACKGROUND; i++)
+            Schedulers.runWithPriority(TaskPriority.BACKGROUND, () -> Schedulers.io().execute(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }));
+
+        AtomicLong pending = new AtomicLong();
+        TaskExecutor executor = Task.runAsync(Schedulers.io(), () -> pending.set(done.getCount())).executor();
+        executor.setPriority(TaskPriority.INTERACTIVE);
+        Assert.assertTrue(executor.test());
+
+        Assert.assertTrue("Interactive task should not wait for the background queue", pending.get() > BACKGROUND / 2);
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPriorityIsInherited() {
+        AtomicInteger wrong = new AtomicInteger();
+        TaskExecutor executor = Task.runAsync(Schedulers.io(), () -> {
+            if (Schedulers.getPriority() != TaskPriority.INTERACTIVE)
+                wrong.incrementAndGet();
+            CountDownLatch latch = new CountDownLatch(1);
+            Schedulers.io().execute(() -> {
+                if (Schedulers.getPriority() != TaskPriority.INTERACTIVE)
+                    wrong.incrementAndGet();
+                latch.countDown();
+            });
+            latch.await();
+            // Executors created by a task inherit its priority.
+            if (Task.runAsync(() -> {
+            }).executor().getPriority() != TaskPriority.INTERACTIVE)
+                wrong.incrementAndGet();
+        }).executor();
+        executor.setPriority(TaskPriority.INTERACTIVE);
+        Assert.assertTrue(executor.test());
+        Assert.assertEquals(0, wrong.get());
+        Assert.assertEquals(TaskPriority.USER, Schedulers.getPriority());
+    }
+
+    @Test
+    public void testBackgroundLaneLeavesThreads() throws Exception {
+        AtomicInteger running = new AtomicInteger(), maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++)
+            Schedulers.background().execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(maxRunning.get() <= Math.max(1, Schedulers.getIOParallelism() / 2));
+    }
+}
@@ -0,0 +1,55 @@
+package ru.spark.slauncher.task;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TaskProfilerTest {
+
+    /**
+     * A graph like launching: checking dependencies in parallel, one of them slow, then logging in.
+     */
+    @Test
+    public void testCriticalPath() throws Exception {
+        Task<?> task = Task.allOf(
+                Task.runAsync("fast", () -> Thread.sleep(10)),
+                Task.runAsync("slow", () -> Thread.sleep(200)),
+                Task.runAsync("fast", () -> Thread.sleep(10))
+        ).withStage("launch.state.dependencies")
+                .thenComposeAsync(Task.runAsync("log in", () -> Thread.sleep(100)).withStage("launch.state.logging_in"));
+
+        TaskProfiler profiler = new TaskProfiler();
+        TaskExecutor executor = task.executor();
+        executor.addTaskListener(profiler);
+        Assert.assertTrue(executor.test());
+
+        List<TaskProfiler.Segment> path = profiler.getCriticalPath();
+        String summary = profiler.getSummary();
+
+        Assert.assertFalse(path.stream().anyMatch(segment -> "fast".equals(segment.getName())));
+        TaskProfiler.Segment slow = path.stream().filter(segment -> "slow".equals(segment.getName()) && segment.getKind() == TaskProfiler.Segment.Kind.RUN).findFirst().orElse(null);
+        TaskProfiler.Segment logIn = path.stream().filter(segment -> "log in".equals(segment.getName()) && segment.getKind() == TaskProfiler.Segment.Kind.RUN).findFirst().orElse(null);
+        Assert.assertNotNull(slow);
+        Assert.assertNotNull(logIn);
+        Assert.assertTrue(path.indexOf(slow) < path.indexOf(logIn));
+        Assert.assertTrue(slow.getNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertTrue(summary.contains("launch.state.dependencies"));
+        Assert.assertTrue(summary.contains("launch.state.logging_in"));
+
+        Path trace = Files.createTempFile("trace", ".json");
+        try {
+            profiler.writeChromeTrace(trace);
+            JsonObject json = new JsonParser().parse(FileUtils.readText(trace.toFile())).getAsJsonObject();
+            Assert.assertTrue(json.getAsJsonArray("traceEvents").size() >= 5);
+        } finally {
+            Files.delete(trace);
+        }
+    }
+}
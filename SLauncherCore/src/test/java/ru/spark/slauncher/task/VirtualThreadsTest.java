@@ -0,0 +1,75 @@
+package ru.spark.slauncher.task;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many requests waiting for the network at once on {@link Schedulers#io()}, which takes an OS thread for each
+ * of them unless it runs on virtual threads. Skipped before Java 21.
+ */
+public class VirtualThreadsTest {
+
+    private static final int REQUESTS = 1000;
+
+    @After
+    public void disable() {
+        Schedulers.setVirtualThreads(false);
+    }
+
+    @Test
+    public void testUnsupportedKeepsPlatformThreads() {
+        Assume.assumeFalse(VirtualThreadExecutor.isSupported());
+        Schedulers.setVirtualThreads(true);
+        Assert.assertFalse(Schedulers.isVirtualThreads());
+    }
+
+    @Test
+    public void testNewThreadKeepsPlatformThreads() {
+        Assume.assumeTrue(VirtualThreadExecutor.isSupported());
+        Schedulers.setVirtualThreads(true);
+        Assert.assertSame(Schedulers.newVirtualThread(), Schedulers.defaultScheduler());
+        Assert.assertNotSame(Schedulers.newThread(), Schedulers.defaultScheduler());
+
+        Schedulers.setVirtualThreads(false);
+        Assert.assertSame(Schedulers.newThread(), Schedulers.defaultScheduler());
+    }
+
+    @Test
+    public void testManyRequestsInFlight() throws Exception {
+        Assume.assumeTrue(VirtualThreadExecutor.isSupported());
+        Schedulers.setVirtualThreads(true);
+        Assert.assertTrue(Schedulers.isVirtualThreads());
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int before = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        AtomicInteger inFlight = new AtomicInteger(), maxInFlight = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++)
+            Schedulers.io().execute(() -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    inFlight.decrementAndGet();
+                    latch.countDown();
+                }
+            });
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+        int peak = threads.getPeakThreadCount() - before;
+        Assert.assertTrue("Requests over the limit should wait", maxInFlight.get() <= Schedulers.getIOParallelism());
+        Assert.assertTrue("Hundreds of requests should be in flight", maxInFlight.get() > 64);
+        Assert.assertTrue("Waiting requests should not take OS threads", peak < 64);
+    }
+}
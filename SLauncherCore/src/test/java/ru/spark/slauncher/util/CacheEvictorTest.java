@@ -0,0 +1,109 @@
+package ru.spark.slauncher.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class CacheEvictorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetLimit() {
+        CacheEvictor.setSizeLimit(0);
+        CacheEvictor.setPolicy(CacheEvictor.Policy.LRU);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedButNotLinkedFiles() throws Exception {
+        Path cache = folder.newFolder("cache").toPath();
+        Path linkedOld = createCached(cache, "00", 1000);
+        Path old = createCached(cache, "01", 2000);
+        Path used = createCached(cache, "02", 3000);
+        Path recent = createCached(cache, "03", 4000);
+        Files.createLink(cache.resolve("live.jar"), linkedOld);
+        Assume.assumeTrue(isLinkCountKnown(linkedOld));
+
+        CacheEvictor evictor = new CacheEvictor(cache);
+        evictor.onAccess(used);
+
+        // 3 files of 1000 bytes not linked elsewhere, 90% of the limit leaves room for 2 of them.
+        CacheEvictor.setSizeLimit(2500);
+        Assert.assertEquals(1000, evictor.evict());
+
+        Assert.assertTrue("A file linked elsewhere frees no space", Files.exists(linkedOld));
+        Assert.assertFalse(Files.exists(old));
+        Assert.assertTrue("A file just served is kept", Files.exists(used));
+    }
+
+    @Test
+    public void testLeastFrequentlyUsed() throws Exception {
+        Path cache = folder.newFolder("cache").toPath();
+        Path popular = createCached(cache, "00", 1000);
+        Path once = createCached(cache, "01", 2000);
+        Assume.assumeTrue(isLinkCountKnown(once));
+
+        CacheEvictor evictor = new CacheEvictor(cache);
+        for (int i = 0; i < 5; i++)
+            evictor.onAccess(popular);
+        evictor.onAccess(once);
+
+        CacheEvictor.setPolicy(CacheEvictor.Policy.LFU);
+        CacheEvictor.setSizeLimit(1500);
+        Assert.assertEquals(1000, evictor.evict());
+        Assert.assertTrue(Files.exists(popular));
+        Assert.assertFalse(Files.exists(once));
+    }
+
+    @Test
+    public void testKeepsLinkedFilesWithoutLinkCount() throws Exception {
+        Path cache = folder.newFolder("cache").toPath();
+        Path linkedOld = createCached(cache, "00", 1000);
+        Path old = createCached(cache, "01", 2000);
+        Path used = createCached(cache, "02", 3000);
+        Path recent = createCached(cache, "03", 4000);
+
+        // As on Windows, only the files recorded as linked out are known not to free space.
+        CacheEvictor evictor = new CacheEvictor(cache, false);
+        evictor.onLinked(linkedOld);
+        evictor.onAccess(used);
+
+        CacheEvictor.setSizeLimit(2500);
+        Assert.assertEquals(1000, evictor.evict());
+        Assert.assertTrue("A file linked out is kept", Files.exists(linkedOld));
+        Assert.assertFalse(Files.exists(old));
+        Assert.assertTrue(Files.exists(used));
+
+        // Files linked out are remembered in the usage file.
+        evictor.save();
+        CacheEvictor.setSizeLimit(1500);
+        Assert.assertEquals(1000, new CacheEvictor(cache, false).evict());
+        Assert.assertTrue(Files.exists(linkedOld));
+        Assert.assertFalse(Files.exists(recent));
+    }
+
+    private static Path createCached(Path cache, String hash, long lastModified) throws Exception {
+        Path file = cache.resolve(CacheRepository.SHA1).resolve(hash).resolve(hash);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[1000]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return file;
+    }
+
+    private static boolean isLinkCountKnown(Path file) {
+        try {
+            Files.getAttribute(file, "unix:nlink");
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ru.spark.slauncher.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class CacheRepositoryTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("cache-repository");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test(timeout = 30000)
+    public void testETagsKeptWhenLogWriteFails() throws Exception {
+        CacheRepository repository = new CacheRepository();
+        repository.changeDirectory(directory);
+
+        // A directory in place of the log makes opening it fail.
+        Path logFile = Files.createDirectories(directory.resolve("cache/etag.log"));
+        repository.cacheRemoteFile(download("first"), connection("first"));
+        try {
+            repository.saveETagIndex();
+            Assert.fail("Saving should fail while the log cannot be opened");
+        } catch (IOException ignored) {
+        }
+
+        // The next entry is appended to the log in background, with the one failed to save.
+        Files.delete(logFile);
+        repository.cacheRemoteFile(download("second"), connection("second"));
+        while (!logged(logFile, "first") || !logged(logFile, "second"))
+            Thread.sleep(50);
+    }
+
+    private Path download(String name) throws IOException {
+        Path file = directory.resolve(name + ".json");
+        Files.write(file, ("{\"id\":\"" + name + "\"}").getBytes(UTF_8));
+        return file;
+    }
+
+    private static boolean logged(Path logFile, String name) throws IOException {
+        return Files.isRegularFile(logFile) && new String(Files.readAllBytes(logFile), UTF_8).contains("/" + name + ".json");
+    }
+
+    private static URLConnection connection(String name) throws IOException {
+        return new URLConnection(new URL("https://example.com/versions/" + name + ".json")) {
+            @Override
+            public void connect() {
+            }
+
+            @Override
+            public String getHeaderField(String field) {
+                return "ETag".equals(field) ? "\"" + name + "\"" : null;
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package ru.spark.slauncher.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+public class ChecksumJournalTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Test
+    public void testRecordedDigestSurvivesRestartUntilFileChanges() throws Exception {
+        Path file = dir.resolve("object");
+        Files.write(file, new byte[4096]);
+        String expected = Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, file));
+
+        ChecksumJournal journal = new ChecksumJournal(dir.resolve("checksums.json"));
+        Assert.assertNull(journal.getRecordedDigest(file, CacheRepository.SHA1));
+        Assert.assertEquals(expected, journal.digest(CacheRepository.SHA1, file));
+        journal.save();
+
+        ChecksumJournal reloaded = new ChecksumJournal(dir.resolve("checksums.json"));
+        Assert.assertEquals(expected, reloaded.getRecordedDigest(file, CacheRepository.SHA1));
+        Assert.assertNull(reloaded.getRecordedDigest(file, "SHA-256"));
+
+        // Same size, different content and time.
+        Files.write(file, new byte[]{1});
+        Files.write(file, new byte[4096]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        Assert.assertNull(reloaded.getRecordedDigest(file, CacheRepository.SHA1));
+
+        // The outdated record is dropped from the saved journal as well.
+        reloaded.save();
+        Assert.assertFalse(new String(Files.readAllBytes(dir.resolve("checksums.json"))).contains("object"));
+    }
+
+    @Test
+    public void testReplacedFileIsNotTrusted() throws Exception {
+        Path file = dir.resolve("library.jar");
+        Files.write(file, new byte[]{1, 2, 3});
+        ChecksumJournal journal = new ChecksumJournal(dir.resolve("checksums.json"));
+        journal.digest(CacheRepository.SHA1, file);
+
+        // Another file with the same size and time moved in place.
+        Path other = dir.resolve("other.jar");
+        Files.write(other, new byte[]{3, 2, 1});
+        Files.setLastModifiedTime(other, Files.getLastModifiedTime(file));
+        Files.move(other, file, StandardCopyOption.REPLACE_EXISTING);
+
+        Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        if (fileKey != null)
+            Assert.assertNull(journal.getRecordedDigest(file, CacheRepository.SHA1));
+    }
+}
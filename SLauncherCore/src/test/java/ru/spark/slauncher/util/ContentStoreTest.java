@@ -0,0 +1,127 @@
+package ru.spark.slauncher.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import ru.spark.slauncher.util.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+public class ContentStoreTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("content-store");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testDedupeLinksIdenticalMods() throws Exception {
+        CacheRepository repository = new CacheRepository();
+        repository.changeDirectory(directory.resolve("common"));
+        ContentStore store = new ContentStore(repository);
+
+        byte[] mod = new byte[100_000];
+        new Random(42).nextBytes(mod);
+        Path first = write(directory.resolve("versions/a/mods/mod.jar"), mod);
+        Path second = write(directory.resolve("versions/b/mods/mod-copy.jar"), mod);
+        Path config = write(directory.resolve("versions/b/config/mod.cfg"), mod);
+        Path save = write(directory.resolve("versions/b/saves/world/backup.zip"), mod);
+
+        ContentStore.Report report = new ContentStore.Report();
+        store.dedupe(directory.resolve("versions"), report);
+
+        Assert.assertEquals("Configs and saves are not stored", 2, report.getFiles());
+        if (Files.isSameFile(first, second)) {
+            Assert.assertEquals(1, report.getLinked());
+            Assert.assertEquals(mod.length, report.getSavedBytes());
+        }
+        Assert.assertFalse(Files.isSameFile(config, second));
+        Assert.assertFalse(Files.isSameFile(save, second));
+        Assert.assertArrayEquals(mod, Files.readAllBytes(second));
+
+        // Running again saves nothing more.
+        ContentStore.Report again = new ContentStore.Report();
+        store.dedupe(directory.resolve("versions"), again);
+        Assert.assertEquals(0, again.getSavedBytes());
+    }
+
+    @Test
+    public void testCopyDirectoryPlacesArchivesFromStore() throws Exception {
+        CacheRepository repository = new CacheRepository();
+        repository.changeDirectory(directory.resolve("common"));
+        ContentStore store = new ContentStore(repository);
+
+        byte[] mod = new byte[10_000];
+        new Random(7).nextBytes(mod);
+        Path src = directory.resolve("src");
+        write(src.resolve("mods/mod.jar"), mod);
+        write(src.resolve("options.txt"), new byte[]{1, 2, 3});
+
+        Path dest = directory.resolve("dest");
+        store.copyDirectory(src, dest, path -> true);
+
+        Assert.assertArrayEquals(mod, Files.readAllBytes(dest.resolve("mods/mod.jar")));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(dest.resolve("options.txt")));
+        Assert.assertFalse(Files.isSameFile(src.resolve("options.txt"), dest.resolve("options.txt")));
+
+        String hash = Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, mod));
+        Path stored = repository.getFile(CacheRepository.SHA1, hash);
+        Assert.assertTrue("The archive is stored", Files.isRegularFile(stored));
+        Assert.assertFalse("The source is not linked to the store", Files.isSameFile(stored, src.resolve("mods/mod.jar")));
+
+        // A second copy is placed from the store.
+        Path again = directory.resolve("again");
+        store.copyDirectory(src, again, path -> true);
+        Assert.assertArrayEquals(mod, Files.readAllBytes(again.resolve("mods/mod.jar")));
+        Assert.assertFalse(Files.isSameFile(stored, src.resolve("mods/mod.jar")));
+    }
+
+    @Test
+    public void testStoredFileChangedInPlaceIsNotPlaced() throws Exception {
+        CacheRepository repository = new CacheRepository();
+        repository.changeDirectory(directory.resolve("common"));
+        ContentStore store = new ContentStore(repository);
+
+        byte[] mod = new byte[10_000];
+        new Random(3).nextBytes(mod);
+        Path first = write(directory.resolve("versions/a/mods/mod.jar"), mod);
+        store.store(first);
+        String hash = Hex.encodeHex(DigestUtils.digest(CacheRepository.SHA1, mod));
+        Path stored = repository.getFile(CacheRepository.SHA1, hash);
+        Assume.assumeTrue(Files.isSameFile(first, stored));
+        // Recorded by the checksum journal as verified.
+        Assert.assertTrue(store.place(directory.resolve("versions/c/mods/mod.jar"), hash));
+
+        // A tool rewrites the mod in place, keeping its size and last modified time.
+        FileTime lastModified = Files.getLastModifiedTime(first);
+        byte[] changed = mod.clone();
+        changed[0]++;
+        Files.write(first, changed);
+        Files.setLastModifiedTime(first, lastModified);
+
+        Path second = directory.resolve("versions/b/mods/mod.jar");
+        Assert.assertFalse(store.place(second, hash));
+        Assert.assertFalse(Files.exists(second));
+        Assert.assertFalse("The changed copy is dropped from the store", Files.exists(stored));
+        Assert.assertArrayEquals(changed, Files.readAllBytes(first));
+    }
+
+    private static Path write(Path file, byte[] content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return file;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.spark.slauncher.util.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class FileMaterializerTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("materializer");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+        FileMaterializer.setStrategy(FileMaterializer.Strategy.AUTO);
+    }
+
+    @Test
+    public void testReplacesTarget() throws IOException {
+        Path source = directory.resolve("cache/object");
+        Path target = directory.resolve("assets/object");
+        FileUtils.writeText(source.toFile(), "content");
+        FileUtils.writeText(target.toFile(), "old content");
+
+        FileMaterializer.Strategy used = FileMaterializer.materialize(source, target);
+        Assert.assertEquals("content", FileUtils.readText(target.toFile()));
+        Assert.assertEquals(Files.getLastModifiedTime(source), Files.getLastModifiedTime(target));
+        if (used == FileMaterializer.Strategy.HARD_LINK)
+            Assert.assertTrue(Files.isSameFile(source, target));
+
+        FileMaterializer.setStrategy(FileMaterializer.Strategy.COPY);
+        Assert.assertEquals(FileMaterializer.Strategy.COPY, FileMaterializer.materialize(source, target));
+        Assert.assertFalse(Files.isSameFile(source, target));
+        Assert.assertEquals("content", FileUtils.readText(target.toFile()));
+    }
+
+    @Test
+    public void testConcurrentPlacementOfSameTarget() throws Exception {
+        Path source = directory.resolve("cache/object");
+        Path target = directory.resolve("assets/object");
+        FileUtils.writeText(source.toFile(), "content");
+        FileMaterializer.Strategy expected = FileMaterializer.materialize(source, directory.resolve("probe"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 20; round++) {
+                Files.deleteIfExists(target);
+                List<Future<FileMaterializer.Strategy>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++)
+                    futures.add(executor.submit(() -> FileMaterializer.materialize(source, target)));
+                // Placements racing for the target neither fail nor fall back to another way.
+                for (Future<FileMaterializer.Strategy> future : futures)
+                    Assert.assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("content", FileUtils.readText(target.toFile()));
+        try (Stream<Path> files = Files.list(target.getParent())) {
+            Assert.assertEquals("No temporary file should be left", 1, files.count());
+        }
+    }
+}
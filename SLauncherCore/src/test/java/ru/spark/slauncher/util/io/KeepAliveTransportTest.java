@@ -0,0 +1,86 @@
+package ru.spark.slauncher.util.io;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeepAliveTransportTest {
+
+    private HttpServer server;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requests.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            if (path.startsWith("/permanent/") || path.startsWith("/temporary/")) {
+                exchange.getResponseHeaders().add("Location", "/target" + path);
+                exchange.sendResponseHeaders(path.startsWith("/permanent/") ? 301 : 302, -1);
+            } else {
+                byte[] body = path.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String get(KeepAliveTransport transport, String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        HttpURLConnection conn = transport.resolveConnection((HttpURLConnection) transport.createConnection(url));
+        try (InputStream is = conn.getInputStream()) {
+            return new String(IOUtils.readFullyWithoutClosing(is), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void testPermanentRedirectCachedPerURL() throws IOException {
+        KeepAliveTransport transport = new KeepAliveTransport();
+        Assert.assertEquals("/target/permanent/a", get(transport, "/permanent/a"));
+        Assert.assertEquals("/target/permanent/a", get(transport, "/permanent/a"));
+        Assert.assertEquals(1, requests("/permanent/a"));
+        Assert.assertEquals(1, transport.getCachedRedirectCount());
+
+        // Other paths of the same host are not redirected by the cache.
+        Assert.assertEquals("/target/permanent/b", get(transport, "/permanent/b"));
+        Assert.assertEquals(1, requests("/permanent/b"));
+        Assert.assertEquals(2, transport.getCachedRedirectCount());
+    }
+
+    @Test
+    public void testTemporaryRedirectNotCached() throws IOException {
+        KeepAliveTransport transport = new KeepAliveTransport();
+        Assert.assertEquals("/target/temporary/a", get(transport, "/temporary/a"));
+        Assert.assertEquals("/target/temporary/a", get(transport, "/temporary/a"));
+        Assert.assertEquals(2, requests("/temporary/a"));
+        Assert.assertEquals(0, transport.getCachedRedirectCount());
+    }
+}
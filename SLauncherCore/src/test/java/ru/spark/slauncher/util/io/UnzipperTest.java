@@ -0,0 +1,64 @@
+package ru.spark.slauncher.util.io;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class UnzipperTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("unzipper");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testFilterArguments() throws IOException {
+        Path zip = directory.resolve("test.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zos = new ZipOutputStream(out)) {
+            zos.putNextEntry(new ZipEntry("overrides/config/a.cfg"));
+            zos.write("zipped".getBytes(UTF_8));
+            zos.closeEntry();
+        }
+        Path dest = directory.resolve("dest");
+        Files.createDirectories(dest.resolve("config"));
+        Files.write(dest.resolve("config/a.cfg"), "existing".getBytes(UTF_8));
+
+        List<String> accepted = new ArrayList<>();
+        new Unzipper(zip, dest)
+                .setSubDirectory("/overrides")
+                .setFilter((zipEntry, isDirectory, destFile, entryPath) -> {
+                    if (isDirectory)
+                        return true;
+                    Assert.assertNotSame("The zip entry comes first", FileSystems.getDefault(), zipEntry.getFileSystem());
+                    Assert.assertEquals("zipped", new String(Files.readAllBytes(zipEntry), UTF_8));
+                    Assert.assertEquals("The installed file comes third", dest.resolve("config/a.cfg"), destFile);
+                    Assert.assertEquals("existing", new String(Files.readAllBytes(destFile), UTF_8));
+                    accepted.add(entryPath);
+                    return false;
+                }).unzip();
+
+        Assert.assertEquals(1, accepted.size());
+        Assert.assertEquals("config/a.cfg", accepted.get(0));
+        Assert.assertEquals("existing", new String(Files.readAllBytes(dest.resolve("config/a.cfg")), UTF_8));
+    }
+}